@@ -0,0 +1,105 @@
+package com.newrelic.infra.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of a full populateMetrics harvest cycle, from running the queries to
+ * handing the rows to the reporter, for a number of identical commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AgentBenchmark {
+
+  @Param({"8", "32"})
+  public int width;
+
+  @Param({"1000"})
+  public int rows;
+
+  @Param({"1", "4"})
+  public int commands;
+
+  private File inputFile;
+  private InfraDbAgent agent;
+
+  /**
+   * Create the table, write an input file and start the agent.
+   */
+  @Setup
+  public void setUp() throws Exception {
+    final String database = BenchmarkTable.create(width, rows);
+
+    inputFile = File.createTempFile("nri-db-benchmark", ".json");
+    try (Writer writer = new OutputStreamWriter(
+        new FileOutputStream(inputFile),
+        StandardCharsets.UTF_8
+    )) {
+      writer.write("[");
+      for (int x = 0; x < commands; x++) {
+        writer.write((x > 0 ? "," : "")
+            + "{\"query\": \"SELECT * FROM " + BenchmarkTable.table + "\","
+            + " \"name\": \"Benchmark " + x + "\", \"type\": \"metric\","
+            + " \"database\": \"" + database + "\", \"provider\": \"HSQLDB\"}");
+      }
+      writer.write("]");
+    }
+
+    agent = new InfraDbAgent(
+        "Benchmark",
+        "localhost",
+        0,
+        BenchmarkTable.user,
+        BenchmarkTable.password,
+        inputFile.getPath(),
+        false,
+        false,
+        false,
+        null,
+        null,
+        null,
+        false
+    );
+  }
+
+  /**
+   * Stop the agent and remove the input file.
+   */
+  @TearDown
+  public void tearDown() throws Exception {
+    agent.dispose();
+    inputFile.delete();
+  }
+
+  /**
+   * Run one harvest cycle.
+   */
+  @Benchmark
+  public void populateMetrics(Blackhole blackhole) throws Exception {
+    agent.populateMetrics(null, (eventType, metrics, instanceId) -> {
+      blackhole.consume(metrics);
+      blackhole.consume(instanceId);
+    });
+  }
+}
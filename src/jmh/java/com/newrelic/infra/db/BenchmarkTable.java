@@ -0,0 +1,105 @@
+package com.newrelic.infra.db;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * An in-memory HSQLDB table of configurable width and row count for the
+ * benchmarks. The columns cycle through the SQL types the agent sees most.
+ */
+final class BenchmarkTable {
+  static final String user = "SA";
+  static final String password = "SA";
+  static final String table = "BENCH";
+
+  private static final String[] columnTypes = {
+      "INTEGER", "BIGINT", "DOUBLE", "VARCHAR(32)", "DECIMAL(12,2)", "TIMESTAMP"
+  };
+
+  private BenchmarkTable() {
+  }
+
+  /**
+   * Get the name of the in-memory database holding a table of the given size.
+   */
+  static String getDatabase(int width, int rows) {
+    return "BENCH_" + width + "_" + rows;
+  }
+
+  /**
+   * Open a connection to the in-memory database.
+   */
+  static Connection connect(String database) throws SQLException {
+    try {
+      Class.forName("org.hsqldb.jdbc.JDBCDriver");
+    } catch (ClassNotFoundException e) {
+      throw new SQLException("HSQLDB driver not found", e);
+    }
+    return DriverManager.getConnection("jdbc:hsqldb:mem:" + database, user, password);
+  }
+
+  /**
+   * Create and fill the table, if it does not exist yet.
+   *
+   * @return Name of the database holding the table
+   */
+  static String create(int width, int rows) throws SQLException {
+    final String database = getDatabase(width, rows);
+
+    try (Connection connection = connect(database)) {
+      try (Statement statement = connection.createStatement()) {
+        final StringBuilder ddl = new StringBuilder("CREATE TABLE " + table + " (");
+        for (int column = 0; column < width; column++) {
+          if (column > 0) {
+            ddl.append(", ");
+          }
+          ddl.append("C").append(column).append(' ')
+              .append(columnTypes[column % columnTypes.length]);
+        }
+        statement.execute(ddl.append(")").toString());
+      } catch (SQLException e) {
+        return database; // Already there from an earlier trial
+      }
+
+      final StringBuilder insert = new StringBuilder("INSERT INTO " + table + " VALUES (");
+      for (int column = 0; column < width; column++) {
+        insert.append(column > 0 ? ", ?" : "?");
+      }
+
+      insert.append(")");
+      try (PreparedStatement statement = connection.prepareStatement(insert.toString())) {
+        for (int row = 0; row < rows; row++) {
+          for (int column = 0; column < width; column++) {
+            statement.setObject(column + 1, getValue(column, row));
+          }
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      }
+      connection.commit();
+    }
+    return database;
+  }
+
+  private static Object getValue(int column, int row) {
+    switch (column % columnTypes.length) {
+      case 0:
+        return row;
+      case 1:
+        return (long) row * column;
+      case 2:
+        return row / 7.0;
+      case 3:
+        return "value " + row + " of column " + column;
+      case 4:
+        return BigDecimal.valueOf(row * 100L + column, 2);
+      default:
+        return new Timestamp(1500000000000L + row * 1000L);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package com.newrelic.infra.db;
+
+import com.newrelic.infra.db.command.DatabaseCommand;
+import com.newrelic.infra.db.command.MetricRow;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of emitting parsed rows: adding the command's default attributes and
+ * the agent's static attributes to each row and handing it to the reporter.
+ * Each operation is one row, so gc.alloc.rate.norm from the gc profiler is
+ * the bytes allocated per row. The row's own metrics come from the parser and
+ * are built once, outside the measurement.
+ * <p>
+ * Every iteration also measures the bytes allocated per row and fails the
+ * run if they exceed maxBytesPerRow, whatever the width of the row.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EmissionBenchmark {
+  // Two row views of 24 bytes each, with room for the per batch iterator
+  static final long maxBytesPerRow = 64;
+  static final int rows = 1000;
+
+  @Param({"8", "32"})
+  public int width;
+
+  private File inputFile;
+  private InfraDbAgent agent;
+  private DatabaseCommand command;
+  private List<Metric> staticAttributes;
+  private List<List<Metric>> parsed;
+  private List<List<Metric>> batch;
+  private long allocatedBefore;
+  private long invocations;
+
+  /**
+   * Start an agent with one command and parse the rows it reports.
+   */
+  @Setup
+  public void setUp() throws Exception {
+    inputFile = File.createTempFile("nri-db-benchmark", ".json");
+    try (Writer writer = new OutputStreamWriter(
+        new FileOutputStream(inputFile),
+        StandardCharsets.UTF_8
+    )) {
+      writer.write("[{\"query\": \"SELECT * FROM " + BenchmarkTable.table + "\","
+          + " \"name\": \"Benchmark\", \"type\": \"metric\","
+          + " \"database\": \"benchmark\", \"provider\": \"HSQLDB\"}]");
+    }
+
+    agent = new InfraDbAgent(
+        "Benchmark",
+        "localhost",
+        0,
+        BenchmarkTable.user,
+        BenchmarkTable.password,
+        inputFile.getPath(),
+        false,
+        false,
+        false,
+        null,
+        null,
+        null,
+        false
+    );
+    command = agent.getCommands(inputFile.getPath()).get(0);
+    command.updateDefaultMetrics();
+
+    staticAttributes = Arrays.asList(
+        new AttributeMetric("environment", "benchmark"),
+        new AttributeMetric("team", "database"),
+        new AttributeMetric("region", "local")
+    );
+    parsed = new ArrayList<>(rows);
+    for (int row = 0; row < rows; row++) {
+      final List<Metric> values = new ArrayList<>(width);
+      for (int column = 0; column < width; column++) {
+        values.add(new GaugeMetric("c" + column, row * column));
+      }
+      parsed.add(values);
+    }
+    batch = new ArrayList<>(rows);
+  }
+
+  /**
+   * Stop the agent and remove the input file.
+   */
+  @TearDown
+  public void tearDown() throws Exception {
+    agent.dispose();
+    inputFile.delete();
+  }
+
+  @Setup(Level.Iteration)
+  public void startCounting() {
+    allocatedBefore = allocatedBytes();
+    invocations = 0;
+  }
+
+  /**
+   * Fail the run if emission allocated more than maxBytesPerRow per row.
+   */
+  @TearDown(Level.Iteration)
+  public void checkAllocation() {
+    final long perRow = (allocatedBytes() - allocatedBefore) / Math.max(1, invocations * rows);
+
+    if (perRow > maxBytesPerRow) {
+      throw new IllegalStateException(
+          "Emission allocated " + perRow + " bytes per row, the target is " + maxBytesPerRow
+      );
+    }
+  }
+
+  /**
+   * Emit one batch of rows, the way readResultSet and populateMetrics do.
+   */
+  @Benchmark
+  @OperationsPerInvocation(rows)
+  public void emitRows(Blackhole blackhole) {
+    final List<Metric> defaults = command.getDefaultMetrics();
+
+    batch.clear();
+    for (int row = 0; row < rows; row++) {
+      batch.add(new MetricRow(parsed.get(row), defaults));
+    }
+    agent.reportMetrics(
+        command,
+        command.getStats(),
+        batch,
+        staticAttributes,
+        (eventType, metrics, instanceId) -> {
+          blackhole.consume(metrics);
+          blackhole.consume(instanceId);
+        }
+    );
+    invocations += 1;
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,95 @@
+package com.newrelic.infra.db;
+
+import com.newrelic.infra.db.command.HsqlDbCommand;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of hashing every row of a result set for deduplication, over the
+ * whole row and over a single key column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HashBenchmark {
+
+  @Param({"8", "32"})
+  public int width;
+
+  @Param({"1000"})
+  public int rows;
+
+  private Connection connection;
+  private PreparedStatement select;
+  private HsqlDbCommand wholeRow;
+  private HsqlDbCommand keyColumn;
+
+  /**
+   * Create the table and the commands.
+   */
+  @Setup
+  public void setUp() throws Exception {
+    connection = BenchmarkTable.connect(BenchmarkTable.create(width, rows));
+    select = connection.prepareStatement("SELECT * FROM " + BenchmarkTable.table);
+
+    wholeRow = new HsqlDbCommand();
+    wholeRow.setDeduplicate(true);
+    keyColumn = new HsqlDbCommand();
+    keyColumn.setDeduplicate(true);
+    keyColumn.setDedupKeyColumns(Collections.singletonList("C0"));
+  }
+
+  /**
+   * Close the connection.
+   */
+  @TearDown
+  public void tearDown() throws Exception {
+    select.close();
+    connection.close();
+  }
+
+  /**
+   * Hash every row over all of its columns.
+   */
+  @Benchmark
+  public void calculateHash(Blackhole blackhole) throws Exception {
+    hashAll(wholeRow, blackhole);
+  }
+
+  /**
+   * Hash every row over its key column only.
+   */
+  @Benchmark
+  public void calculateKeyHash(Blackhole blackhole) throws Exception {
+    hashAll(keyColumn, blackhole);
+  }
+
+  private void hashAll(HsqlDbCommand command, Blackhole blackhole) throws Exception {
+    try (ResultSet rs = select.executeQuery()) {
+      final ResultSetMetaData rsmd = rs.getMetaData();
+      while (rs.next()) {
+        blackhole.consume(command.calculateHash(rs, rsmd));
+      }
+    }
+  }
+}
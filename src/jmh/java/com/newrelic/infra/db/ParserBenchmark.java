@@ -0,0 +1,132 @@
+package com.newrelic.infra.db;
+
+import com.newrelic.infra.db.parser.GenericParser;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of reading a whole result set through each GenericParser path and
+ * through Util.getSqlColumnByType. Each operation reads every row of the
+ * table, so the cost per row is the score divided by rows. The iterate
+ * benchmark is the JDBC baseline to subtract.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParserBenchmark {
+
+  @Param({"8", "32"})
+  public int width;
+
+  @Param({"1000"})
+  public int rows;
+
+  private Connection connection;
+  private PreparedStatement select;
+  private GenericParser parser;
+
+  /**
+   * Create the table and prepare the query.
+   */
+  @Setup
+  public void setUp() throws Exception {
+    connection = BenchmarkTable.connect(BenchmarkTable.create(width, rows));
+    select = connection.prepareStatement("SELECT * FROM " + BenchmarkTable.table);
+    parser = new GenericParser();
+  }
+
+  /**
+   * Close the connection.
+   */
+  @TearDown
+  public void tearDown() throws Exception {
+    select.close();
+    connection.close();
+  }
+
+  /**
+   * Walk the rows without reading them, the JDBC baseline.
+   */
+  @Benchmark
+  public void iterate(Blackhole blackhole) throws Exception {
+    try (ResultSet rs = select.executeQuery()) {
+      while (rs.next()) {
+        blackhole.consume(rs);
+      }
+    }
+  }
+
+  /**
+   * Parse every row as metrics.
+   */
+  @Benchmark
+  public void parseMetricRow(Blackhole blackhole) throws Exception {
+    try (ResultSet rs = select.executeQuery()) {
+      final ResultSetMetaData rsmd = rs.getMetaData();
+      while (rs.next()) {
+        blackhole.consume(parser.parseMetricRow("gauge", rs, rsmd));
+      }
+    }
+  }
+
+  /**
+   * Parse every row as inventory.
+   */
+  @Benchmark
+  public void parseInventoryRow(Blackhole blackhole) throws Exception {
+    try (ResultSet rs = select.executeQuery()) {
+      final ResultSetMetaData rsmd = rs.getMetaData();
+      while (rs.next()) {
+        blackhole.consume(parser.parseInventoryRow(rs, rsmd));
+      }
+    }
+  }
+
+  /**
+   * Parse every row as raw values.
+   */
+  @Benchmark
+  public void parseRawRow(Blackhole blackhole) throws Exception {
+    try (ResultSet rs = select.executeQuery()) {
+      final ResultSetMetaData rsmd = rs.getMetaData();
+      while (rs.next()) {
+        blackhole.consume(parser.parseRawRow(rs, rsmd));
+      }
+    }
+  }
+
+  /**
+   * Read every column of every row with its Java type.
+   */
+  @Benchmark
+  public void getSqlColumnByType(Blackhole blackhole) throws Exception {
+    try (ResultSet rs = select.executeQuery()) {
+      final ResultSetMetaData rsmd = rs.getMetaData();
+      final int columns = rsmd.getColumnCount();
+      while (rs.next()) {
+        for (int column = 1; column <= columns; column++) {
+          blackhole.consume(Util.getSqlColumnByType(rs, rsmd, column));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,266 @@
+package com.newrelic.infra.db;
+
+import com.newrelic.infra.db.pool.PoolSettings;
+import com.newrelic.infra.db.scheduler.BreakerSettings;
+import com.newrelic.infra.db.scheduler.OverlapPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Optional, agent wide tuning settings read from the agent instance
+ * configuration. Every setting has a default so an empty instance is valid.
+ */
+public class AgentOptions {
+  private static final int defaultMaxParallelQueries = 4;
+  private static final int defaultStreamBufferSize = 4;
+
+  private PoolSettings poolSettings = new PoolSettings();
+  private int maxParallelQueries = defaultMaxParallelQueries;
+  private OverlapPolicy overlapPolicy = OverlapPolicy.SKIP;
+  private int streamBufferSize = defaultStreamBufferSize;
+  private Integer fetchSize = null;
+  private String stateDirectory = null;
+  private boolean selfMonitoring = true;
+  private Integer queryTimeout = null;
+  private Integer connectTimeout = null;
+  private Integer maxRows = null;
+  private Long maxResultBytes = null;
+  private int cycleTimeout = 0;
+  private int initialQueryTimeout = 0;
+  private BreakerSettings breakerSettings = new BreakerSettings();
+  private double adaptiveIntervalShare = 0;
+  private boolean watchInputfile = true;
+  private List<DatabaseHost> hosts = Collections.emptyList();
+
+  public PoolSettings getPoolSettings() {
+    return poolSettings;
+  }
+
+  /**
+   * Set the connection pool settings used by every command of the agent.
+   */
+  public void setPoolSettings(PoolSettings poolSettings) {
+    if (poolSettings != null) {
+      this.poolSettings = poolSettings;
+    }
+  }
+
+  public int getMaxParallelQueries() {
+    return maxParallelQueries;
+  }
+
+  /**
+   * Set how many commands of the agent may run at the same time. A value of 1
+   * runs the commands one after the other on the harvest thread.
+   */
+  public void setMaxParallelQueries(int maxParallelQueries) {
+    if (maxParallelQueries > 0) {
+      this.maxParallelQueries = maxParallelQueries;
+    }
+  }
+
+  public OverlapPolicy getOverlapPolicy() {
+    return overlapPolicy;
+  }
+
+  /**
+   * Set the default overlap policy for commands with their own interval.
+   */
+  public void setOverlapPolicy(OverlapPolicy overlapPolicy) {
+    if (overlapPolicy != null) {
+      this.overlapPolicy = overlapPolicy;
+    }
+  }
+
+  public int getStreamBufferSize() {
+    return streamBufferSize;
+  }
+
+  /**
+   * Set how many batches streaming commands may buffer ahead of the reporter
+   * before they are blocked.
+   */
+  public void setStreamBufferSize(int streamBufferSize) {
+    if (streamBufferSize > 0) {
+      this.streamBufferSize = streamBufferSize;
+    }
+  }
+
+  /**
+   * Get the fetch size for every command of the agent, or null to use the
+   * provider default.
+   */
+  public Integer getFetchSize() {
+    return fetchSize;
+  }
+
+  public void setFetchSize(Integer fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Get the directory where command watermarks and dedup history are saved
+   * between restarts, or null to keep them in memory only.
+   */
+  public String getStateDirectory() {
+    return stateDirectory;
+  }
+
+  public void setStateDirectory(String stateDirectory) {
+    this.stateDirectory = stateDirectory;
+  }
+
+  public boolean isSelfMonitoring() {
+    return selfMonitoring;
+  }
+
+  /**
+   * Set whether to report an NriDbCommandSample event with the cost of every
+   * command run.
+   */
+  public void setSelfMonitoring(boolean selfMonitoring) {
+    this.selfMonitoring = selfMonitoring;
+  }
+
+  /**
+   * Get the seconds every command of the agent may run before it is
+   * cancelled, or null for no limit.
+   */
+  public Integer getQueryTimeout() {
+    return queryTimeout;
+  }
+
+  public void setQueryTimeout(Integer queryTimeout) {
+    this.queryTimeout = queryTimeout;
+  }
+
+  /**
+   * Get the seconds every command of the agent waits to open a connection, or
+   * null for the driver default.
+   */
+  public Integer getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(Integer connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * Get the most rows a query of the agent reads, unless the query sets its
+   * own limit. null for no limit.
+   */
+  public Integer getMaxRows() {
+    return maxRows;
+  }
+
+  public void setMaxRows(Integer maxRows) {
+    this.maxRows = maxRows;
+  }
+
+  /**
+   * Get the most bytes, estimated from the column types, a query of the agent
+   * reads, unless the query sets its own limit. null for no limit.
+   */
+  public Long getMaxResultBytes() {
+    return maxResultBytes;
+  }
+
+  public void setMaxResultBytes(Long maxResultBytes) {
+    this.maxResultBytes = maxResultBytes;
+  }
+
+  /**
+   * Get the seconds a harvest cycle may spend running commands, 0 for no
+   * limit.
+   */
+  public int getCycleTimeout() {
+    return cycleTimeout;
+  }
+
+  /**
+   * Set the seconds a harvest cycle may spend running commands. Once they are
+   * spent, commands that have not started are skipped and running ones are
+   * cancelled.
+   */
+  public void setCycleTimeout(int cycleTimeout) {
+    if (cycleTimeout >= 0) {
+      this.cycleTimeout = cycleTimeout;
+    }
+  }
+
+  /**
+   * Get the seconds an initial query may run before it is cancelled and tried
+   * again on a later harvest cycle, 0 to use the query timeout.
+   */
+  public int getInitialQueryTimeout() {
+    return initialQueryTimeout;
+  }
+
+  /**
+   * Set the seconds an initial query may run before it is cancelled.
+   */
+  public void setInitialQueryTimeout(int initialQueryTimeout) {
+    if (initialQueryTimeout >= 0) {
+      this.initialQueryTimeout = initialQueryTimeout;
+    }
+  }
+
+  public BreakerSettings getBreakerSettings() {
+    return breakerSettings;
+  }
+
+  /**
+   * Set the circuit breaker settings used for every command and connection of
+   * the agent.
+   */
+  public void setBreakerSettings(BreakerSettings breakerSettings) {
+    if (breakerSettings != null) {
+      this.breakerSettings = breakerSettings;
+    }
+  }
+
+  public double getAdaptiveIntervalShare() {
+    return adaptiveIntervalShare;
+  }
+
+  /**
+   * Set the share of its interval, between 0 and 1, a command may spend
+   * running before its interval is lengthened. 0 keeps the configured
+   * intervals.
+   */
+  public void setAdaptiveIntervalShare(double adaptiveIntervalShare) {
+    if (adaptiveIntervalShare >= 0 && adaptiveIntervalShare <= 1) {
+      this.adaptiveIntervalShare = adaptiveIntervalShare;
+    }
+  }
+
+  public boolean isWatchInputfile() {
+    return watchInputfile;
+  }
+
+  /**
+   * Set whether changes to the inputfile are applied without a restart.
+   */
+  public void setWatchInputfile(boolean watchInputfile) {
+    this.watchInputfile = watchInputfile;
+  }
+
+  /**
+   * Get the database hosts every command runs against, empty to only use the
+   * hostname of the agent instance.
+   */
+  public List<DatabaseHost> getHosts() {
+    return hosts;
+  }
+
+  /**
+   * Set the database hosts every command runs against.
+   */
+  public void setHosts(List<DatabaseHost> hosts) {
+    this.hosts = hosts != null
+        ? Collections.unmodifiableList(new ArrayList<>(hosts))
+        : Collections.<DatabaseHost>emptyList();
+  }
+}
@@ -0,0 +1,113 @@
+package com.newrelic.infra.db;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One of the database servers an agent instance runs its commands against.
+ */
+public final class DatabaseHost {
+  private final String hostname;
+  private final int port;
+
+  /**
+   * Create a new database host.
+   */
+  public DatabaseHost(String hostname, int port) {
+    this.hostname = hostname;
+    this.port = port;
+  }
+
+  /**
+   * Parse a host entry of the form host, host:port or [ipv6 address]:port.
+   *
+   * @param entry       The host entry
+   * @param defaultPort Port to use if the entry does not have one
+   * @return The database host
+   * @throws IOException if the entry is empty or its port is not a number.
+   */
+  public static DatabaseHost parse(String entry, int defaultPort) throws IOException {
+    final String trimmed = entry == null ? "" : entry.trim();
+    String host = trimmed;
+    String port = null;
+
+    if (trimmed.startsWith("[")) {
+      final int end = trimmed.indexOf(']');
+      if (end < 0) {
+        throw new IOException("Invalid host [" + entry + "]");
+      }
+      host = trimmed.substring(1, end);
+      if (trimmed.startsWith(":", end + 1)) {
+        port = trimmed.substring(end + 2);
+      }
+    } else if (trimmed.indexOf(':') >= 0 && trimmed.indexOf(':') == trimmed.lastIndexOf(':')) {
+      host = trimmed.substring(0, trimmed.indexOf(':'));
+      port = trimmed.substring(trimmed.indexOf(':') + 1);
+    }
+
+    if (host.isEmpty()) {
+      throw new IOException("Invalid host [" + entry + "]");
+    }
+    try {
+      return new DatabaseHost(host, port != null ? Integer.parseInt(port.trim()) : defaultPort);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid port in host [" + entry + "]");
+    }
+  }
+
+  /**
+   * Read a host list file, one host entry per line. Blank lines and lines
+   * starting with # are ignored.
+   *
+   * @param file        Path of the host list file
+   * @param defaultPort Port to use for entries that do not have one
+   * @return The database hosts, in file order
+   * @throws IOException if the file cannot be read or has an invalid entry.
+   */
+  public static List<DatabaseHost> readFile(String file, int defaultPort) throws IOException {
+    final List<DatabaseHost> hosts = new ArrayList<>();
+
+    for (final String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+      final String entry = line.trim();
+      if (!entry.isEmpty() && !entry.startsWith("#")) {
+        hosts.add(parse(entry, defaultPort));
+      }
+    }
+    return hosts;
+  }
+
+  public String getHostname() {
+    return hostname;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof DatabaseHost)) {
+      return false;
+    }
+    final DatabaseHost that = (DatabaseHost) other;
+    return port == that.port && Objects.equals(hostname, that.hostname);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hostname, port);
+  }
+
+  @Override
+  public String toString() {
+    return port != 0 ? hostname + ":" + port : String.valueOf(hostname);
+  }
+}
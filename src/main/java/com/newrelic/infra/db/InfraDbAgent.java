@@ -1,22 +1,37 @@
 package com.newrelic.infra.db;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.newrelic.infra.db.aggregate.AggregateSpec;
 import com.newrelic.infra.db.command.As400Command;
+import com.newrelic.infra.db.command.CommandStats;
 import com.newrelic.infra.db.command.DatabaseCommand;
 import com.newrelic.infra.db.command.Db2Command;
 import com.newrelic.infra.db.command.HsqlDbCommand;
+import com.newrelic.infra.db.command.MetricRow;
+import com.newrelic.infra.db.command.MetricSink;
 import com.newrelic.infra.db.command.MsSqlCommand;
 import com.newrelic.infra.db.command.MySqlCommand;
 import com.newrelic.infra.db.command.OracleCommand;
 import com.newrelic.infra.db.command.PostgresCommand;
 import com.newrelic.infra.db.command.SybaseCommand;
+import com.newrelic.infra.db.pool.ConnectionKey;
+import com.newrelic.infra.db.sampling.SampleMode;
+import com.newrelic.infra.db.scheduler.CircuitBreaker;
+import com.newrelic.infra.db.scheduler.CommandScheduler;
+import com.newrelic.infra.db.scheduler.OverlapPolicy;
+import com.newrelic.infra.db.scheduler.Watchdog;
+import com.newrelic.infra.db.state.CommandState;
+import com.newrelic.infra.db.state.StateStore;
 import com.newrelic.infra.publish.api.Agent;
 import com.newrelic.infra.publish.api.InventoryReporter;
 import com.newrelic.infra.publish.api.MetricReporter;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
 import com.newrelic.infra.publish.api.metrics.Metric;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -25,9 +40,42 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,9 +87,59 @@ public class InfraDbAgent extends Agent {
   private static final Logger logger = LoggerFactory.getLogger(InfraDbAgent.class);
   private static final String METRIC = "metric";
   private static final String INVENTORY = "inventory";
+  private static final long streamPollInterval = 50L;
+  private static final long cancelGracePeriod = 5000L;
+  private static final String COMMAND_SAMPLE = "NriDbCommandSample";
 
-  private List<DatabaseCommand> commands = null;
+  /**
+   * Something to do while waiting for commands to finish.
+   */
+  @FunctionalInterface
+  interface WaitAction {
+    void run() throws InterruptedException;
+  }
+
+  /**
+   * Where the rows of a harvest cycle are reported to, normally the
+   * {@link MetricReporter}.
+   */
+  @FunctionalInterface
+  interface MetricTarget {
+    void report(String eventType, List<Metric> metrics, String instanceId);
+  }
+
+  /**
+   * The result of a scheduled command run, waiting for the next harvest.
+   */
+  private static final class CompletedRun<T> {
+    private final DatabaseCommand command;
+    private final T result;
+    private final CommandStats stats;
+
+    private CompletedRun(DatabaseCommand command, T result, CommandStats stats) {
+      this.command = command;
+      this.result = result;
+      this.stats = stats;
+    }
+  }
+
+  /**
+   * How a command has been doing: its circuit breaker and, for commands that
+   * run on the harvest cycle, how often it runs.
+   */
+  private static final class CommandHealth {
+    private final CircuitBreaker breaker;
+    private long period = 0;
+    private long nextRun = 0;
+
+    private CommandHealth(CircuitBreaker breaker) {
+      this.breaker = breaker;
+    }
+  }
+
+  private volatile List<DatabaseCommand> commands = null;
   private String name = null;
+  private String inputfile = null;
   private String hostname = null;
   private Integer port = null;
   private String username = null;
@@ -53,106 +151,1299 @@ public class InfraDbAgent extends Agent {
   private String sslTrustStoreLocation = null;
   private String sslTrustStorePassword = null;
   private boolean useSsl = false;
+  private AgentOptions options = null;
+  private ExecutorService queryExecutor = null;
+  private ExecutorService initialQueryExecutor = null;
+  private final Map<DatabaseCommand, Future<?>> initializing = new IdentityHashMap<>();
+  private CommandScheduler scheduler = null;
+  private final Queue<CompletedRun<List<List<Metric>>>> completedMetrics
+      = new ConcurrentLinkedQueue<>();
+  private final Queue<CompletedRun<Map<String, Map<String, String>>>> completedInventory
+      = new ConcurrentLinkedQueue<>();
+  private BlockingQueue<CompletedRun<List<List<Metric>>>> streamedMetrics = null;
+  private final Queue<CompletedRun<Void>> completedSamples = new ConcurrentLinkedQueue<>();
+  private StateStore stateStore = null;
+  private final Map<String, CommandState> savedState = new HashMap<>();
+  private final Map<String, Long> savedVersions = new HashMap<>();
+  private final Map<DatabaseCommand, CommandHealth> health = new IdentityHashMap<>();
+  private final Map<ConnectionKey, CircuitBreaker> connectionBreakers = new HashMap<>();
+  private long lastHarvestStart = 0;
+  private long harvestInterval = 0;
+  private final Map<DatabaseCommand, JsonObject> definitions = new IdentityHashMap<>();
+  private final List<DatabaseCommand> retired = new ArrayList<>();
+  private boolean stateDirty = false;
+  private WatchService watchService = null;
+  private volatile boolean reloadPending = false;
+
+  /**
+   * Create the agent with default options.
+   */
+  public InfraDbAgent(
+      String name,
+      String hostname,
+      Integer port,
+      String username,
+      String password,
+      String inputfile,
+      boolean sslConnection,
+      boolean sslEncrypt,
+      boolean sslTrustServerCert,
+      String sslHostnameInCert,
+      String sslTrustStoreLocation,
+      String sslTrustStorePassword,
+      boolean useSsl
+  ) throws IOException {
+    this(
+        name,
+        hostname,
+        port,
+        username,
+        password,
+        inputfile,
+        sslConnection,
+        sslEncrypt,
+        sslTrustServerCert,
+        sslHostnameInCert,
+        sslTrustStoreLocation,
+        sslTrustStorePassword,
+        useSsl,
+        new AgentOptions()
+    );
+  }
+
+  /**
+   * Create the agent.
+   */
+  public InfraDbAgent(
+      String name,
+      String hostname,
+      Integer port,
+      String username,
+      String password,
+      String inputfile,
+      boolean sslConnection,
+      boolean sslEncrypt,
+      boolean sslTrustServerCert,
+      String sslHostnameInCert,
+      String sslTrustStoreLocation,
+      String sslTrustStorePassword,
+      boolean useSsl,
+      AgentOptions options
+  ) throws IOException {
+
+    this.name = name;
+    this.inputfile = inputfile;
+    this.hostname = hostname;
+    this.port = port;
+    this.username = username;
+    this.password = password;
+    this.sslConnection = sslConnection;
+    this.sslEncrypt = sslEncrypt;
+    this.sslTrustServerCert = sslTrustServerCert;
+    this.sslHostnameInCert = sslHostnameInCert;
+    this.sslTrustStoreLocation = sslTrustStoreLocation;
+    this.sslTrustStorePassword = sslTrustStorePassword;
+    this.useSsl = useSsl;
+    this.options = options != null ? options : new AgentOptions();
+    this.streamedMetrics = new ArrayBlockingQueue<>(this.options.getStreamBufferSize());
+
+    commands = createCommands(readDefinitions(inputfile));
+
+    if (this.options.getStateDirectory() != null) {
+      restoreState();
+    }
+
+    /*
+     * Start any Initial queries required by the above commands in the
+     * background, those restored from the state store have already been
+     * seeded. Only the commands that wait for one miss the first harvests.
+     */
+    initialQueryExecutor = createInitialQueryExecutor();
+    for (final DatabaseCommand command : commands) {
+      startInitialQuery(command);
+    }
+
+    startScheduler();
+
+    if (this.options.isWatchInputfile()) {
+      watchInputfile();
+    }
+  }
+
+  /**
+   * Create the commands of the configuration file, remembering the definition
+   * each one was created from so a reload can tell what changed.
+   */
+  private synchronized List<DatabaseCommand> createCommands(JsonArray array) throws IOException {
+    final List<DatabaseCommand> created = new ArrayList<>(array.size());
+
+    for (final JsonElement element : array) {
+      final JsonObject definition = (JsonObject) element;
+
+      for (final DatabaseHost host : getHosts()) {
+        final DatabaseCommand command = createCommand(definition, inputfile, host);
+
+        if (command != null) {
+          created.add(command);
+          definitions.put(command, definition);
+        }
+      }
+    }
+    return created;
+  }
+
+  /**
+   * Get the hosts every command runs against, one command per host and
+   * definition. Without a hosts setting that is the agent's own host.
+   */
+  private List<DatabaseHost> getHosts() {
+    if (options.getHosts().isEmpty()) {
+      return Collections.singletonList(new DatabaseHost(hostname, port != null ? port : 0));
+    }
+    return options.getHosts();
+  }
+
+  /**
+   * Watch the input file for changes. A change is applied at the start of the
+   * next harvest cycle, so the commands never change while they run.
+   */
+  private void watchInputfile() {
+    final Path file = Paths.get(inputfile).toAbsolutePath();
+    final WatchService watcher;
+
+    try {
+      watcher = file.getFileSystem().newWatchService();
+      // Editors often replace the file instead of writing to it
+      file.getParent().register(
+          watcher,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY
+      );
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.warn("Unable to watch [" + file + "], changes need a restart: " + e.getMessage());
+      return;
+    }
+
+    synchronized (this) {
+      watchService = watcher;
+    }
+
+    final Thread thread = new Thread(() -> {
+      try {
+        while (true) {
+          final WatchKey key = watcher.take();
+
+          for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                || file.getFileName().equals(event.context())) {
+              logger.debug("[" + file + "] changed, reloading on the next harvest cycle");
+              reloadPending = true;
+            }
+          }
+          key.reset();
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        logger.debug("Stopped watching [" + file + "]");
+      }
+    }, "nri-db-" + name + "-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void reloadIfChanged() {
+    if (reloadPending) {
+      reloadPending = false;
+      reloadCommands();
+    }
+  }
+
+  /**
+   * Apply the changes made to the input file since it was last read. Commands
+   * whose definition did not change are kept as they are, with their state,
+   * caches and connections. Removed and changed commands are taken off the
+   * schedule and closed after the next harvest cycle, so a changed command
+   * can take over their pooled connections. A changed command also takes over
+   * the watermark and dedup history of the command it replaces, as far as they
+   * still apply.
+   */
+  synchronized void reloadCommands() {
+    final List<DatabaseCommand> reloaded = new ArrayList<>();
+    final Map<DatabaseCommand, JsonObject> reloadedDefinitions = new IdentityHashMap<>();
+    final List<DatabaseCommand> created = new ArrayList<>();
+
+    try {
+      // Unchanged definitions keep their command, duplicates are matched in order
+      final Map<JsonObject, Deque<DatabaseCommand>> current = new HashMap<>();
+      for (final DatabaseCommand command : commands) {
+        current.computeIfAbsent(definitions.get(command), d -> new ArrayDeque<>()).add(command);
+      }
+
+      for (final JsonElement element : readDefinitions(inputfile)) {
+        final JsonObject definition = (JsonObject) element;
+        final Deque<DatabaseCommand> unchanged = current.get(definition);
+
+        // Commands were created host by host, so they come off in host order
+        for (final DatabaseHost host : getHosts()) {
+          DatabaseCommand command = unchanged != null ? unchanged.poll() : null;
+
+          if (command == null) {
+            command = createCommand(definition, inputfile, host);
+            if (command == null) {
+              continue;
+            }
+            created.add(command);
+          }
+          reloaded.add(command);
+          reloadedDefinitions.put(command, definition);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.error("Unable to reload [" + inputfile + "], keeping the current commands", e);
+      return;
+    }
+
+    final Map<String, Deque<DatabaseCommand>> removed = new HashMap<>();
+    int removedCount = 0;
+    for (final DatabaseCommand command : commands) {
+      if (!reloadedDefinitions.containsKey(command)) {
+        removed.computeIfAbsent(getReplacementKey(command), n -> new ArrayDeque<>()).add(command);
+        removedCount += 1;
+        if (scheduler != null) {
+          scheduler.unschedule(command);
+        }
+        synchronized (health) {
+          health.remove(command);
+        }
+        synchronized (initializing) {
+          final Future<?> initialQuery = initializing.remove(command);
+          if (initialQuery != null) {
+            initialQuery.cancel(true);
+          }
+        }
+        retired.add(command);
+      }
+    }
+
+    if (created.isEmpty() && removedCount == 0) {
+      logger.info("[" + inputfile + "] changed, but none of its commands did");
+      return;
+    }
+
+    for (final DatabaseCommand command : created) {
+      final Deque<DatabaseCommand> replaces = removed.get(getReplacementKey(command));
+      final DatabaseCommand previous = replaces != null ? replaces.poll() : null;
+      CommandState state = previous != null ? previous.snapshotState() : null;
+
+      if (state == null) {
+        state = savedState.get(getStateKey(command));
+      }
+      if (state != null) {
+        command.restoreState(state);
+      }
+      savedVersions.remove(getStateKey(command));
+      startInitialQuery(command);
+    }
+
+    // Forget the saved state of commands that are gone
+    final Set<String> keys = new HashSet<>();
+    for (final DatabaseCommand command : reloaded) {
+      keys.add(getStateKey(command));
+    }
+    stateDirty |= savedState.keySet().retainAll(keys);
+    savedVersions.keySet().retainAll(keys);
+
+    definitions.clear();
+    definitions.putAll(reloadedDefinitions);
+    commands = reloaded;
+
+    for (final DatabaseCommand command : created) {
+      scheduleCommand(command);
+    }
+    if (scheduler != null) {
+      scheduler.start();
+    }
+
+    logger.info(
+        "Reloaded [" + inputfile + "]: " + created.size() + " commands added or changed, "
+        + removedCount + " removed, " + (reloaded.size() - created.size()) + " unchanged"
+    );
+  }
+
+  /**
+   * Release the connections of the commands that a reload removed or
+   * replaced. A command that is still running releases them when its run
+   * finishes.
+   */
+  private void closeRetired() {
+    final List<DatabaseCommand> toClose;
+
+    synchronized (this) {
+      if (retired.isEmpty()) {
+        return;
+      }
+      toClose = new ArrayList<>(retired);
+      retired.clear();
+    }
+
+    for (final DatabaseCommand command : toClose) {
+      command.close();
+    }
+  }
+
+  /**
+   * Hand every command that has its own interval to the scheduler. The results
+   * are buffered and reported on the next harvest cycle.
+   */
+  private void startScheduler() {
+    for (final DatabaseCommand command : commands) {
+      scheduleCommand(command);
+    }
+
+    if (scheduler != null) {
+      scheduler.start();
+    }
+  }
+
+  /**
+   * Hand a command to the scheduler if it has its own interval.
+   */
+  private synchronized void scheduleCommand(DatabaseCommand command) {
+    if (command.getInterval() <= 0) {
+      return;
+    }
+
+    final Runnable job;
+    if (command.getDataType().equalsIgnoreCase(METRIC) && command.isStream()) {
+      job = () -> {
+        command.executeMetric(streamSink(command));
+        // The rows are already on their way, only the sample is left
+        completedMetrics.add(new CompletedRun<>(command, null, command.getStats()));
+      };
+    } else if (command.getDataType().equalsIgnoreCase(METRIC)) {
+      job = () -> completedMetrics.add(
+          new CompletedRun<>(command, command.executeMetric(), command.getStats())
+      );
+    } else if (command.getDataType().equalsIgnoreCase(INVENTORY)) {
+      job = () -> completedInventory.add(
+          new CompletedRun<>(command, command.executeInventory(), command.getStats())
+      );
+    } else {
+      return;
+    }
+
+    if (scheduler == null) {
+      scheduler = new CommandScheduler(name, getQueryExecutor());
+      scheduler.setAdaptiveIntervalShare(options.getAdaptiveIntervalShare());
+    }
+
+    scheduler.schedule(
+        command,
+        command.getInterval() * 1000L,
+        command.getOverlapPolicy() != null
+            ? command.getOverlapPolicy()
+            : options.getOverlapPolicy(),
+        () -> {
+          if (!awaitsInitialQuery(command) && tryAcquire(command)) {
+            job.run();
+            recordOutcome(command, command.getStats());
+          }
+        }
+    );
+  }
+
+  /**
+   * Load the state saved by a previous run of this agent and hand it to the
+   * matching commands.
+   */
+  private void restoreState() {
+    stateStore = new StateStore(Paths.get(
+        options.getStateDirectory(),
+        name.replaceAll("[^A-Za-z0-9._-]", "_") + ".state"
+    ));
+
+    final Map<String, CommandState> restored = stateStore.load();
+    logger.info("Loaded state of " + restored.size() + " commands from " + stateStore.getFile());
+
+    for (final DatabaseCommand command : commands) {
+      final String key = getStateKey(command);
+      final CommandState state = restored.get(key);
+
+      if (state != null) {
+        command.restoreState(state);
+        savedState.put(key, state);
+        savedVersions.put(key, command.getStateVersion());
+      }
+    }
+  }
+
+  /**
+   * Save the state of every command that changed since the last checkpoint.
+   * Commands that are running right now are saved on the next one.
+   */
+  private synchronized void checkpoint() {
+    if (stateStore == null) {
+      return;
+    }
+
+    boolean changed = stateDirty;
+    for (final DatabaseCommand command : commands) {
+      final String key = getStateKey(command);
+      final long version = command.getStateVersion();
+
+      if (savedState.containsKey(key) && savedVersions.get(key) == version) {
+        continue;
+      }
+
+      final CommandState state = command.snapshotState();
+      if (state != null) {
+        savedState.put(key, state);
+        savedVersions.put(key, version);
+        changed = true;
+      }
+    }
+
+    if (changed) {
+      try {
+        stateStore.save(savedState);
+        stateDirty = false;
+      } catch (IOException e) {
+        logger.error("Unable to save state to " + stateStore.getFile(), e);
+      }
+    }
+  }
+
+  /**
+   * A changed command replaces the removed command with the same name that ran
+   * against the same host.
+   */
+  private String getReplacementKey(DatabaseCommand command) {
+    return command.getName() + " " + command.getHostname() + ":" + command.getPort();
+  }
+
+  private String getStateKey(DatabaseCommand command) {
+    return command.getName() + " " + command.getConnectionKey();
+  }
+
+  /**
+   * Release the connections held by this agent's commands.
+   */
+  public void dispose() throws Exception {
+    logger.info("dispose");
+
+    synchronized (this) {
+      if (watchService != null) {
+        watchService.close();
+        watchService = null;
+      }
+      if (scheduler != null) {
+        scheduler.shutdown();
+        scheduler = null;
+      }
+      if (queryExecutor != null) {
+        queryExecutor.shutdownNow();
+        queryExecutor = null;
+      }
+      initialQueryExecutor.shutdownNow();
+    }
+
+    checkpoint();
+    closeRetired();
+
+    for (final DatabaseCommand command : commands) {
+      command.close();
+    }
+  }
+
+  @Override
+  public void populateInventory(InventoryReporter inventoryReporter) throws Exception {
+    logger.debug("populateInventory");
+    reloadIfChanged();
+
+    final long now = System.currentTimeMillis();
+    final List<DatabaseCommand> toRun = admit(getCommandsOfType(INVENTORY), now);
+    setDueTime(toRun, now);
+    final List<Map<String, Map<String, String>>> results = executeCommands(
+        toRun,
+        DatabaseCommand::executeInventory,
+        null
+    );
+
+    for (int x = 0; x < toRun.size(); x++) {
+      final DatabaseCommand command = toRun.get(x);
+      reportInventory(command.getStats(), results.get(x), inventoryReporter);
+      recordOutcome(command, command.getStats());
+      queueSample(command, command.getStats());
+    }
+
+    CompletedRun<Map<String, Map<String, String>>> run;
+    while ((run = completedInventory.poll()) != null) {
+      reportInventory(run.stats, run.result, inventoryReporter);
+      queueSample(run.command, run.stats);
+    }
+
+    checkpoint();
+  }
+
+  private void reportInventory(
+      CommandStats stats,
+      Map<String, Map<String, String>> inventory,
+      InventoryReporter inventoryReporter
+  ) {
+    if (inventory == null) {
+      return;
+    }
+
+    final long start = System.nanoTime();
+    try {
+      for (Map.Entry<String, Map<String, String>> entry : inventory.entrySet()) {
+        inventoryReporter.report(entry.getKey(), entry.getValue());
+      }
+    } catch (Exception e) {
+      logger.error("Error Running Commands", e);
+    } finally {
+      stats.addReportNanos(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void populateMetrics(MetricReporter metricReporter) throws Exception {
+    logger.debug("populateMetrics");
+    populateMetrics(getStaticAttributes(), metricReporter::report);
+  }
+
+  /**
+   * Run a harvest cycle of the metric commands, handing every row to the
+   * given target.
+   */
+  void populateMetrics(
+      List<Metric> staticAttributes,
+      MetricTarget metricReporter
+  ) throws Exception {
+    reloadIfChanged();
+
+    final long now = System.currentTimeMillis();
+    if (lastHarvestStart > 0) {
+      harvestInterval = now - lastHarvestStart;
+    }
+    lastHarvestStart = now;
+
+    final List<DatabaseCommand> harvested = admit(getCommandsOfType(METRIC), now);
+    final List<List<DatabaseCommand>> toRun = groupCombined(harvested);
+    setDueTime(harvested, now);
+    final Thread harvestThread = Thread.currentThread();
+    final List<List<List<List<Metric>>>> results = executeCommands(
+        toRun,
+        group -> {
+          if (group.size() > 1) {
+            return DatabaseCommand.executeMetricBatch(group);
+          }
+
+          final DatabaseCommand command = group.get(0);
+          if (!command.isStream()) {
+            return Collections.singletonList(command.executeMetric());
+          }
+
+          // On the harvest thread we must report directly, nothing else would
+          // drain the stream buffer. Workers hand their batches over through it.
+          command.executeMetric(
+              Thread.currentThread() == harvestThread
+                  ? rows -> reportMetrics(
+                      command,
+                      command.getStats(),
+                      rows,
+                      staticAttributes,
+                      metricReporter
+                  )
+                  : streamSink(command)
+          );
+          return null;
+        },
+        () -> drainStreamedMetrics(streamPollInterval, staticAttributes, metricReporter)
+    );
+    drainStreamedMetrics(0, staticAttributes, metricReporter);
+
+    for (int x = 0; x < toRun.size(); x++) {
+      for (int y = 0; results.get(x) != null && y < results.get(x).size(); y++) {
+        final DatabaseCommand command = toRun.get(x).get(y);
+        reportMetrics(
+            command,
+            command.getStats(),
+            results.get(x).get(y),
+            staticAttributes,
+            metricReporter
+        );
+      }
+    }
+    for (final DatabaseCommand command : harvested) {
+      recordOutcome(command, command.getStats());
+      queueSample(command, command.getStats());
+    }
+
+    CompletedRun<List<List<Metric>>> run;
+    while ((run = completedMetrics.poll()) != null) {
+      reportMetrics(run.command, run.stats, run.result, staticAttributes, metricReporter);
+      queueSample(run.command, run.stats);
+    }
+
+    CompletedRun<Void> sample;
+    while ((sample = completedSamples.poll()) != null) {
+      reportSample(sample.command, sample.stats, staticAttributes, metricReporter);
+    }
+
+    checkpoint();
+    closeRetired();
+  }
+
+  /**
+   * Get a sink that passes a command's batches to the harvest thread through
+   * the bounded stream buffer, blocking the command while the buffer is full.
+   */
+  private MetricSink streamSink(DatabaseCommand command) {
+    return rows -> {
+      try {
+        streamedMetrics.put(new CompletedRun<>(command, rows, command.getStats()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException("Interrupted while streaming [" + command.getName() + "]");
+      }
+    };
+  }
+
+  /**
+   * Report the batches waiting in the stream buffer.
+   *
+   * @param timeout Milliseconds to wait for the first batch, 0 to only take
+   *                what is already there
+   */
+  private void drainStreamedMetrics(
+      long timeout,
+      List<Metric> staticAttributes,
+      MetricTarget metricReporter
+  ) throws InterruptedException {
+    CompletedRun<List<List<Metric>>> run = timeout > 0
+        ? streamedMetrics.poll(timeout, TimeUnit.MILLISECONDS)
+        : streamedMetrics.poll();
+
+    while (run != null) {
+      reportMetrics(run.command, run.stats, run.result, staticAttributes, metricReporter);
+      run = streamedMetrics.poll();
+    }
+  }
+
+  /**
+   * Hand the rows of a command run to the target. The static attributes are
+   * shared by reference, not copied into each row.
+   */
+  void reportMetrics(
+      DatabaseCommand command,
+      CommandStats stats,
+      List<List<Metric>> ll,
+      List<Metric> staticAttributes,
+      MetricTarget metricReporter
+  ) {
+    if (ll == null) {
+      return;
+    }
+
+    final long start = System.nanoTime();
+    try {
+      final String eventType = command.getDbType();
+      // using instance identifier version to avoid collision
+      final String instanceId = getInstanceId(command);
+      final boolean addStatic = staticAttributes != null && !staticAttributes.isEmpty();
+
+      for (final List<Metric> list : ll) {
+        metricReporter.report(
+            eventType,
+            addStatic ? new MetricRow(list, staticAttributes) : list,
+            instanceId
+        );
+      }
+    } catch (Exception e) {
+      logger.error("Error Running Commands", e);
+    } finally {
+      stats.addReportNanos(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Get the identifier a command's rows are reported under. It is built on
+   * first use and kept on the command.
+   */
+  private String getInstanceId(DatabaseCommand command) {
+    final String cached = command.getInstanceId();
+    if (cached != null) {
+      return cached;
+    }
+
+    final String instanceId = createInstanceId(command);
+    command.setInstanceId(instanceId);
+    return instanceId;
+  }
+
+  private String createInstanceId(DatabaseCommand command) {
+    final String instanceId = this.name
+        + "_"
+        + command.getName()
+        + "_"
+        + command.getProvider()
+        + "_"
+        + command.getQuery();
+
+    // Keep the instance of each host apart, without changing single host ids
+    if (command.isHostScoped()) {
+      return instanceId + "_" + command.getHostname() + ":" + command.getPort();
+    }
+    return instanceId;
+  }
+
+  private void setDueTime(List<DatabaseCommand> toRun, long dueTime) {
+    for (final DatabaseCommand command : toRun) {
+      command.setDueTime(dueTime);
+    }
+  }
+
+  /**
+   * Keep the cost of a finished run for the next metric harvest, where it is
+   * reported as a self-monitoring sample.
+   */
+  private void queueSample(DatabaseCommand command, CommandStats stats) {
+    if (options.isSelfMonitoring() && stats != null) {
+      completedSamples.add(new CompletedRun<>(command, null, stats));
+    }
+  }
+
+  /**
+   * Report the cost of a command run as an NriDbCommandSample event.
+   */
+  private void reportSample(
+      DatabaseCommand command,
+      CommandStats stats,
+      List<Metric> staticAttributes,
+      MetricTarget metricReporter
+  ) {
+    final List<Metric> sample = new ArrayList<>();
+
+    sample.add(new AttributeMetric("commandName", command.getName()));
+    sample.add(new AttributeMetric("provider", command.getProvider()));
+    sample.add(new AttributeMetric("database", command.getDatabase()));
+    sample.add(new AttributeMetric("databaseHost", command.getHostname()));
+    sample.add(new AttributeMetric("dataType", command.getDataType()));
+    sample.add(new GaugeMetric("borrowMs", toMillis(stats.getBorrowNanos())));
+    sample.add(new GaugeMetric("executeMs", toMillis(stats.getExecuteNanos())));
+    if (stats.getFirstRowNanos() >= 0) {
+      sample.add(new GaugeMetric("firstRowMs", toMillis(stats.getFirstRowNanos())));
+    }
+    sample.add(new GaugeMetric("fetchMs", toMillis(stats.getFetchNanos())));
+    sample.add(new GaugeMetric("parseMs", toMillis(stats.getParseNanos())));
+    sample.add(new GaugeMetric("reportMs", toMillis(stats.getReportNanos())));
+    sample.add(new GaugeMetric("rows", stats.getRows()));
+    sample.add(new GaugeMetric("rowsReported", stats.getRowsParsed()));
+    sample.add(new GaugeMetric("duplicates", stats.getDuplicates()));
+    sample.add(new GaugeMetric("errors", stats.getErrors()));
+    sample.add(new GaugeMetric("estimatedBytes", stats.getEstimatedBytes()));
+    sample.add(new GaugeMetric("cycleLagMs", stats.getLag()));
+    sample.add(new GaugeMetric("timeouts", stats.isTimedOut() ? 1 : 0));
+    sample.add(new GaugeMetric("skipped", stats.isSkipped() ? 1 : 0));
+    sample.add(new GaugeMetric("truncated", stats.isTruncated() ? 1 : 0));
+    sample.add(new GaugeMetric("sampledOut", stats.getSampledOut()));
+    sample.add(new GaugeMetric("counterResets", stats.getCounterResets()));
+    sample.add(new GaugeMetric("chunks", stats.getChunks()));
+    sample.add(new GaugeMetric("caughtUp", stats.isCaughtUp() ? 1 : 0));
+    if (staticAttributes != null) {
+      sample.addAll(staticAttributes);
+    }
+
+    try {
+      metricReporter.report(COMMAND_SAMPLE, sample, getInstanceId(command));
+    } catch (Exception e) {
+      logger.error("Error Reporting Command Sample", e);
+    }
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1000000.0;
+  }
+
+  /**
+   * Get the commands the agent runs, as of the last reload.
+   */
+  List<DatabaseCommand> getActiveCommands() {
+    return Collections.unmodifiableList(commands);
+  }
+
+  /**
+   * Get the commands of a type that run on every harvest cycle.
+   */
+  private List<DatabaseCommand> getCommandsOfType(String dataType) {
+    final List<DatabaseCommand> matching = new ArrayList<>();
+
+    for (final DatabaseCommand command : commands) {
+      if (command.getInterval() <= 0 && command.getDataType().equalsIgnoreCase(dataType)) {
+        matching.add(command);
+      }
+    }
+    return matching;
+  }
+
+  /**
+   * Pick the commands that run this harvest cycle: those whose adapted period
+   * has come round and whose circuit breakers let them through.
+   */
+  private List<DatabaseCommand> admit(List<DatabaseCommand> due, long now) {
+    final List<DatabaseCommand> admitted = new ArrayList<>(due.size());
+
+    for (final DatabaseCommand command : due) {
+      final CommandHealth commandHealth = getHealth(command);
+      final long nextRun;
+
+      synchronized (health) {
+        nextRun = commandHealth.nextRun;
+      }
+      if (now < nextRun) {
+        logger.debug(
+            "[" + command.getName() + "] slowed down, next run in " + (nextRun - now) + "ms"
+        );
+      } else if (awaitsInitialQuery(command)) {
+        logger.debug("[" + command.getName() + "] waiting for its initial query");
+      } else if (command.isRunning()) {
+        // A run given up on still holds the command, a new one would only
+        // block a worker until it finishes
+        logger.warn("[" + command.getName() + "] previous run still in progress, not running");
+      } else if (!tryAcquire(command)) {
+        logger.debug("[" + command.getName() + "] circuit is open, not running");
+      } else {
+        admitted.add(command);
+      }
+    }
+    return admitted;
+  }
+
+  /**
+   * Run the initial query of a command in the background, unless it has none
+   * or it is already running.
+   */
+  private void startInitialQuery(DatabaseCommand command) {
+    synchronized (initializing) {
+      if (!command.hasInitialQuery() || initializing.containsKey(command)) {
+        return;
+      }
+
+      try {
+        initializing.put(command, initialQueryExecutor.submit(() -> runInitialQuery(command)));
+      } catch (RejectedExecutionException e) {
+        logger.debug("Agent disposed, not running initial query of [" + command.getName() + "]");
+      }
+    }
+  }
+
+  private void runInitialQuery(DatabaseCommand command) {
+    final long timeout = options.getInitialQueryTimeout() * 1000L;
+    final ScheduledFuture<?> watch = timeout > 0
+        ? Watchdog.watch(timeout, command::timeOut)
+        : null;
+
+    try {
+      if (!command.executeInitialQuery() && command.hasInitialQuery()) {
+        logger.info("Initial query failed for [" + command.getName() + "], trying again later");
+      }
+      recordHealth(command, command.getStats());
+    } catch (Exception e) {
+      logger.error("Initial query failed for [" + command.getName() + "]", e);
+    } finally {
+      Watchdog.cancel(watch);
+      synchronized (initializing) {
+        initializing.remove(command);
+      }
+    }
+  }
+
+  /**
+   * Check whether a command still waits for its initial query. One that failed
+   * is started again, as long as the circuit breakers allow it.
+   */
+  private boolean awaitsInitialQuery(DatabaseCommand command) {
+    if (!command.hasInitialQuery()) {
+      return false;
+    }
+
+    synchronized (initializing) {
+      if (!initializing.containsKey(command) && tryAcquire(command)) {
+        startInitialQuery(command);
+      }
+    }
+    return true;
+  }
+
+  private CommandHealth getHealth(DatabaseCommand command) {
+    synchronized (health) {
+      CommandHealth commandHealth = health.get(command);
+
+      if (commandHealth == null) {
+        commandHealth = new CommandHealth(
+            new CircuitBreaker(command.getName(), options.getBreakerSettings())
+        );
+        health.put(command, commandHealth);
+      }
+      return commandHealth;
+    }
+  }
+
+  private CircuitBreaker getConnectionBreaker(DatabaseCommand command) {
+    synchronized (health) {
+      final ConnectionKey key = command.getConnectionKey();
+      CircuitBreaker breaker = connectionBreakers.get(key);
+
+      if (breaker == null) {
+        breaker = new CircuitBreaker(key.toString(), options.getBreakerSettings());
+        connectionBreakers.put(key, breaker);
+      }
+      return breaker;
+    }
+  }
 
   /**
-   * Create the agent.
+   * Ask the circuit breakers of a command and of its connection whether it may
+   * run. When either is half open, the command becomes its probe.
    */
-  public InfraDbAgent(
-      String name,
-      String hostname,
-      Integer port,
-      String username,
-      String password,
-      String inputfile,
-      boolean sslConnection,
-      boolean sslEncrypt,
-      boolean sslTrustServerCert,
-      String sslHostnameInCert,
-      String sslTrustStoreLocation,
-      String sslTrustStorePassword,
-      boolean useSsl
-  ) throws IOException {
+  private boolean tryAcquire(DatabaseCommand command) {
+    final CircuitBreaker breaker = getHealth(command).breaker;
+    final CircuitBreaker connectionBreaker = getConnectionBreaker(command);
 
-    this.name = name;
-    this.hostname = hostname;
-    this.port = port;
-    this.username = username;
-    this.password = password;
-    this.sslConnection = sslConnection;
-    this.sslEncrypt = sslEncrypt;
-    this.sslTrustServerCert = sslTrustServerCert;
-    this.sslHostnameInCert = sslHostnameInCert;
-    this.sslTrustStoreLocation = sslTrustStoreLocation;
-    this.sslTrustStorePassword = sslTrustStorePassword;
-    this.useSsl = useSsl;
+    synchronized (health) {
+      // Only claim a probe if the other breaker lets the command through too
+      if (!breaker.isCallPermitted() || !connectionBreaker.isCallPermitted()) {
+        return false;
+      }
+      return connectionBreaker.tryAcquire() && breaker.tryAcquire();
+    }
+  }
+
+  /**
+   * Feed the outcome of a run to the circuit breakers of the command and of
+   * its connection.
+   *
+   * @return False if the command did not run at all
+   */
+  private boolean recordHealth(DatabaseCommand command, CommandStats stats) {
+    if (stats == null || stats.isSkipped()) {
+      return false;
+    }
 
-    commands = getCommands(inputfile);
+    final CommandHealth commandHealth = getHealth(command);
+    final CircuitBreaker connectionBreaker = getConnectionBreaker(command);
 
-    /*
-     * Loop through any Initial queries required by the above commands
-     */
-    for (final DatabaseCommand command : commands) {
-      try {
-        command.executeInitialQuery();
-      } catch (Exception e) {
-        logger.error("Initial query failed for [" + command.getName() + "]", e);
+    if (stats.isConnectionFailed()) {
+      connectionBreaker.recordFailure();
+    } else {
+      connectionBreaker.recordSuccess();
+    }
+    // A failed connection says nothing about the query, it only counts
+    // against the connection's breaker
+    if (stats.isTimedOut() || (stats.isFailed() && !stats.isConnectionFailed())) {
+      commandHealth.breaker.recordFailure();
+    } else if (!stats.isConnectionFailed()) {
+      commandHealth.breaker.recordSuccess();
+    }
+    return true;
+  }
+
+  /**
+   * Feed the outcome of a run to the circuit breakers and, for commands that
+   * run on the harvest cycle, work out how many cycles until the next run.
+   */
+  private void recordOutcome(DatabaseCommand command, CommandStats stats) {
+    if (!recordHealth(command, stats)) {
+      return;
+    }
+
+    final CommandHealth commandHealth = getHealth(command);
+
+    if (command.getInterval() > 0
+        || harvestInterval <= 0
+        || options.getAdaptiveIntervalShare() <= 0) {
+      return;
+    }
+
+    synchronized (health) {
+      final long runtime = TimeUnit.NANOSECONDS.toMillis(stats.getRunNanos());
+      final long adapted = CommandScheduler.adaptInterval(
+          harvestInterval,
+          Math.max(commandHealth.period, harvestInterval),
+          runtime,
+          options.getAdaptiveIntervalShare()
+      );
+      // Commands can only run on a harvest cycle, round up to whole cycles
+      final long period = (adapted + harvestInterval - 1) / harvestInterval * harvestInterval;
+
+      if (period != Math.max(commandHealth.period, harvestInterval)) {
+        logger.info(
+            "[" + command.getName() + "] took " + runtime + "ms, running it every "
+            + period / harvestInterval + " harvest cycles"
+        );
       }
+      commandHealth.period = period;
+      // Half a cycle of slack, so a period of one cycle runs on every cycle
+      commandHealth.nextRun = stats.getStartTime() + period - harvestInterval / 2;
     }
   }
 
-  public void dispose() throws Exception {
-    logger.info("dispose");
+  /**
+   * Split commands into the groups that run together: combinable commands
+   * with the same connection key share one multi-statement batch, every other
+   * command runs on its own.
+   */
+  private List<List<DatabaseCommand>> groupCombined(List<DatabaseCommand> toRun) {
+    final List<List<DatabaseCommand>> groups = new ArrayList<>();
+    final Map<ConnectionKey, List<DatabaseCommand>> combined = new HashMap<>();
+
+    for (final DatabaseCommand command : toRun) {
+      if (!command.canCombine()) {
+        groups.add(Collections.singletonList(command));
+        continue;
+      }
+
+      List<DatabaseCommand> group = combined.get(command.getConnectionKey());
+      if (group == null) {
+        group = new ArrayList<>();
+        combined.put(command.getConnectionKey(), group);
+        groups.add(group);
+      }
+      group.add(command);
+    }
+    return groups;
   }
 
-  @Override
-  public void populateInventory(InventoryReporter inventoryReporter) throws Exception {
-    logger.debug("populateInventory");
+  /**
+   * Run an action for each command, or group of commands, at most
+   * maxParallelQueries at a time, and wait for all of them to finish. A slow
+   * command only holds up its own worker, the others keep running on the
+   * remaining workers.
+   * <p>
+   * With a cycleTimeout, commands that have not started when it is spent are
+   * skipped and running ones are cancelled. A command whose driver ignores the
+   * cancel is given up on after a grace period, so the harvest cycle always
+   * ends.
+   * </p>
+   *
+   * @param toRun        Commands, or groups of commands, to run
+   * @param action       What to run for each of them
+   * @param whileWaiting Called repeatedly while waiting for the commands, may
+   *                     be null
+   * @return Results in the same order as the commands, null for any command
+   *         that failed or was skipped
+   * @throws InterruptedException If the harvest thread is interrupted while
+   *                              waiting, outstanding commands are cancelled
+   */
+  <C, T> List<T> executeCommands(
+      List<C> toRun,
+      Function<C, T> action,
+      WaitAction whileWaiting
+  ) throws InterruptedException {
+    final List<T> results = new ArrayList<>(toRun.size());
+    final long deadline = options.getCycleTimeout() > 0
+        ? System.nanoTime() + TimeUnit.SECONDS.toNanos(options.getCycleTimeout())
+        : 0;
 
-    for (final DatabaseCommand command : commands) {
-      try {
-        if (command.getDataType().equalsIgnoreCase(INVENTORY)) {
-          Map<String, Map<String, String>> inventory = command.executeInventory();
-          for (Map.Entry<String, Map<String, String>> entry : inventory.entrySet()) {
-            inventoryReporter.report(entry.getKey(), entry.getValue());
-          }
+    if (options.getMaxParallelQueries() < 2 || toRun.size() < 2) {
+      for (final C command : toRun) {
+        final long remaining = getRemainingMillis(deadline);
+
+        if (remaining == 0) {
+          skip(command);
+          results.add(null);
+          continue;
+        }
+
+        // Nothing else runs on the harvest thread to notice the deadline
+        final ScheduledFuture<?> watch = deadline > 0
+            ? Watchdog.watch(remaining, () -> forEachCommand(command, DatabaseCommand::timeOut))
+            : null;
+        try {
+          results.add(action.apply(command));
+        } catch (Exception e) {
+          logger.error("Error Running Commands", e);
+          results.add(null);
+        } finally {
+          Watchdog.cancel(watch);
         }
-      } catch (Exception e) {
-        logger.error("Error Running Commands", e);
       }
+      return results;
     }
-  }
 
-  @Override
-  public void populateMetrics(MetricReporter metricReporter) throws Exception {
-    logger.debug("populateMetrics");
-    List<Metric> staticAttributes = getStaticAttributes();
-    for (final DatabaseCommand command : commands) {
-      try {
-        if (command.getDataType().equalsIgnoreCase(METRIC)) {
-          List<List<Metric>> ll = command.executeMetric();
+    final ExecutorService executor = getQueryExecutor();
+    final List<Future<T>> futures = new ArrayList<>(toRun.size());
+    for (final C command : toRun) {
+      futures.add(executor.submit(() -> {
+        if (getRemainingMillis(deadline) == 0) {
+          skip(command);
+          return null;
+        }
+        return action.apply(command);
+      }));
+    }
+
+    try {
+      long waitUntil = deadline;
+      boolean cancelled = false;
+
+      for (int x = 0; x < futures.size(); x++) {
+        final Future<T> future = futures.get(x);
+
+        while (!future.isDone()) {
+          final long remaining = getRemainingMillis(waitUntil);
 
-          for (final List<Metric> list : ll) {
-            if (staticAttributes != null) {
-              list.addAll(staticAttributes);
+          if (remaining == 0) {
+            if (cancelled) {
+              break;
             }
-            // using instance identifier version to avoid collision
-            metricReporter.report(
-                command.getDbType(),
-                list,
-                this.name
-                + "_"
-                + command.getName()
-                + "_"
-                + command.getProvider()
-                + "_"
-                + command.getQuery()
-            );
+            logger.warn("Harvest cycle exceeded its cycleTimeout, cancelling running commands");
+            for (int y = x; y < futures.size(); y++) {
+              if (!futures.get(y).isDone()) {
+                forEachCommand(toRun.get(y), DatabaseCommand::timeOut);
+              }
+            }
+            cancelled = true;
+            waitUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cancelGracePeriod);
+          } else if (whileWaiting != null) {
+            whileWaiting.run();
+          } else {
+            awaitQuietly(future, remaining);
           }
         }
-      } catch (Exception e) {
-        logger.error("Error Running Commands", e);
+
+        if (!future.isDone()) {
+          logger.error(
+              "[" + describe(toRun.get(x)) + "] still running after it was cancelled, not waiting"
+          );
+          results.add(null);
+          continue;
+        }
+
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          logger.error("Error Running Commands [" + describe(toRun.get(x)) + "]", e.getCause());
+          results.add(null);
+        }
+      }
+    } catch (InterruptedException e) {
+      for (final Future<T> future : futures) {
+        future.cancel(true);
+      }
+      throw e;
+    }
+    return results;
+  }
+
+  /**
+   * Get the milliseconds left until a deadline from {@link System#nanoTime()}.
+   *
+   * @param deadline The deadline, 0 for none
+   * @return Milliseconds left, 0 if the deadline has passed, or
+   *         {@link Long#MAX_VALUE} if there is no deadline
+   */
+  private static long getRemainingMillis(long deadline) {
+    if (deadline == 0) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+  }
+
+  /**
+   * Wait for a future to finish, for at most the given time. Its outcome is
+   * left for {@link Future#get()}.
+   */
+  private static void awaitQuietly(Future<?> future, long timeout) throws InterruptedException {
+    try {
+      future.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException | CancellationException e) {
+      // Checked by the caller
+    }
+  }
+
+  private void skip(Object command) {
+    logger.warn("Skipping [" + describe(command) + "], the harvest cycle is out of time");
+    forEachCommand(command, DatabaseCommand::skip);
+  }
+
+  /**
+   * Apply an action to a command, or to every command of a group.
+   */
+  private static void forEachCommand(Object command, Consumer<DatabaseCommand> action) {
+    if (command instanceof DatabaseCommand) {
+      action.accept((DatabaseCommand) command);
+    } else if (command instanceof List) {
+      for (Object member : (List<?>) command) {
+        forEachCommand(member, action);
+      }
+    }
+  }
+
+  /**
+   * Name a command, or a group of commands, for logging.
+   */
+  private static String describe(Object command) {
+    if (command instanceof DatabaseCommand) {
+      return ((DatabaseCommand) command).getName();
+    }
+    if (command instanceof List) {
+      final List<String> names = new ArrayList<>();
+      for (Object member : (List<?>) command) {
+        names.add(describe(member));
       }
+      return String.join(", ", names);
+    }
+    return String.valueOf(command);
+  }
+
+  /**
+   * Get the worker pool that runs scheduled commands and, when
+   * maxParallelQueries allows it, harvest cycle commands.
+   */
+  private synchronized ExecutorService getQueryExecutor() {
+    if (queryExecutor == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+
+      queryExecutor = Executors.newFixedThreadPool(
+          options.getMaxParallelQueries(),
+          runnable -> {
+            Thread thread = new Thread(
+                runnable,
+                "nri-db-" + name + "-query-" + threadCount.incrementAndGet()
+            );
+            thread.setDaemon(true);
+            return thread;
+          }
+      );
     }
+    return queryExecutor;
+  }
+
+  /**
+   * Create the worker pool for initial queries, kept apart from the query
+   * workers so slow initial queries cannot hold up harvests. Its threads are
+   * only started when an initial query is submitted, and stop once idle.
+   */
+  private ExecutorService createInitialQueryExecutor() {
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        options.getMaxParallelQueries(),
+        options.getMaxParallelQueries(),
+        60L,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread(
+              runnable,
+              "nri-db-" + name + "-init-" + threadCount.incrementAndGet()
+          );
+          thread.setDaemon(true);
+          return thread;
+        }
+    );
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   /**
@@ -197,13 +1488,35 @@ public class InfraDbAgent extends Agent {
    *                     IOException is thrown
    */
   protected List<DatabaseCommand> getCommands(final String definitionFile) throws IOException {
+    final List<DatabaseCommand> configs = new LinkedList<DatabaseCommand>();
+
+    for (Object o : readDefinitions(definitionFile)) {
+      for (final DatabaseHost host : getHosts()) {
+        final DatabaseCommand command = createCommand((JsonObject) o, definitionFile, host);
+
+        if (command != null) {
+          configs.add(command);
+        }
+      }
+    }
+    return configs;
+  }
+
+  /**
+   * Read the command definitions from the JSON configuration file.
+   *
+   * @param definitionFile JSON Configuration file to parse
+   * @return One JSON object per command
+   * @throws IOException If there is an issue with reading the file, and
+   *                     IOException is thrown
+   */
+  private JsonArray readDefinitions(final String definitionFile) throws IOException {
     logger.info("Reading JSON Input Config [" + definitionFile + "]");
 
     JsonParser parser = new JsonParser();
     JsonArray jarr = null;
     InputStream inputStream = null;
     Reader inputStreamReader = null;
-    final List<DatabaseCommand> configs = new LinkedList<DatabaseCommand>();
 
     try {
       inputStream = new FileInputStream(definitionFile);
@@ -221,103 +1534,275 @@ public class InfraDbAgent extends Agent {
         inputStream.close();
       }
     }
+    return jarr;
+  }
 
-    for (Object o : jarr) {
-      JsonObject jsonObject = (JsonObject) o;
+  /**
+   * Create the Database Command for one definition of the configuration file
+   * and one of the hosts it runs against.
+   *
+   * @param jsonObject     The command definition
+   * @param definitionFile Configuration file the definition was read from
+   * @param host           Database host the command connects to
+   * @return The command, or null if its provider is unknown
+   * @throws IOException If a required attribute is missing or invalid
+   */
+  private DatabaseCommand createCommand(
+      JsonObject jsonObject,
+      String definitionFile,
+      DatabaseHost host
+  ) throws IOException {
+    try {
+      final String name = jsonObject.get("name").getAsString();
+      final String provider = jsonObject.get("provider").getAsString();
+      DatabaseCommand command = createDatabaseByProvider(provider);
 
-      try {
-        final String name = jsonObject.get("name").getAsString();
-        final String provider = jsonObject.get("provider").getAsString();
-        DatabaseCommand command = createDatabaseByProvider(provider);
+      if (command == null) {
+        logger.error("Unable to load '" + name + "', unknown provider: [" + provider + "]");
+        return null;
+      }
 
-        if (command == null) {
-          logger.error("Unable to load '" + name + "', unknown provider: [" + provider + "]");
-          continue;
-        }
+      command.setName(name);
+      command.setUsername(this.username);
+      command.setPassword(this.password);
+      command.setHostname(host.getHostname());
+      command.setPort(host.getPort());
+      command.setHostScoped(!this.options.getHosts().isEmpty());
+      command.setSslConnection(this.sslConnection);
+      command.setSslEncrypt(this.sslEncrypt);
+      command.setSslTrustServerCert(this.sslTrustServerCert);
+      command.setSslHostnameInCert(this.sslHostnameInCert);
+      command.setSslTrustStoreLocation(this.sslTrustStoreLocation);
+      command.setSslTrustStorePassword(this.sslTrustStorePassword);
+      command.setUseSsl(this.useSsl);
+      command.setPoolSettings(this.options.getPoolSettings());
+      if (this.options.getFetchSize() != null) {
+        command.setFetchSize(this.options.getFetchSize());
+      }
+      if (this.options.getQueryTimeout() != null) {
+        command.setQueryTimeout(this.options.getQueryTimeout());
+      }
+      if (this.options.getConnectTimeout() != null) {
+        command.setConnectTimeout(this.options.getConnectTimeout());
+      }
+      if (this.options.getMaxRows() != null) {
+        command.setMaxRows(this.options.getMaxRows());
+      }
+      if (this.options.getMaxResultBytes() != null) {
+        command.setMaxResultBytes(this.options.getMaxResultBytes());
+      }
 
-        command.setName(name);
-        command.setUsername(this.username);
-        command.setPassword(this.password);
-        command.setHostname(this.hostname);
-        command.setPort(this.port);
-        command.setSslConnection(this.sslConnection);
-        command.setSslEncrypt(this.sslEncrypt);
-        command.setSslTrustServerCert(this.sslTrustServerCert);
-        command.setSslHostnameInCert(this.sslHostnameInCert);
-        command.setSslTrustStoreLocation(this.sslTrustStoreLocation);
-        command.setSslTrustStorePassword(this.sslTrustStorePassword);
-        command.setUseSsl(this.useSsl);
-
-        /* ******************************************************************
-         * Required Attributes
-         * ******************************************************************/
-        if (jsonObject.get("database") != null) {
-          command.setDatabase(jsonObject.get("database").getAsString());
-        } else {
-          throw new IOException("[" + name + "] missing attribute 'database'");
-        }
-        if (jsonObject.get("query") != null) {
-          command.setQuery(jsonObject.get("query").getAsString());
-        } else {
-          throw new IOException("[" + name + "] missing attribute 'query'");
-        }
-        if (jsonObject.get("type") != null) {
-          command.setDataType(jsonObject.get("type").getAsString());
-        } else {
-          throw new IOException("[" + name + "] missing attribute 'type'");
-        }
+      /* ******************************************************************
+       * Required Attributes
+       * ******************************************************************/
+      if (jsonObject.get("database") != null) {
+        command.setDatabase(jsonObject.get("database").getAsString());
+      } else {
+        throw new IOException("[" + name + "] missing attribute 'database'");
+      }
+      if (jsonObject.get("query") != null) {
+        command.setQuery(jsonObject.get("query").getAsString());
+      } else {
+        throw new IOException("[" + name + "] missing attribute 'query'");
+      }
+      if (jsonObject.get("type") != null) {
+        command.setDataType(jsonObject.get("type").getAsString());
+      } else {
+        throw new IOException("[" + name + "] missing attribute 'type'");
+      }
 
-        /* ******************************************************************
-         * Optional Attributes
-         * ******************************************************************/
+      /* ******************************************************************
+       * Optional Attributes
+       * ******************************************************************/
 
-        if (jsonObject.get("prefix") != null) {
-          command.setPrefix(jsonObject.get("prefix").getAsString());
-        }
+      if (jsonObject.get("prefix") != null) {
+        command.setPrefix(jsonObject.get("prefix").getAsString());
+      }
 
-        if (jsonObject.get("metricType") != null) {
-          command.setMetricType(jsonObject.get("metricType").getAsString());
-        }
+      if (jsonObject.get("metricType") != null) {
+        command.setMetricType(jsonObject.get("metricType").getAsString());
+      }
 
-        // Get parserOptions before the parser is created
-        if (jsonObject.get("parserOptions") != null) {
-          command.setParserOptions(jsonObject.getAsJsonObject("parserOptions"));
-        }
+      // Get parserOptions before the parser is created
+      if (jsonObject.get("parserOptions") != null) {
+        command.setParserOptions(jsonObject.getAsJsonObject("parserOptions"));
+      }
+
+      // setParser creates the parser, doesn't just store the name
+      if (jsonObject.get("parser") != null) {
+        command.setParser(jsonObject.get("parser").getAsString());
+      }
+
+      if (jsonObject.get("queryOptions") != null) {
+        command.setQueryOptions(jsonObject.getAsJsonObject("queryOptions"));
+      }
 
-        // setParser creates the parser, doesn't just store the name
-        if (jsonObject.get("parser") != null) {
-          command.setParser(jsonObject.get("parser").getAsString());
+      if (jsonObject.get("deduplicate") != null) {
+        command.setDeduplicate(jsonObject.get("deduplicate").getAsBoolean());
+      }
+
+      if (jsonObject.get("uniqueHistorySize") != null) {
+        command.setUniqueHistorySize(jsonObject.get("uniqueHistorySize").getAsInt());
+      }
+
+      if (jsonObject.get("rowBufferSize") != null) {
+        logger.warn("[" + name + "] rowBufferSize is no longer used and can be removed");
+      }
+
+      if (jsonObject.get("dedupKeyColumns") != null) {
+        final List<String> keyColumns = new ArrayList<>();
+        for (JsonElement column : jsonObject.getAsJsonArray("dedupKeyColumns")) {
+          keyColumns.add(column.getAsString());
         }
+        command.setDedupKeyColumns(keyColumns);
+      }
+
+      if (jsonObject.get("fetchSize") != null) {
+        command.setFetchSize(jsonObject.get("fetchSize").getAsInt());
+      }
+
+      if (jsonObject.get("stream") != null) {
+        command.setStream(jsonObject.get("stream").getAsBoolean());
+      }
+
+      if (jsonObject.get("combine") != null) {
+        command.setCombine(jsonObject.get("combine").getAsBoolean());
+      }
+
+      if (jsonObject.get("batchSize") != null) {
+        command.setBatchSize(jsonObject.get("batchSize").getAsInt());
+      }
+
+      if (jsonObject.get("interval") != null) {
+        command.setInterval(jsonObject.get("interval").getAsInt());
+      }
+
+      if (jsonObject.get("queryTimeout") != null) {
+        command.setQueryTimeout(jsonObject.get("queryTimeout").getAsInt());
+      }
+
+      if (jsonObject.get("connectTimeout") != null) {
+        command.setConnectTimeout(jsonObject.get("connectTimeout").getAsInt());
+      }
+
+      if (jsonObject.get("maxRows") != null) {
+        command.setMaxRows(jsonObject.get("maxRows").getAsInt());
+      }
+
+      if (jsonObject.get("maxResultBytes") != null) {
+        command.setMaxResultBytes(jsonObject.get("maxResultBytes").getAsLong());
+      }
 
-        if (jsonObject.get("queryOptions") != null) {
-          command.setQueryOptions(jsonObject.getAsJsonObject("queryOptions"));
+      if (jsonObject.get("sampleMode") != null) {
+        final String mode = jsonObject.get("sampleMode").getAsString();
+        try {
+          command.setSampleMode(SampleMode.fromString(mode));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("[" + name + "] unknown sampleMode '" + mode + "'");
         }
+      }
+
+      if (jsonObject.get("sampleColumn") != null) {
+        command.setSampleColumn(jsonObject.get("sampleColumn").getAsString());
+      }
+
+      if (jsonObject.get("sampleSize") != null) {
+        command.setSampleSize(jsonObject.get("sampleSize").getAsInt());
+      }
+
+      if (command.getSampleMode() == SampleMode.TOPN && command.getSampleColumn() == null) {
+        throw new IOException("[" + name + "] sampleMode 'topN' needs a sampleColumn");
+      }
+      if (command.getSampleMode() != SampleMode.NONE
+          && !command.getDataType().equalsIgnoreCase(METRIC)) {
+        logger.warn("[" + name + "] sampleMode only applies to metric queries, ignoring it");
+      }
 
-        if (jsonObject.get("deduplicate") != null) {
-          command.setDeduplicate(jsonObject.get("deduplicate").getAsBoolean());
+      if (jsonObject.get("aggregate") != null) {
+        try {
+          command.setAggregate(AggregateSpec.fromJson(jsonObject.getAsJsonObject("aggregate")));
+        } catch (IllegalArgumentException | IllegalStateException | ClassCastException e) {
+          throw new IOException("[" + name + "] invalid aggregate: " + e.getMessage());
         }
+      }
+
+      if (command.getAggregate() != null && !command.getDataType().equalsIgnoreCase(METRIC)) {
+        logger.warn("[" + name + "] aggregate only applies to metric queries, ignoring it");
+      } else if (command.getAggregate() != null && command.getSampleMode() != SampleMode.NONE) {
+        logger.warn("[" + name + "] rows are aggregated, ignoring sampleMode");
+      }
 
-        if (jsonObject.get("uniqueHistorySize") != null) {
-          command.setUniqueHistorySize(jsonObject.get("uniqueHistorySize").getAsInt());
+      if (jsonObject.get("identityColumns") != null) {
+        final List<String> columns = new ArrayList<>();
+        for (JsonElement column : jsonObject.getAsJsonArray("identityColumns")) {
+          columns.add(column.getAsString());
         }
+        command.setIdentityColumns(columns);
+      }
 
-        if (jsonObject.get("rowBufferSize") != null) {
-          command.setRowBufferSize(jsonObject.get("rowBufferSize").getAsInt());
+      if (jsonObject.get("counterColumns") != null) {
+        final List<String> columns = new ArrayList<>();
+        for (JsonElement column : jsonObject.getAsJsonArray("counterColumns")) {
+          columns.add(column.getAsString());
         }
+        command.setCounterColumns(columns);
+      }
+
+      if (jsonObject.get("keyIdleTimeout") != null) {
+        command.setKeyIdleTimeout(jsonObject.get("keyIdleTimeout").getAsInt());
+      }
 
-        // Per command override of eventType (default to provider)
-        if (jsonObject.get("eventType") != null) {
-          command.setEventType(jsonObject.get("eventType").getAsString());
-        } else {
-          command.setEventType(command.getProvider());
+      if (!command.getIdentityColumns().isEmpty() && !command.isKeyedDelta()) {
+        logger.warn(
+            "[" + name + "] identityColumns only apply to a delta or rate metricType, ignoring them"
+        );
+      }
+
+      if (jsonObject.get("chunkSize") != null) {
+        command.setChunkSize(jsonObject.get("chunkSize").getAsInt());
+      }
+
+      if (jsonObject.get("maxChunks") != null) {
+        command.setMaxChunks(jsonObject.get("maxChunks").getAsInt());
+      }
+
+      if (jsonObject.get("chunkBudget") != null) {
+        command.setChunkBudget(jsonObject.get("chunkBudget").getAsInt());
+      }
+
+      if (jsonObject.get("catchUpThreshold") != null) {
+        command.setCatchUpThreshold(jsonObject.get("catchUpThreshold").getAsInt());
+      }
+
+      if (command.getChunkSize() > 0 && !command.isChunked()) {
+        logger.warn("[" + name + "] chunkSize only applies to queries with queryParameterColumns");
+      }
+      if (command.getCatchUpThreshold() > 0 && command.getInitialQuery() == null) {
+        throw new IOException(
+            "[" + name + "] catchUpThreshold needs an initialQuery to skip ahead with"
+        );
+      }
+
+      if (jsonObject.get("overlapPolicy") != null) {
+        final String policy = jsonObject.get("overlapPolicy").getAsString();
+        try {
+          command.setOverlapPolicy(OverlapPolicy.fromString(policy));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("[" + name + "] unknown overlapPolicy '" + policy + "'");
         }
+      }
 
-        configs.add(command);
-      } catch (NullPointerException e) {
-        logger.error("Required attributes missing from file: '" + definitionFile + "'");
-        throw e; // Still want to throw this, however now we'll know where to look to fix it
+      // Per command override of eventType (default to provider)
+      if (jsonObject.get("eventType") != null) {
+        command.setEventType(jsonObject.get("eventType").getAsString());
+      } else {
+        command.setEventType(command.getProvider());
       }
+
+      return command;
+    } catch (NullPointerException e) {
+      logger.error("Required attributes missing from file: '" + definitionFile + "'");
+      throw e; // Still want to throw this, however now we'll know where to look to fix it
     }
-    return configs;
   }
 }
@@ -1,11 +1,15 @@
 package com.newrelic.infra.db;
 
+import com.newrelic.infra.db.pool.PoolSettings;
+import com.newrelic.infra.db.scheduler.BreakerSettings;
+import com.newrelic.infra.db.scheduler.OverlapPolicy;
 import com.newrelic.infra.db.security.EncryptorUtils;
 import com.newrelic.infra.publish.api.Agent;
 import com.newrelic.infra.publish.api.AgentFactory;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,15 +29,15 @@ public class InfraDbAgentFactory extends AgentFactory {
     if (properties.get("port") != null) {
       port = (Integer) properties.get("port");
     }
-    String password = null;
-    if (properties.get("password") != null) {
-      try {
-        password = EncryptorUtils.decrypt((String) properties.get("password"));
-      } catch (IOException | EncryptionOperationNotPossibleException e) {
-        logger.error("Unable to decrypt password for agent '" + name + "'");
-        throw e;
-      }
+
+    final Map<String, String> secrets;
+    try {
+      secrets = EncryptorUtils.decryptAll(properties, "password", "sslTrustStorePassword");
+    } catch (IOException e) {
+      logger.error("Unable to decrypt passwords for agent '" + name + "': " + e.getMessage());
+      throw e;
     }
+    String password = secrets.get("password");
 
     // SSL Properties
     boolean sslConnection = false;
@@ -69,37 +73,76 @@ public class InfraDbAgentFactory extends AgentFactory {
       }
     }
 
-    String sslTrustStorePassword = null;
-    if (properties.get("sslTrustStorePassword") != null) {
-      try {
-        sslTrustStorePassword = EncryptorUtils.decrypt(
-            (String) properties.get("sslTrustStorePassword")
-        );
-      } catch (IOException | EncryptionOperationNotPossibleException e) {
-        logger.error("Unable to decrypt sslTrustStorePassword for agent '" + name + "'");
-        throw e;
-      }
-    }
+    String sslTrustStorePassword = secrets.get("sslTrustStorePassword");
 
     boolean useSsl = false;
     if (properties.get("useSsl") != null) {
       useSsl = (boolean) properties.get("useSsl");
     }
 
+    AgentOptions options = new AgentOptions();
+    options.setPoolSettings(getPoolSettings(properties));
+    options.setBreakerSettings(getBreakerSettings(properties));
+    if (properties.get("maxParallelQueries") != null) {
+      options.setMaxParallelQueries(((Number) properties.get("maxParallelQueries")).intValue());
+    }
+    if (properties.get("fetchSize") != null) {
+      options.setFetchSize(((Number) properties.get("fetchSize")).intValue());
+    }
+    if (properties.get("streamBufferSize") != null) {
+      options.setStreamBufferSize(((Number) properties.get("streamBufferSize")).intValue());
+    }
+    if (properties.get("overlapPolicy") != null) {
+      options.setOverlapPolicy(OverlapPolicy.fromString((String) properties.get("overlapPolicy")));
+    }
+    if (properties.get("selfMonitoring") != null) {
+      options.setSelfMonitoring((boolean) properties.get("selfMonitoring"));
+    }
+    if (properties.get("queryTimeout") != null) {
+      options.setQueryTimeout(((Number) properties.get("queryTimeout")).intValue());
+    }
+    if (properties.get("connectTimeout") != null) {
+      options.setConnectTimeout(((Number) properties.get("connectTimeout")).intValue());
+    }
+    if (properties.get("maxRows") != null) {
+      options.setMaxRows(((Number) properties.get("maxRows")).intValue());
+    }
+    if (properties.get("maxResultBytes") != null) {
+      options.setMaxResultBytes(((Number) properties.get("maxResultBytes")).longValue());
+    }
+    if (properties.get("cycleTimeout") != null) {
+      options.setCycleTimeout(((Number) properties.get("cycleTimeout")).intValue());
+    }
+    if (properties.get("initialQueryTimeout") != null) {
+      options.setInitialQueryTimeout(((Number) properties.get("initialQueryTimeout")).intValue());
+    }
+    if (properties.get("adaptiveIntervalShare") != null) {
+      options.setAdaptiveIntervalShare(
+          ((Number) properties.get("adaptiveIntervalShare")).doubleValue()
+      );
+    }
+    options.setHosts(getHosts(properties, port));
+    if (properties.get("watchInputfile") != null) {
+      options.setWatchInputfile((boolean) properties.get("watchInputfile"));
+    }
+    if (properties.get("stateDirectory") != null) {
+      options.setStateDirectory((String) properties.get("stateDirectory"));
+    }
+
     String inputfile = (String) properties.get("inputfile");
     String hostname = (String) properties.get("host");
     String username = (String) properties.get("username");
 
     if (
         name == null
-        || hostname == null
+        || (hostname == null && options.getHosts().isEmpty())
         || username == null
         || password == null
         || inputfile == null
     ) {
       logger.error("Missing configuration property on input.json, review");
       throw new Exception(
-          "'name', 'host', 'username', 'password', and 'inputfile' cannot be null."
+          "'name', 'host' or 'hosts', 'username', 'password', and 'inputfile' cannot be null."
       );
     }
 
@@ -107,7 +150,7 @@ public class InfraDbAgentFactory extends AgentFactory {
         "Agent: name["
         + name
         + "] hostame["
-        + hostname + "] port["
+        + (options.getHosts().isEmpty() ? hostname : options.getHosts()) + "] port["
         + port
         + "] username["
         + username
@@ -128,7 +171,104 @@ public class InfraDbAgentFactory extends AgentFactory {
         sslHostnameInCert,
         sslTrustStoreLocation,
         sslTrustStorePassword,
-        useSsl
+        useSsl,
+        options
     );
   }
+
+  /**
+   * Read the optional connection pool settings of an agent instance.
+   */
+  private PoolSettings getPoolSettings(Map<String, Object> properties) {
+    PoolSettings settings = new PoolSettings();
+
+    if (properties.get("poolEnabled") != null) {
+      settings.setEnabled((boolean) properties.get("poolEnabled"));
+    }
+    if (properties.get("poolMinSize") != null) {
+      settings.setMinSize(((Number) properties.get("poolMinSize")).intValue());
+    }
+    if (properties.get("poolMaxSize") != null) {
+      settings.setMaxSize(((Number) properties.get("poolMaxSize")).intValue());
+    }
+    if (properties.get("poolIdleTimeout") != null) {
+      settings.setIdleTimeout(((Number) properties.get("poolIdleTimeout")).longValue() * 1000L);
+    }
+    if (properties.get("poolAcquireTimeout") != null) {
+      settings.setAcquireTimeout(
+          ((Number) properties.get("poolAcquireTimeout")).longValue() * 1000L
+      );
+    }
+    if (properties.get("poolValidateOnBorrow") != null) {
+      settings.setValidateOnBorrow((boolean) properties.get("poolValidateOnBorrow"));
+    }
+    if (properties.get("poolValidationTimeout") != null) {
+      settings.setValidationTimeout(
+          ((Number) properties.get("poolValidationTimeout")).intValue()
+      );
+    }
+    if (properties.get("poolReconnectBackoff") != null) {
+      settings.setReconnectBackoff(
+          ((Number) properties.get("poolReconnectBackoff")).longValue() * 1000L
+      );
+    }
+    if (properties.get("poolMaxReconnectBackoff") != null) {
+      settings.setMaxReconnectBackoff(
+          ((Number) properties.get("poolMaxReconnectBackoff")).longValue() * 1000L
+      );
+    }
+
+    if (properties.get("poolStatementCacheSize") != null) {
+      settings.setStatementCacheSize(
+          ((Number) properties.get("poolStatementCacheSize")).intValue()
+      );
+    }
+
+    return settings;
+  }
+
+  /**
+   * Read the optional list of hosts of an agent instance, from the hosts
+   * setting followed by the entries of the hostsFile.
+   */
+  private List<DatabaseHost> getHosts(Map<String, Object> properties, int port)
+      throws IOException {
+    List<DatabaseHost> hosts = new ArrayList<>();
+
+    if (properties.get("hosts") instanceof List) {
+      for (Object entry : (List<?>) properties.get("hosts")) {
+        hosts.add(DatabaseHost.parse(String.valueOf(entry), port));
+      }
+    } else if (properties.get("hosts") != null) {
+      for (String entry : ((String) properties.get("hosts")).split(",")) {
+        hosts.add(DatabaseHost.parse(entry, port));
+      }
+    }
+    if (properties.get("hostsFile") != null) {
+      hosts.addAll(DatabaseHost.readFile((String) properties.get("hostsFile"), port));
+    }
+
+    return hosts;
+  }
+
+  /**
+   * Read the optional circuit breaker settings of an agent instance.
+   */
+  private BreakerSettings getBreakerSettings(Map<String, Object> properties) {
+    BreakerSettings settings = new BreakerSettings();
+
+    if (properties.get("breakerFailureThreshold") != null) {
+      settings.setFailureThreshold(
+          ((Number) properties.get("breakerFailureThreshold")).intValue()
+      );
+    }
+    if (properties.get("breakerBackoff") != null) {
+      settings.setBackoff(((Number) properties.get("breakerBackoff")).longValue() * 1000L);
+    }
+    if (properties.get("breakerMaxBackoff") != null) {
+      settings.setMaxBackoff(((Number) properties.get("breakerMaxBackoff")).longValue() * 1000L);
+    }
+
+    return settings;
+  }
 }
@@ -1,11 +1,14 @@
 package com.newrelic.infra.db;
 
+import com.newrelic.infra.db.parser.ColumnExtractor;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Clob;
+import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,76 +64,103 @@ public final class Util {
       ResultSetMetaData rsmd,
       int column
   ) throws SQLException {
-    Object value = null;
+    return getColumnExtractor(rsmd, column).extract(rs, column);
+  }
+
+  /**
+   * Choose how to read a SQL column as the correct Object type. The decision
+   * only depends on the metadata, so it can be made once per result set and
+   * reused for every row.
+   * <p>
+   * Exact numerics that fit are read as primitives: DECIMAL and NUMERIC with no
+   * scale as a Long, with a scale as a Double, and only fall back to BigDecimal
+   * when neither would hold the value.
+   * </p>
+   *
+   * @param rsmd   Metadata to determine what Type the column is
+   * @param column Column index to choose for
+   * @return Extractor for the column, which returns null for unknown types
+   * @throws SQLException If the metadata cannot be read
+   */
+  public static ColumnExtractor getColumnExtractor(
+      ResultSetMetaData rsmd,
+      int column
+  ) throws SQLException {
+    switch (rsmd.getColumnType(column)) {
+      case java.sql.Types.BIGINT:
+        return (rs, c) -> rs.getLong(c);
+      case java.sql.Types.BIT:
+      case java.sql.Types.BOOLEAN:
+        return (rs, c) -> Boolean.toString(rs.getBoolean(c));
+      case java.sql.Types.DOUBLE:
+        return (rs, c) -> rs.getDouble(c);
+      case java.sql.Types.FLOAT:
+        return (rs, c) -> rs.getFloat(c);
+      case java.sql.Types.INTEGER:
+      case java.sql.Types.TINYINT:
+      case java.sql.Types.SMALLINT:
+        return (rs, c) -> rs.getInt(c);
+      case java.sql.Types.DECIMAL:
+      case java.sql.Types.NUMERIC:
+        return getExactNumericExtractor(rsmd.getPrecision(column), rsmd.getScale(column));
+      case java.sql.Types.CLOB:
+        return (rs, c) -> {
+          Clob clob = rs.getClob(c);
+          return clob != null ? clob.getSubString(1, (int) clob.length()) : null;
+        };
+      case java.sql.Types.NVARCHAR:
+        return (rs, c) -> {
+          String value = rs.getNString(c);
+          return value != null ? value.trim() : null;
+        };
+      case java.sql.Types.VARBINARY:
+        return (rs, c) -> {
+          Object value = rs.getBinaryStream(c);
+          return value != null ? value.toString() : null;
+        };
+      case java.sql.Types.VARCHAR:
+        return (rs, c) -> {
+          String value = rs.getString(c);
+          return value != null ? value.trim() : null;
+        };
+      case java.sql.Types.CHAR:
+        return (rs, c) -> rs.getString(c);
+      case java.sql.Types.DATE:
+        // Convert Date to String because the current RPC does not support time/date
+        return (rs, c) -> {
+          Date value = rs.getDate(c);
+          return value != null ? value.toString() : null;
+        };
+      case java.sql.Types.TIMESTAMP:
+        // Convert Timestamp to String because the current RPC does not support
+        // time/date
+        return (rs, c) -> {
+          Timestamp value = rs.getTimestamp(c);
+          return value != null ? value.toString() : null;
+        };
+      default:
+        logger.error("Unknown data type: [" + rsmd.getColumnTypeName(column) + "] for column ["
+            + rsmd.getColumnName(column) + "]");
+        return (rs, c) -> null;
+    }
+  }
+
+  private static ColumnExtractor getExactNumericExtractor(int precision, int scale) {
+    if (scale == 0 && precision > 0 && precision <= 18) {
+      return (rs, c) -> {
+        long value = rs.getLong(c);
+        return rs.wasNull() ? null : value;
+      };
+    }
 
-    try {
-      switch (rsmd.getColumnType(column)) {
-        case java.sql.Types.BIGINT:
-          value = rs.getLong(column);
-          break;
-        case java.sql.Types.BIT:
-        case java.sql.Types.BOOLEAN:
-          value = Boolean.toString(rs.getBoolean(column));
-          break;
-        case java.sql.Types.DOUBLE:
-          value = rs.getDouble(column);
-          break;
-        case java.sql.Types.FLOAT:
-          value = rs.getFloat(column);
-          break;
-        case java.sql.Types.INTEGER:
-        case java.sql.Types.TINYINT:
-        case java.sql.Types.SMALLINT:
-          value = rs.getInt(column);
-          break;
-        case java.sql.Types.DECIMAL:
-        case java.sql.Types.NUMERIC:
-          if (rs.getBigDecimal(column) != null) {
-            value = rs.getBigDecimal(column).intValue();
-          }
-          break;
-        case java.sql.Types.CLOB:
-          Clob clob = rs.getClob(column);
-          if (clob != null) {
-            value = clob.getSubString(1, (int) clob.length());
-          }
-          break;
-        case java.sql.Types.NVARCHAR:
-          if (rs.getString(column) != null) {
-            value = rs.getNString(column).trim();
-          }
-          break;
-        case java.sql.Types.VARBINARY:
-          value = rs.getBinaryStream(column).toString();
-          break;
-        case java.sql.Types.VARCHAR:
-          if (rs.getString(column) != null) {
-            value = rs.getString(column).trim();
-          }
-          break;
-        case java.sql.Types.CHAR:
-          value = rs.getString(column);
-          break;
-        case java.sql.Types.DATE:
-          // Convert Date to String because the current RPC does not support time/date
-          value = rs.getDate(column).toString();
-          break;
-        case java.sql.Types.TIMESTAMP:
-          // Convert Timestamp to String because the current RPC does not support
-          // time/date
-          if (rs.getTimestamp(column) != null) {
-            value = (rs.getTimestamp(column)).toString();
-          }
-          break;
-        default:
-          logger.error("Unknown data type: [" + rsmd.getColumnTypeName(column) + "] for column ["
-              + rsmd.getColumnName(column) + "]");
-          break;
-      }
-    } catch (SQLException e) {
-      throw e;
+    if (precision > 0 && precision <= 15) {
+      // A double holds 15 significant decimal digits exactly
+      return (rs, c) -> {
+        double value = rs.getDouble(c);
+        return rs.wasNull() ? null : value;
+      };
     }
 
-    return value;
+    return (rs, c) -> rs.getBigDecimal(c);
   }
 }
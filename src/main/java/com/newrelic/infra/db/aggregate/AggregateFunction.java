@@ -0,0 +1,58 @@
+package com.newrelic.infra.db.aggregate;
+
+import java.util.Locale;
+
+/**
+ * What an aggregated column reports for each group.
+ */
+public enum AggregateFunction {
+  COUNT(Double.NaN),
+  SUM(Double.NaN),
+  AVG(Double.NaN),
+  MIN(Double.NaN),
+  MAX(Double.NaN),
+  P50(0.5),
+  P75(0.75),
+  P90(0.9),
+  P95(0.95),
+  P99(0.99),
+  P999(0.999);
+
+  private final double quantile;
+  private final String suffix;
+
+  AggregateFunction(double quantile) {
+    this.quantile = quantile;
+    this.suffix = name().toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Parse a function name, case insensitive.
+   *
+   * @param name Function name from the configuration
+   * @return The matching function
+   * @throws IllegalArgumentException If the name is not a known function
+   */
+  public static AggregateFunction fromString(String name) {
+    return AggregateFunction.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Check whether the function needs a quantile sketch.
+   */
+  public boolean isQuantile() {
+    return !Double.isNaN(quantile);
+  }
+
+  public double getQuantile() {
+    return quantile;
+  }
+
+  /**
+   * Get the suffix of the reported metric name, for example p99 in
+   * wait_ms.p99.
+   */
+  public String getSuffix() {
+    return suffix;
+  }
+}
@@ -0,0 +1,133 @@
+package com.newrelic.infra.db.aggregate;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How a command folds its rows into one row per group: the columns to group
+ * by and the functions to report for each aggregated column.
+ * <p>
+ * Column names are matched lower case, as the parsers report them.
+ * </p>
+ */
+public final class AggregateSpec {
+  private static final int defaultMaxGroups = 10000;
+
+  private final List<String> groupBy;
+  private final Map<String, List<AggregateFunction>> metrics;
+  private final int maxGroups;
+
+  /**
+   * Create an aggregation spec.
+   *
+   * @param groupBy   Columns whose values make up a group
+   * @param metrics   Functions to report per aggregated column
+   * @param maxGroups Most groups to keep, rows of further groups are dropped
+   */
+  public AggregateSpec(
+      List<String> groupBy,
+      Map<String, List<AggregateFunction>> metrics,
+      int maxGroups
+  ) {
+    if (metrics.isEmpty()) {
+      throw new IllegalArgumentException("aggregate needs at least one metric column");
+    }
+    if (maxGroups < 1) {
+      throw new IllegalArgumentException("aggregate maxGroups must be at least 1");
+    }
+
+    final List<String> columns = new ArrayList<>(groupBy.size());
+    for (final String column : groupBy) {
+      columns.add(normalize(column));
+    }
+    final Map<String, List<AggregateFunction>> functions = new LinkedHashMap<>();
+    for (final Map.Entry<String, List<AggregateFunction>> entry : metrics.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        throw new IllegalArgumentException(
+            "aggregate column '" + entry.getKey() + "' has no functions"
+        );
+      }
+      functions.put(
+          normalize(entry.getKey()),
+          Collections.unmodifiableList(new ArrayList<>(entry.getValue()))
+      );
+    }
+
+    this.groupBy = Collections.unmodifiableList(columns);
+    this.metrics = Collections.unmodifiableMap(functions);
+    this.maxGroups = maxGroups;
+  }
+
+  /**
+   * Read a spec from a command's aggregate setting, for example
+   * {"groupBy": ["database"], "metrics": {"wait_ms": ["sum", "p99"]}}.
+   *
+   * @param json The aggregate setting
+   * @return The spec
+   * @throws IllegalArgumentException If the setting is incomplete or names an
+   *                                  unknown function
+   */
+  public static AggregateSpec fromJson(JsonObject json) {
+    final List<String> groupBy = new ArrayList<>();
+    if (json.get("groupBy") != null) {
+      for (final JsonElement column : json.getAsJsonArray("groupBy")) {
+        groupBy.add(column.getAsString());
+      }
+    }
+
+    if (json.get("metrics") == null || !json.get("metrics").isJsonObject()) {
+      throw new IllegalArgumentException("aggregate needs a metrics object");
+    }
+    final Map<String, List<AggregateFunction>> metrics = new LinkedHashMap<>();
+    for (final Map.Entry<String, JsonElement> entry
+        : json.getAsJsonObject("metrics").entrySet()) {
+      final List<AggregateFunction> functions = new ArrayList<>();
+      final Iterable<JsonElement> names = entry.getValue().isJsonArray()
+          ? entry.getValue().getAsJsonArray()
+          : Collections.singletonList(entry.getValue());
+      for (final JsonElement name : names) {
+        try {
+          functions.add(AggregateFunction.fromString(name.getAsString()));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException(
+              "unknown aggregate function '" + name.getAsString() + "' for '"
+              + entry.getKey() + "'"
+          );
+        }
+      }
+      metrics.put(entry.getKey(), functions);
+    }
+
+    final int maxGroups = json.get("maxGroups") != null
+        ? json.get("maxGroups").getAsInt()
+        : defaultMaxGroups;
+    return new AggregateSpec(groupBy, metrics, maxGroups);
+  }
+
+  public List<String> getGroupBy() {
+    return groupBy;
+  }
+
+  public Map<String, List<AggregateFunction>> getMetrics() {
+    return metrics;
+  }
+
+  public int getMaxGroups() {
+    return maxGroups;
+  }
+
+  @Override
+  public String toString() {
+    return "groupBy " + groupBy + ", metrics " + metrics;
+  }
+
+  private static String normalize(String column) {
+    return column.trim().toLowerCase(Locale.ENGLISH);
+  }
+}
@@ -0,0 +1,192 @@
+package com.newrelic.infra.db.aggregate;
+
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds parsed rows into one row per group, so a query returning a row per
+ * session or file is reported as one event per group. Each aggregated column
+ * keeps a count, sum, minimum and maximum, plus a {@link QuantileSketch} when
+ * a percentile is asked for, so memory grows with the number of groups and
+ * not with the number of rows.
+ * <p>
+ * Groups are reported in the order they were first seen. Every group row has
+ * the group by values as attributes, a gauge named column.function per
+ * aggregated column and function, and an aggregatedRows gauge with the number
+ * of rows folded into it.
+ * </p>
+ * <p>
+ * Not thread safe, create one per run.
+ * </p>
+ */
+public final class Aggregator {
+  private final String[] groupBy;
+  private final String[] columns;
+  private final AggregateFunction[][] functions;
+  private final boolean[] sketched;
+  private final int maxGroups;
+  private final Map<List<Object>, Group> groups = new LinkedHashMap<>();
+  private long offered = 0;
+  private long dropped = 0;
+
+  private final class Group {
+    private final Object[] key;
+    private final long[] counts = new long[columns.length];
+    private final double[] sums = new double[columns.length];
+    private final double[] mins = new double[columns.length];
+    private final double[] maxs = new double[columns.length];
+    private final QuantileSketch[] sketches = new QuantileSketch[columns.length];
+    private long rows = 0;
+
+    private Group(Object[] key) {
+      this.key = key;
+      Arrays.fill(mins, Double.POSITIVE_INFINITY);
+      Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+      for (int i = 0; i < columns.length; i++) {
+        if (sketched[i]) {
+          sketches[i] = new QuantileSketch();
+        }
+      }
+    }
+
+    private void add(int column, double value) {
+      counts[column] += 1;
+      sums[column] += value;
+      mins[column] = Math.min(mins[column], value);
+      maxs[column] = Math.max(maxs[column], value);
+      if (sketches[column] != null) {
+        sketches[column].add(value);
+      }
+    }
+
+    private double get(int column, AggregateFunction function) {
+      switch (function) {
+        case COUNT:
+          return counts[column];
+        case SUM:
+          return sums[column];
+        case AVG:
+          return sums[column] / counts[column];
+        case MIN:
+          return mins[column];
+        case MAX:
+          return maxs[column];
+        default:
+          return sketches[column].getQuantile(function.getQuantile());
+      }
+    }
+  }
+
+  /**
+   * Create an aggregator for one run of a command.
+   */
+  public Aggregator(AggregateSpec spec) {
+    this.groupBy = spec.getGroupBy().toArray(new String[0]);
+    this.columns = spec.getMetrics().keySet().toArray(new String[0]);
+    this.functions = new AggregateFunction[columns.length][];
+    this.sketched = new boolean[columns.length];
+    this.maxGroups = spec.getMaxGroups();
+
+    for (int i = 0; i < columns.length; i++) {
+      functions[i] = spec.getMetrics().get(columns[i]).toArray(new AggregateFunction[0]);
+      for (final AggregateFunction function : functions[i]) {
+        sketched[i] |= function.isQuantile();
+      }
+    }
+  }
+
+  /**
+   * Fold a parsed row into its group. Columns that are missing or not
+   * numeric are left out of the group's aggregates.
+   *
+   * @param row Column name to value, as from a parser's raw row
+   * @return False if the row was dropped because maxGroups was reached
+   */
+  public boolean add(Map<String, Object> row) {
+    offered += 1;
+
+    final Object[] key = new Object[groupBy.length];
+    for (int i = 0; i < groupBy.length; i++) {
+      final Object value = row.get(groupBy[i]);
+      key[i] = value instanceof String ? ((String) value).trim() : value;
+    }
+
+    final List<Object> groupKey = Arrays.asList(key);
+    Group group = groups.get(groupKey);
+    if (group == null) {
+      if (groups.size() >= maxGroups) {
+        dropped += 1;
+        return false;
+      }
+      group = new Group(key);
+      groups.put(groupKey, group);
+    }
+
+    group.rows += 1;
+    for (int i = 0; i < columns.length; i++) {
+      final Object value = row.get(columns[i]);
+      if (value instanceof Number) {
+        final double number = ((Number) value).doubleValue();
+        if (!Double.isNaN(number)) {
+          group.add(i, number);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Build the metric row of every group. An aggregate of a column that had
+   * no values in a group is left out, except for its count.
+   */
+  public List<List<Metric>> getRows() {
+    final List<List<Metric>> rows = new ArrayList<>(groups.size());
+
+    for (final Group group : groups.values()) {
+      final List<Metric> row = new ArrayList<>();
+
+      for (int i = 0; i < groupBy.length; i++) {
+        if (group.key[i] != null) {
+          row.add(new AttributeMetric(groupBy[i], group.key[i]));
+        }
+      }
+      for (int i = 0; i < columns.length; i++) {
+        for (final AggregateFunction function : functions[i]) {
+          if (group.counts[i] > 0 || function == AggregateFunction.COUNT) {
+            row.add(new GaugeMetric(
+                columns[i] + "." + function.getSuffix(),
+                group.get(i, function)
+            ));
+          }
+        }
+      }
+      row.add(new GaugeMetric("aggregatedRows", group.rows));
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  public int getGroupCount() {
+    return groups.size();
+  }
+
+  /**
+   * Get the number of rows offered so far.
+   */
+  public long getOffered() {
+    return offered;
+  }
+
+  /**
+   * Get the number of rows dropped because maxGroups was reached.
+   */
+  public long getDropped() {
+    return dropped;
+  }
+}
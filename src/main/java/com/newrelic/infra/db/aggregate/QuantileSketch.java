@@ -0,0 +1,190 @@
+package com.newrelic.infra.db.aggregate;
+
+/**
+ * Estimates quantiles of a stream of values in bounded memory. Values are
+ * counted in logarithmic buckets, so every estimate is within the relative
+ * accuracy of a value that was added, however skewed the values are.
+ * <p>
+ * Sketches with the same accuracy can be merged, which gives the same result
+ * as adding all of their values to one sketch.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+public final class QuantileSketch {
+  private static final double defaultRelativeAccuracy = 0.01;
+
+  // Values closer to zero than this are counted as zero
+  private static final double minIndexableValue = 1e-9;
+
+  private final double relativeAccuracy;
+  private final double logGamma;
+  private final Buckets positive = new Buckets();
+  private final Buckets negative = new Buckets();
+  private long zeroCount = 0;
+  private long count = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Create a sketch with 1% relative accuracy.
+   */
+  public QuantileSketch() {
+    this(defaultRelativeAccuracy);
+  }
+
+  /**
+   * Create a sketch.
+   *
+   * @param relativeAccuracy Largest relative error of a quantile estimate,
+   *                         between 0 and 1 exclusive
+   */
+  public QuantileSketch(double relativeAccuracy) {
+    if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+      throw new IllegalArgumentException("Relative accuracy must be between 0 and 1");
+    }
+    this.relativeAccuracy = relativeAccuracy;
+    this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+  }
+
+  /**
+   * Add a value. NaN is ignored.
+   */
+  public void add(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+
+    if (value > minIndexableValue) {
+      positive.add(index(value), 1);
+    } else if (value < -minIndexableValue) {
+      negative.add(index(-value), 1);
+    } else {
+      zeroCount += 1;
+    }
+    count += 1;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add the values of another sketch to this one.
+   *
+   * @param other Sketch with the same relative accuracy
+   * @throws IllegalArgumentException If the accuracies differ
+   */
+  public void merge(QuantileSketch other) {
+    if (other.relativeAccuracy != relativeAccuracy) {
+      throw new IllegalArgumentException("Cannot merge sketches with a different accuracy");
+    }
+    positive.merge(other.positive);
+    negative.merge(other.negative);
+    zeroCount += other.zeroCount;
+    count += other.count;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Estimate a quantile of the values added.
+   *
+   * @param quantile Quantile between 0 and 1, e.g. 0.99
+   * @return The estimate, or NaN if the sketch is empty
+   */
+  public double getQuantile(double quantile) {
+    if (count == 0 || quantile < 0 || quantile > 1) {
+      return Double.NaN;
+    }
+    // The extremes are known exactly
+    if (quantile == 0) {
+      return min;
+    }
+    if (quantile == 1) {
+      return max;
+    }
+
+    final long rank = (long) (quantile * (count - 1));
+    final double estimate;
+
+    if (rank < negative.total) {
+      // Negative values count down from the largest magnitude
+      estimate = -value(negative.indexAtRank(negative.total - 1 - rank));
+    } else if (rank < negative.total + zeroCount) {
+      estimate = 0;
+    } else {
+      estimate = value(positive.indexAtRank(rank - negative.total - zeroCount));
+    }
+    // Never estimate past the extremes
+    return Math.max(min, Math.min(max, estimate));
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getRelativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  private int index(double value) {
+    return (int) Math.ceil(Math.log(value) / logGamma);
+  }
+
+  private double value(int index) {
+    // The point within relativeAccuracy of both ends of the bucket
+    return 2 * Math.exp(index * logGamma) / (1 + Math.exp(logGamma));
+  }
+
+  /**
+   * Counts per bucket index in an array that grows to cover the indexes
+   * used.
+   */
+  private static final class Buckets {
+    private long[] counts = new long[0];
+    private int offset = 0;
+    private long total = 0;
+
+    private void add(int index, long n) {
+      if (counts.length == 0) {
+        counts = new long[32];
+        offset = index - 16;
+      } else if (index < offset || index >= offset + counts.length) {
+        grow(index);
+      }
+      counts[index - offset] += n;
+      total += n;
+    }
+
+    private void merge(Buckets other) {
+      for (int i = 0; i < other.counts.length; i++) {
+        if (other.counts[i] > 0) {
+          add(other.offset + i, other.counts[i]);
+        }
+      }
+    }
+
+    private int indexAtRank(long rank) {
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen > rank) {
+          return offset + i;
+        }
+      }
+      return offset + counts.length - 1;
+    }
+
+    private void grow(int index) {
+      final int low = Math.min(offset, index);
+      final int high = Math.max(offset + counts.length - 1, index);
+      final int length = Math.max(counts.length * 2, high - low + 1);
+      final int newOffset = index < offset ? high - length + 1 : low;
+      final long[] grown = new long[length];
+
+      System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+      counts = grown;
+      offset = newOffset;
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.newrelic.infra.db.command;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 /**
  * The database command class for AS/400.
@@ -21,13 +22,6 @@ public class As400Command extends DatabaseCommand {
 
   @Override
   public Connection getConnection() throws SQLException {
-    try {
-      Class.forName(getDbDriverName());
-    } catch (ClassNotFoundException e) {
-      logger.error("Unable to find class: '" + getDbDriverName() + "'");
-      e.printStackTrace();
-    }
-
     String url = "jdbc:as400://" + getHostname();
 
     if (getPort() != 0) {
@@ -36,7 +30,12 @@ public class As400Command extends DatabaseCommand {
 
     url += "/" + getDatabase();
 
+    Properties props = getCredentials();
+    if (getConnectTimeout() > 0) {
+      props.setProperty("login timeout", String.valueOf(getConnectTimeout()));
+    }
+
     // Set URL for data sources
-    return DriverManager.getConnection(url, getUsername(), getPassword());
+    return DriverManager.getConnection(url, props);
   }
 }
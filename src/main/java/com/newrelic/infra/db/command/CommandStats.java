@@ -0,0 +1,318 @@
+package com.newrelic.infra.db.command;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What one run of a command cost, phase by phase. Filled in by the command
+ * while it runs, except for the report time which the agent adds while it
+ * reports the rows.
+ */
+public final class CommandStats {
+  private static final int maxEstimatedColumnBytes = 256;
+
+  private final long startTime = System.currentTimeMillis();
+  private long lag = 0;
+  private long borrowNanos = 0;
+  private long executeNanos = 0;
+  private long firstRowNanos = -1;
+  private long fetchNanos = 0;
+  private long parseNanos = 0;
+  private final AtomicLong reportNanos = new AtomicLong();
+  private int rows = 0;
+  private int rowsParsed = 0;
+  private int duplicates = 0;
+  private int errors = 0;
+  private long estimatedBytes = 0;
+  private volatile boolean timedOut = false;
+  private volatile boolean skipped = false;
+  private boolean truncated = false;
+  private long sampledOut = 0;
+  private long counterResets = 0;
+  private int chunks = 0;
+  private boolean caughtUp = false;
+  private volatile boolean failed = false;
+  private volatile boolean connectionFailed = false;
+
+  /**
+   * Get when the run started, in milliseconds since the epoch.
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Get how many milliseconds the run started after it was due.
+   */
+  public long getLag() {
+    return lag;
+  }
+
+  void setLag(long lag) {
+    this.lag = Math.max(0, lag);
+  }
+
+  public long getBorrowNanos() {
+    return borrowNanos;
+  }
+
+  void addBorrowNanos(long nanos) {
+    borrowNanos += nanos;
+  }
+
+  public long getExecuteNanos() {
+    return executeNanos;
+  }
+
+  void addExecuteNanos(long nanos) {
+    executeNanos += nanos;
+  }
+
+  /**
+   * Get the time from the start of execution to the first row, -1 if no row
+   * was returned.
+   */
+  public long getFirstRowNanos() {
+    return firstRowNanos;
+  }
+
+  void setFirstRowNanos(long nanos) {
+    if (firstRowNanos < 0) {
+      firstRowNanos = nanos;
+    }
+  }
+
+  public long getFetchNanos() {
+    return fetchNanos;
+  }
+
+  void addFetchNanos(long nanos) {
+    fetchNanos += nanos;
+  }
+
+  public long getParseNanos() {
+    return parseNanos;
+  }
+
+  void addParseNanos(long nanos) {
+    parseNanos += nanos;
+  }
+
+  /**
+   * Get the time the command itself spent running: borrowing, executing,
+   * fetching and parsing, without the time spent reporting.
+   */
+  public long getRunNanos() {
+    return borrowNanos + executeNanos + fetchNanos + parseNanos;
+  }
+
+  public long getReportNanos() {
+    return reportNanos.get();
+  }
+
+  /**
+   * Add time spent reporting the rows of this run. Safe to call from any
+   * thread.
+   */
+  public void addReportNanos(long nanos) {
+    reportNanos.addAndGet(nanos);
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  void addRows(int rows) {
+    this.rows += rows;
+  }
+
+  public int getRowsParsed() {
+    return rowsParsed;
+  }
+
+  void addRowsParsed(int rowsParsed) {
+    this.rowsParsed += rowsParsed;
+  }
+
+  public int getDuplicates() {
+    return duplicates;
+  }
+
+  void addDuplicates(int duplicates) {
+    this.duplicates += duplicates;
+  }
+
+  public int getErrors() {
+    return errors;
+  }
+
+  void addError() {
+    errors += 1;
+  }
+
+  /**
+   * Get an estimate of the bytes read, from the column types and row count.
+   */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  void addEstimatedBytes(long bytes) {
+    estimatedBytes += bytes;
+  }
+
+  /**
+   * Whether the run was cancelled because it exceeded its queryTimeout or the
+   * harvest cycle ran out of time.
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  void setTimedOut() {
+    timedOut = true;
+  }
+
+  /**
+   * Whether the command was not run at all because the harvest cycle had run
+   * out of time before it started.
+   */
+  public boolean isSkipped() {
+    return skipped;
+  }
+
+  void setSkipped() {
+    skipped = true;
+  }
+
+  /**
+   * Whether the run stopped reading rows because the result exceeded maxRows
+   * or maxResultBytes.
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  void setTruncated() {
+    truncated = true;
+  }
+
+  /**
+   * Get the number of parsed rows that sampling left out of the report.
+   */
+  public long getSampledOut() {
+    return sampledOut;
+  }
+
+  void addSampledOut(long rows) {
+    sampledOut += rows;
+  }
+
+  /**
+   * Get the number of cumulative counters that went down, and so were reset,
+   * since the previous run.
+   */
+  public long getCounterResets() {
+    return counterResets;
+  }
+
+  void addCounterResets(long resets) {
+    counterResets += resets;
+  }
+
+  /**
+   * Get the number of chunks a tailing query was read in, 0 if it was not
+   * read in chunks.
+   */
+  public int getChunks() {
+    return chunks;
+  }
+
+  void addChunk() {
+    chunks += 1;
+  }
+
+  /**
+   * Whether the run skipped a backlog larger than catchUpThreshold.
+   */
+  public boolean isCaughtUp() {
+    return caughtUp;
+  }
+
+  void setCaughtUp() {
+    caughtUp = true;
+  }
+
+  /**
+   * Whether the query failed, as opposed to individual rows failing to parse.
+   */
+  public boolean isFailed() {
+    return failed;
+  }
+
+  void setFailed() {
+    failed = true;
+  }
+
+  /**
+   * Whether the query failed because no working connection could be had.
+   */
+  public boolean isConnectionFailed() {
+    return connectionFailed;
+  }
+
+  void setConnectionFailed() {
+    failed = true;
+    connectionFailed = true;
+  }
+
+  /**
+   * Estimate the size of a row from its column types. Variable length columns
+   * count at their declared size, capped so that unbounded types do not
+   * dominate.
+   */
+  static int estimateRowBytes(ResultSetMetaData rsmd) throws SQLException {
+    int bytes = 0;
+
+    for (int column = 1; column <= rsmd.getColumnCount(); column++) {
+      switch (rsmd.getColumnType(column)) {
+        case Types.BIT:
+        case Types.BOOLEAN:
+        case Types.TINYINT:
+          bytes += 1;
+          break;
+        case Types.SMALLINT:
+          bytes += 2;
+          break;
+        case Types.INTEGER:
+        case Types.REAL:
+          bytes += 4;
+          break;
+        case Types.BIGINT:
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.DATE:
+        case Types.TIME:
+          bytes += 8;
+          break;
+        case Types.TIMESTAMP:
+        case Types.TIMESTAMP_WITH_TIMEZONE:
+          bytes += 12;
+          break;
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+          bytes += rsmd.getPrecision(column) / 2 + 1;
+          break;
+        default:
+          final int precision = rsmd.getPrecision(column);
+          bytes += precision > 0 && precision < maxEstimatedColumnBytes
+              ? precision
+              : maxEstimatedColumnBytes;
+          break;
+      }
+    }
+    return bytes;
+  }
+}
@@ -2,24 +2,50 @@ package com.newrelic.infra.db.command;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.newrelic.infra.db.Util;
+import com.newrelic.infra.db.aggregate.AggregateSpec;
+import com.newrelic.infra.db.aggregate.Aggregator;
+import com.newrelic.infra.db.dedup.DedupHistory;
+import com.newrelic.infra.db.dedup.RowHashPlan;
+import com.newrelic.infra.db.dedup.RowHasher;
+import com.newrelic.infra.db.delta.KeyedDeltas;
+import com.newrelic.infra.db.parser.ColumnExtractor;
+import com.newrelic.infra.db.parser.ColumnarBatch;
 import com.newrelic.infra.db.parser.DatabaseParser;
 import com.newrelic.infra.db.parser.GenericParser;
+import com.newrelic.infra.db.parser.MetricKind;
+import com.newrelic.infra.db.pool.ConnectionFactory;
+import com.newrelic.infra.db.pool.ConnectionKey;
+import com.newrelic.infra.db.pool.ConnectionPool;
+import com.newrelic.infra.db.pool.ConnectionPoolManager;
+import com.newrelic.infra.db.pool.PoolSettings;
+import com.newrelic.infra.db.sampling.RowSampler;
+import com.newrelic.infra.db.sampling.SampleMode;
+import com.newrelic.infra.db.scheduler.OverlapPolicy;
+import com.newrelic.infra.db.scheduler.Watchdog;
+import com.newrelic.infra.db.state.CommandState;
 import com.newrelic.infra.publish.api.metrics.AttributeMetric;
 import com.newrelic.infra.publish.api.metrics.Metric;
-import java.nio.BufferOverflowException;
-import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import org.apache.commons.codec.digest.DigestUtils;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +67,12 @@ public abstract class DatabaseCommand {
   protected static final String defaultTable = "Unknown Table";
   protected static final int defaultRowBufferSize = 5120;
   protected static final int defaultUniqueHistorySize = 1000;
+  protected static final int defaultBatchSize = 500;
+  protected static final int defaultSampleSize = 100;
+  protected static final int defaultMaxChunks = 10;
+  protected static final int defaultKeyIdleTimeout = 600;
+
+  private static final Set<String> loadedDrivers = ConcurrentHashMap.newKeySet();
 
   public abstract String getDbDriverName();
 
@@ -48,6 +80,32 @@ public abstract class DatabaseCommand {
 
   public abstract Connection getConnection() throws SQLException;
 
+  /**
+   * Get the fetch size used when neither the command nor the agent sets one.
+   * Providers whose drivers fetch too few or too many rows per round trip by
+   * default override this. 0 leaves the driver default in place.
+   */
+  protected int getDefaultFetchSize() {
+    return 0;
+  }
+
+  /**
+   * Whether the driver only honours the fetch size inside a transaction, as
+   * the Postgres driver does. If so, queries with a fetch size run with
+   * autocommit off.
+   */
+  protected boolean isFetchSizeTransactional() {
+    return false;
+  }
+
+  /**
+   * Get the text that separates statements when several queries are sent as
+   * one multi-statement batch, or null if the provider cannot run them.
+   */
+  protected String getStatementSeparator() {
+    return null;
+  }
+
   private String hostname;
   private int port;
   private String database;
@@ -63,6 +121,7 @@ public abstract class DatabaseCommand {
   private String sslTrustStoreLocation = null;
   private String sslTrustStorePassword = null;
   private String version = null;
+  private boolean hostScoped = false;
 
   private String name;
   private String provider;
@@ -70,17 +129,27 @@ public abstract class DatabaseCommand {
   private List<String> queryParameterColumns;
   private List<Object> queryParameterValues;
   private String initialQuery;
-  private boolean runInitialQuery;
+  private volatile boolean runInitialQuery;
 
   protected int uniqueHistorySize;
   protected int rowBufferSize;
   protected boolean deduplicate;
-  protected final LinkedHashMap<String, Integer> uniqueHistoryList;
+  protected final DedupHistory uniqueHistory;
+  private final List<String> dedupKeyColumns;
+  private final List<String> identityColumns;
+  private final List<String> counterColumns;
+  private int keyIdleTimeout = 0;
+  private KeyedDeltas keyedDeltas = null;
+  private final RowHasher rowHasher = new RowHasher();
+  private RowHashPlan rowHashPlan = null;
+  private ResultSetMetaData rowHashPlanMetaData = null;
 
   private String dataType;
   private String metricType;
   private String eventType;
   private List<Metric> defaultMetrics;
+  private String[] defaultMetricValues;
+  private volatile String instanceId;
 
   private String prefix;
   private String category;
@@ -91,6 +160,37 @@ public abstract class DatabaseCommand {
 
   private boolean useSsl;
 
+  private PoolSettings poolSettings;
+  private final ConnectionFactory connectionFactory = this::openConnection;
+  private ConnectionPool connectionPool;
+  private boolean closed = false;
+
+  private Integer fetchSize = null;
+  private boolean stream = false;
+  private boolean combine = false;
+  private int batchSize = defaultBatchSize;
+  private int interval = 0;
+  private int queryTimeout = 0;
+  private int connectTimeout = 0;
+  private int maxRows = 0;
+  private long maxResultBytes = 0;
+  private SampleMode sampleMode = SampleMode.NONE;
+  private String sampleColumn = null;
+  private int sampleSize = defaultSampleSize;
+  private int chunkSize = 0;
+  private int maxChunks = defaultMaxChunks;
+  private int chunkBudget = 0;
+  private int catchUpThreshold = 0;
+  private AggregateSpec aggregate = null;
+  private OverlapPolicy overlapPolicy = null;
+  private final ReentrantLock runLock = new ReentrantLock();
+  private volatile Statement currentStatement = null;
+  private volatile boolean timedOut = false;
+  private int consecutiveFailures = 0;
+  private volatile long stateVersion = 0;
+  private volatile CommandStats stats = new CommandStats();
+  private volatile long dueTime = 0;
+
   /**
    * Constructor for DatabaseCommand.
    */
@@ -99,21 +199,20 @@ public abstract class DatabaseCommand {
     setProvider(this.getDbType());
     this.queryParameterColumns = new LinkedList<>();
     this.queryParameterValues = new LinkedList<>();
-    this.defaultMetrics = new ArrayList<>();
+    this.defaultMetrics = Collections.emptyList();
+    this.poolSettings = new PoolSettings();
 
     // Deduplication config
     this.deduplicate = false;
     this.uniqueHistorySize = defaultUniqueHistorySize;
     this.rowBufferSize = defaultRowBufferSize;
 
-    // Using a LinkedHashMap as a cache, it will auto-prune at the uniqueHistorySize
-    // limit.
-    this.uniqueHistoryList = new LinkedHashMap<String, Integer>() {
-      @Override
-      protected boolean removeEldestEntry(final Map.Entry eldest) {
-        return size() > uniqueHistorySize;
-      }
-    };
+    this.dedupKeyColumns = new ArrayList<>();
+    this.identityColumns = new ArrayList<>();
+    this.counterColumns = new ArrayList<>();
+
+    // Fixed size, auto-prunes at the uniqueHistorySize limit.
+    this.uniqueHistory = new DedupHistory(uniqueHistorySize);
   }
 
   /**
@@ -127,6 +226,25 @@ public abstract class DatabaseCommand {
     return result.getMetricResult();
   }
 
+  /**
+   * Get metrics as a stream. Rows are passed to the sink in batches of
+   * batchSize while the result set is read, so only one batch is held in
+   * memory at a time.
+   *
+   * @param sink Receives each batch of rows, including any error sample
+   */
+  public void executeMetric(MetricSink sink) {
+    logger.debug("executeMetric (streaming), query[" + getQuery() + "]");
+
+    DatabaseResult result = executeQuery(
+        DbQueryType.METRIC,
+        getQuery(),
+        new DatabaseResult(sink, getBatchSize())
+    );
+
+    result.flushMetricResult();
+  }
+
   /**
    * Get inventory.
    */
@@ -151,6 +269,7 @@ public abstract class DatabaseCommand {
         if (row.containsKey(name)) {
           logger.info("Updating Query Parameter value: '" + name + "' = [" + row.get(name) + "]");
           this.queryParameterValues.add(x, row.get(name));
+          this.stateVersion += 1;
         } else {
           logger.error("Could not find query parameter [" + name + "] in result set");
         }
@@ -178,6 +297,11 @@ public abstract class DatabaseCommand {
    * the column with the same name. In this case 'id'.
    * </p>
    *
+   * <p>
+   * An initial query that fails, for example because the database is not
+   * reachable yet, is kept and run again on the next call.
+   * </p>
+   *
    * @return True if successfully run, False otherwise
    */
   public boolean executeInitialQuery() {
@@ -186,7 +310,12 @@ public abstract class DatabaseCommand {
 
       DatabaseResult result = executeQuery(DbQueryType.RAW, getInitialQuery());
 
-      Map<String, Object> firstRow = result.getRawResult().get(0);
+      if (stats.isFailed()) {
+        return false;
+      }
+
+      List<Map<String, Object>> rows = result.getRawResult();
+      Map<String, Object> firstRow = rows.isEmpty() ? null : rows.get(0);
 
       if (firstRow != null) {
         updateQueryParameterValues(firstRow);
@@ -218,61 +347,582 @@ public abstract class DatabaseCommand {
   }
 
   /**
-   * Generate a hash of the entire row in an attempt to deduplicate data.
+   * Build the key that decides which commands can share connections.
+   */
+  public ConnectionKey getConnectionKey() {
+    return new ConnectionKey(
+        getProvider(),
+        getHostname(),
+        getPort(),
+        getDatabase(),
+        getUsername(),
+        getPassword(),
+        isSslConnection(),
+        isSslEncrypt(),
+        isSslTrustServerCert(),
+        getSslHostnameInCert(),
+        getSslTrustStoreLocation(),
+        getSslTrustStorePassword(),
+        useSsl(),
+        getConnectTimeout(),
+        poolSettings
+    );
+  }
+
+  /**
+   * Borrow a connection from the shared pool for this command's connection key,
+   * or open a dedicated one if pooling is disabled. A pooled connection that
+   * has to be opened is opened by this command, not by the one that created
+   * the pool.
+   *
+   * @param pool Pool from {@link #acquirePool()}, null if pooling is disabled
+   */
+  protected Connection borrowConnection(ConnectionPool pool) throws SQLException {
+    return pool != null ? pool.borrow(connectionFactory) : openConnection();
+  }
+
+  /**
+   * Get the shared pool for this command's connection key, joining it on
+   * first use. A run keeps the pool it got for its whole length.
+   *
+   * @return The pool, or null if pooling is disabled
+   * @throws SQLException If the command was closed
+   */
+  private synchronized ConnectionPool acquirePool() throws SQLException {
+    if (closed) {
+      throw new SQLException("[" + getName() + "] was closed");
+    }
+    if (!poolSettings.isEnabled()) {
+      return null;
+    }
+
+    if (connectionPool == null) {
+      connectionPool = ConnectionPoolManager.getInstance().acquire(
+          getConnectionKey(),
+          connectionFactory
+      );
+    }
+    return connectionPool;
+  }
+
+  /**
+   * Get connection properties holding the user and password, for providers
+   * that also pass other settings, such as the connectTimeout, as properties.
+   */
+  protected Properties getCredentials() {
+    final Properties props = new Properties();
+
+    if (getUsername() != null) {
+      props.setProperty("user", getUsername());
+    }
+    if (getPassword() != null) {
+      props.setProperty("password", getPassword());
+    }
+    return props;
+  }
+
+  /**
+   * Open a new physical connection. Each provider passes the connectTimeout
+   * in its own connection properties; the JDBC login timeout is shared by
+   * the whole JVM, so it is left alone.
+   */
+  protected Connection openConnection() throws SQLException {
+    loadDriver();
+    return getConnection();
+  }
+
+  /**
+   * Load the JDBC driver of this command's provider. Drivers are only loaded
+   * when the first command of a provider connects, so an agent does not pay
+   * for providers it never uses. A driver is loaded once; other commands of
+   * the provider wait until it is, and one that failed to load is tried
+   * again on the next connect.
+   */
+  protected void loadDriver() {
+    final String driver = getDbDriverName();
+    if (driver == null || loadedDrivers.contains(driver)) {
+      return;
+    }
+
+    synchronized (loadedDrivers) {
+      if (loadedDrivers.contains(driver)) {
+        return;
+      }
+      try {
+        Class.forName(driver);
+        loadedDrivers.add(driver);
+        logger.debug("Loaded JDBC driver: '" + driver + "'");
+      } catch (ClassNotFoundException e) {
+        // JDBC 4 drivers on the classpath still register themselves
+        logger.error("Unable to find class: '" + driver + "'");
+      }
+    }
+  }
+
+  /**
+   * Prepare a forward only, read only statement for the query on a borrowed
+   * connection. Pooled connections hand back the statement prepared by the
+   * previous run, so the database does not parse and plan the SQL again.
+   */
+  protected PreparedStatement openStatement(
+      ConnectionPool pool,
+      Connection con,
+      String query
+  ) throws SQLException {
+    if (pool != null) {
+      return pool.prepareStatement(
+          con,
+          query,
+          ResultSet.TYPE_FORWARD_ONLY,
+          ResultSet.CONCUR_READ_ONLY
+      );
+    }
+
+    return con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+  }
+
+  /**
+   * Give back a statement obtained from {@link #openStatement}.
+   *
+   * @param pool      Pool the connection was borrowed from, null if none
+   * @param con       Connection the statement was prepared on
+   * @param statement Statement to give back, may be null
+   * @param discard   True if the statement failed and must not be reused
+   */
+  protected void closeStatement(
+      ConnectionPool pool,
+      Connection con,
+      PreparedStatement statement,
+      boolean discard
+  ) {
+    if (statement == null) {
+      return;
+    }
+
+    if (pool != null) {
+      pool.releaseStatement(con, statement, discard);
+    } else {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        logger.error("Error Closing Statement", e);
+      }
+    }
+  }
+
+  /**
+   * Give back a connection obtained from {@link #borrowConnection}.
+   *
+   * @param pool    Pool the connection was borrowed from, null if none
+   * @param con     Connection to give back, may be null
+   * @param discard True if the connection is broken and must not be reused
+   */
+  protected void releaseConnection(ConnectionPool pool, Connection con, boolean discard) {
+    if (con == null) {
+      return;
+    }
+
+    if (pool != null) {
+      pool.release(con, discard);
+    } else {
+      try {
+        con.close();
+      } catch (SQLException e) {
+        logger.error("Error Closing Connection", e);
+      }
+    }
+  }
+
+  /**
+   * Cancel the statement this command is currently running, if any. Safe to
+   * call from any thread.
+   */
+  public void cancel() {
+    final Statement statement = this.currentStatement;
+
+    if (statement != null) {
+      try {
+        statement.cancel();
+      } catch (SQLException e) {
+        logger.warn("Unable to cancel [" + getName() + "]: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Cancel the statement this command is currently running, if any, and
+   * report the run as timed out. A run that has not reached its statement yet
+   * stops before executing it. A run whose driver ignores the cancel is
+   * already marked as timed out, so a caller that gives up on it reports it
+   * as such. Safe to call from any thread.
+   */
+  public void timeOut() {
+    this.timedOut = true;
+    if (runLock.isLocked()) {
+      stats.setTimedOut();
+    }
+    cancel();
+  }
+
+  /**
+   * Whether a run of this command is in progress, possibly one that was
+   * given up on because its driver ignored the cancel.
+   */
+  public boolean isRunning() {
+    return runLock.isLocked();
+  }
+
+  /**
+   * Record that this command was due but not run, because the harvest cycle
+   * ran out of time. Does nothing if the command is running right now.
+   */
+  public void skip() {
+    if (runLock.tryLock()) {
+      try {
+        startStats().setSkipped();
+      } finally {
+        unlockRun();
+      }
+    }
+  }
+
+  /**
+   * Release any shared resources held by this command. Does not wait for a
+   * run in progress: the run releases them when it finishes, and no run
+   * starts on a closed command.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    releaseIfClosed();
+  }
+
+  /**
+   * End a run, then release the pool if the command was closed while it ran.
+   */
+  private void unlockRun() {
+    runLock.unlock();
+    releaseIfClosed();
+  }
+
+  private void releaseIfClosed() {
+    if (!runLock.tryLock()) {
+      return; // The running thread releases it when it is done
+    }
+
+    try {
+      synchronized (this) {
+        if (closed && connectionPool != null) {
+          ConnectionPoolManager.getInstance().release(
+              connectionPool.getKey(),
+              connectionFactory
+          );
+          connectionPool = null;
+        }
+      }
+    } finally {
+      runLock.unlock();
+    }
+  }
+
+  /**
+   * Get the cost of the most recent run, or of the run in progress.
+   */
+  public CommandStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Set when the next run of this command is due, in milliseconds since the
+   * epoch, so the run can record how late it started.
+   */
+  public void setDueTime(long dueTime) {
+    this.dueTime = dueTime;
+  }
+
+  private CommandStats startStats() {
+    final CommandStats started = new CommandStats();
+    timedOut = false;
+
+    if (dueTime > 0) {
+      started.setLag(started.getStartTime() - dueTime);
+      dueTime = 0;
+    }
+    stats = started;
+    return started;
+  }
+
+  /**
+   * Get a counter that changes whenever the watermark or dedup history does,
+   * so callers can skip saving state that has not changed.
+   */
+  public long getStateVersion() {
+    return stateVersion;
+  }
+
+  /**
+   * Take a snapshot of the watermark and dedup history. Does not wait for a
+   * running query, the state is in flux until it finishes.
+   *
+   * @return The snapshot, or null if the command is running right now
+   */
+  public CommandState snapshotState() {
+    if (!runLock.tryLock()) {
+      return null;
+    }
+
+    try {
+      final long[] hashes = new long[uniqueHistory.size()];
+      final int[] counts = new int[hashes.length];
+
+      for (int x = 0; x < hashes.length; x++) {
+        hashes[x] = uniqueHistory.keyAt(x);
+        counts[x] = uniqueHistory.countAt(x);
+      }
+
+      return new CommandState(queryParameterColumns, queryParameterValues, hashes, counts);
+    } finally {
+      unlockRun();
+    }
+  }
+
+  /**
+   * Pick up where a previous run of the agent left off. A saved watermark is
+   * only used if it was taken for the same queryParameterColumns, and then
+   * replaces the initial query.
+   *
+   * @return True if the watermark was restored
+   */
+  public boolean restoreState(CommandState state) {
+    runLock.lock();
+    try {
+      boolean restored = false;
+
+      if (!state.getParameterValues().isEmpty()
+          && state.getParameterColumns().size() == queryParameterColumns.size()) {
+        restored = true;
+        for (int x = 0; x < queryParameterColumns.size(); x++) {
+          restored &= queryParameterColumns.get(x).trim()
+              .equalsIgnoreCase(state.getParameterColumns().get(x).trim());
+        }
+      }
+
+      if (restored) {
+        logger.info("Restored query parameter values " + state.getParameterValues());
+        queryParameterValues.clear();
+        queryParameterValues.addAll(state.getParameterValues());
+        runInitialQuery = false;
+      }
+
+      if (deduplicate) {
+        for (int x = 0; x < state.getRowCount(); x++) {
+          uniqueHistory.add(state.getRowHash(x), state.getRowHits(x));
+        }
+      }
+
+      return restored;
+    } finally {
+      unlockRun();
+    }
+  }
+
+  /**
+   * Generate a hash of the row, or of its dedupKeyColumns if set, in an
+   * attempt to deduplicate data. Columns are streamed into the hash one at a
+   * time, so there is no limit on the width of the row.
    *
    * @param resultSet         Data to read from, should point at the requested row
    *                          to hash
    * @param resultSetMetaData Needed to know how wide the row is, data about the
    *                          columns
-   * @return String containing hash calculated for the row
+   * @return 64 bit hash calculated for the row
+   * @throws SQLException If a column cannot be read
    */
-  public String calculateHash(ResultSet resultSet, ResultSetMetaData resultSetMetaData) {
-    String rowHash = null;
+  public long calculateHash(
+      ResultSet resultSet,
+      ResultSetMetaData resultSetMetaData
+  ) throws SQLException {
+    if (resultSetMetaData != rowHashPlanMetaData) {
+      rowHashPlan = RowHashPlan.compile(resultSetMetaData, dedupKeyColumns);
+      rowHashPlanMetaData = resultSetMetaData;
+    }
 
-    // Grab all the bytes from the row, checksum it, and return if we had a
-    // duplicate
+    return rowHashPlan.hash(resultSet, rowHasher);
+  }
+
+  private DatabaseResult executeQuery(DbQueryType queryType, String query) {
+    return executeQuery(queryType, query, new DatabaseResult());
+  }
+
+  private DatabaseResult executeQuery(
+      DbQueryType queryType,
+      String query,
+      DatabaseResult result
+  ) {
+    // A command is never run twice at the same time, a cancelled run must
+    // finish unwinding before the next one starts.
+    runLock.lock();
     try {
-      if ((resultSet != null) && (resultSetMetaData != null)) {
-        final ByteBuffer rawRow = ByteBuffer.allocate(rowBufferSize);
-        for (int c = 1; c < resultSetMetaData.getColumnCount(); c++) {
-          byte[] coldata = resultSet.getBytes(c);
+      final CommandStats stats = startStats();
 
-          if (coldata != null) {
-            rawRow.put(coldata);
-          }
-        }
+      if (queryType == DbQueryType.METRIC && aggregate != null) {
+        result.setAggregator(new Aggregator(aggregate));
+      }
+      if (queryType == DbQueryType.METRIC && isChunked()) {
+        executeChunksLocked(query, result, stats);
+      } else if (executeQueryLocked(queryType, query, result, stats, maxRows)) {
+        logTruncated(stats);
+      }
+      reportAggregated(result, stats);
+      return result;
+    } finally {
+      unlockRun();
+    }
+  }
 
-        rowHash = DigestUtils.md5Hex(rawRow.array());
+  /**
+   * Drain the rows past the watermark in chunks of chunkSize rows. The
+   * watermark moves after every chunk, so each chunk picks up where the last
+   * one stopped. Chunks are run until the backlog is drained, maxChunks have
+   * run or the chunkBudget is spent; the rest is left for the next run. A
+   * backlog of more than catchUpThreshold rows is skipped by running the
+   * initial query again.
+   */
+  private void executeChunksLocked(String query, DatabaseResult result, CommandStats stats) {
+    final long start = System.nanoTime();
+    final int limit = maxRows > 0 ? Math.min(chunkSize, maxRows) : chunkSize;
+    boolean more = true;
+
+    while (more) {
+      more = executeQueryLocked(DbQueryType.METRIC, query, result, stats, limit);
+      stats.addChunk();
+
+      if (!more || stats.isFailed() || timedOut) {
+        return;
+      }
+      if (catchUpThreshold > 0 && stats.getRows() >= catchUpThreshold) {
+        catchUp(stats);
+        return;
+      }
+      if (stats.getChunks() >= maxChunks
+          || (chunkBudget > 0 && System.nanoTime() - start >= chunkBudget * 1000000000L)) {
+        logger.info(
+            "[" + name + "] read " + stats.getChunks() + " chunks, leaving the rest of the"
+            + " backlog for the next run"
+        );
+        return;
       }
-    } catch (SQLException | BufferOverflowException | NullPointerException e) {
-      logger.error("Unable to check row for duplicate", e);
-      return null;
     }
+  }
+
+  /**
+   * Skip the rest of the backlog by moving the watermark to where the initial
+   * query says the latest rows start.
+   */
+  private void catchUp(CommandStats stats) {
+    logger.warn(
+        "[" + name + "] backlog exceeds catchUpThreshold of " + catchUpThreshold
+        + " rows, skipping to the latest rows"
+    );
 
-    return rowHash;
+    final DatabaseResult seed = new DatabaseResult();
+    executeQueryLocked(DbQueryType.RAW, initialQuery, seed, new CommandStats(), 1);
+    if (!seed.getRawResult().isEmpty()) {
+      updateQueryParameterValues(seed.getRawResult().get(0));
+      stats.setCaughtUp();
+    } else {
+      logger.error("[" + name + "] initial query returned nothing, unable to skip ahead");
+    }
   }
 
-  private DatabaseResult executeQuery(DbQueryType queryType, String query) {
-    DatabaseResult result = new DatabaseResult();
+  /**
+   * Add one row per group to a result whose rows were aggregated. The groups
+   * span every chunk of the run.
+   */
+  private void reportAggregated(DatabaseResult result, CommandStats stats) {
+    final Aggregator aggregator = result.getAggregator();
+    if (aggregator == null) {
+      return;
+    }
+
+    stats.addRowsParsed(result.addAggregatedResult(this.getDefaultMetrics()));
+    if (aggregator.getDropped() > 0) {
+      stats.addSampledOut(aggregator.getDropped());
+      logger.warn(
+          "[" + name + "] dropped " + aggregator.getDropped() + " rows past the aggregate"
+          + " limit of " + aggregate.getMaxGroups() + " groups"
+      );
+    }
+    logger.info(
+        "Aggregated " + aggregator.getOffered() + " rows into "
+        + aggregator.getGroupCount() + " groups"
+    );
+  }
+
+  private void logTruncated(CommandStats stats) {
+    stats.setTruncated();
+    logger.warn(
+        "[" + name + "] stopped reading after " + stats.getRows() + " rows, the result exceeds"
+        + (maxRows > 0 && stats.getRows() >= maxRows ? " maxRows" : " maxResultBytes")
+    );
+  }
+
+  /**
+   * Run a query on a borrowed connection and read its result.
+   *
+   * @param rowLimit Most rows to read, 0 for no limit
+   * @return True if reading stopped at rowLimit or maxResultBytes with rows
+   *         left in the result
+   */
+  private boolean executeQueryLocked(
+      DbQueryType queryType,
+      String query,
+      DatabaseResult result,
+      CommandStats stats,
+      int rowLimit
+  ) {
     this.updateDefaultMetrics(); // Update the set of Default Metrics returned
 
+    boolean more = false;
     Connection con = null;
+    boolean discardConnection = false;
+    boolean discardStatement = false;
+    boolean restoreAutoCommit = false;
     PreparedStatement statement = null;
     ResultSet rs = null;
-    int rowsParsed = 0;
-    int rowDuplicates = 0;
-    int rowsTotal = 0;
-    String rowHash = null;
+    ScheduledFuture<?> watch = null;
+    ConnectionPool pool = null;
 
     try {
       parser.beforeQuery(); // Make sure the parser is ready
 
-      con = getConnection();
-      statement = con.prepareStatement(
-          query,
-          ResultSet.TYPE_SCROLL_INSENSITIVE,
-          ResultSet.CONCUR_READ_ONLY
-      );
+      long phaseStart = System.nanoTime();
+      pool = acquirePool();
+      con = borrowConnection(pool);
+      stats.addBorrowNanos(System.nanoTime() - phaseStart);
+
+      // Drivers only bound the execute, the watchdog also bounds the fetch
+      if (queryTimeout > 0) {
+        watch = Watchdog.watch(queryTimeout * 1000L, this::timeOut);
+      }
+
+      final int fetchSize = getFetchSize();
+      if (fetchSize > 0 && isFetchSizeTransactional() && con.getAutoCommit()) {
+        con.setAutoCommit(false);
+        restoreAutoCommit = true;
+      }
+
+      // Forward only, so drivers can stream rows instead of caching the result
+      statement = openStatement(pool, con, query);
+      currentStatement = statement;
+      checkTimedOut();
+
+      // Always set, 0 resets them: a pooled statement keeps the settings of
+      // whichever command ran it last
+      statement.setFetchSize(Math.max(0, fetchSize));
+      statement.setQueryTimeout(Math.max(0, queryTimeout));
+      statement.setMaxRows(getMaxRowsPushdown(rowLimit));
 
       if (this.queryParameterValues.size() > 0) {
         prepareStatement(statement); // Insert any data that we have for the query
@@ -284,109 +934,506 @@ public abstract class DatabaseCommand {
       }
 
       logger.debug("Executing statement [ " + statement.toString() + " ]");
+      phaseStart = System.nanoTime();
       rs = statement.executeQuery();
+      stats.addExecuteNanos(System.nanoTime() - phaseStart);
 
-      final ResultSetMetaData rsmd = rs.getMetaData();
+      more = readResultSet(queryType, rs, result, stats, phaseStart, rowLimit);
+      parser.afterQuery(); // Perform any cleanup needed by the parser
+      consecutiveFailures = 0;
+    } catch (SQLException e) {
+      logQueryError(query, e);
+      discardConnection = ConnectionPool.isConnectionFailure(e);
+      discardStatement = true;
+      addSqlExceptionToResult(e, result);
+      if (con == null || discardConnection) {
+        stats.setConnectionFailed();
+      }
+    } catch (Exception e) {
+      logger.error("Unknown Exception caught", e);
+      discardStatement = true;
+      stats.addError();
+      stats.setFailed();
+    } finally {
+      Watchdog.cancel(watch);
+      currentStatement = null;
+      try {
+        if (rs != null) {
+          rs.close();
+        }
+      } catch (Exception e) {
+        logger.error("Error Closing Result Set" + e);
+        discardStatement = true;
+      }
+      closeStatement(pool, con, statement, discardStatement);
 
-      this.setTableName(rsmd.getTableName(1)); // Capture the TableName
-      defaultMetrics.add(new AttributeMetric("tableName", this.getTableName()));
+      try {
+        if (restoreAutoCommit) {
+          // Nothing was written, end the read transaction before pooling
+          con.rollback();
+          con.setAutoCommit(true);
+        }
+      } catch (Exception e) {
+        logger.error("Error Closing Connections" + e);
+        discardConnection = restoreAutoCommit;
+      }
+      releaseConnection(pool, con, discardConnection);
+      rs = null;
+      statement = null;
+      con = null;
+    }
 
-      processRows: while (rs.next()) {
-        try {
-          if (this.deduplicate) {
-            rowHash = calculateHash(rs, rsmd);
+    return more;
+  }
 
-            if ((rowHash != null) && uniqueHistoryList.containsKey(rowHash)) {
-              int times = uniqueHistoryList.get(rowHash);
-              times += 1;
-              uniqueHistoryList.put(rowHash, times);
-              logger.debug(
-                  "Found duplicate row with hash: '"
-                  + rowHash
-                  + "' again, total count: '"
-                  + times
-                  + "'"
-              );
-              rowDuplicates += 1;
-              continue; // Skip the row, it is a duplicate
-            }
+  /**
+   * Get the metrics of several commands that share a connection key in one
+   * round trip. The queries are sent as a single multi-statement batch and
+   * each result set is handed to its own command, in order. An error in one
+   * query is reported on that command only; the rest of the batch is still
+   * read unless the connection itself failed.
+   *
+   * @param commands Commands to run, all with the same connection key and all
+   *                 able to {@link #canCombine() combine}
+   * @return The metric result of each command, in the same order
+   */
+  public static List<List<List<Metric>>> executeMetricBatch(List<DatabaseCommand> commands) {
+    final DatabaseCommand first = commands.get(0);
+    final List<DatabaseResult> results = new ArrayList<>(commands.size());
+    final StringBuilder sql = new StringBuilder();
+
+    for (final DatabaseCommand command : commands) {
+      final DatabaseResult result = new DatabaseResult();
+      if (command.aggregate != null) {
+        result.setAggregator(new Aggregator(command.aggregate));
+      }
+      results.add(result);
+      if (sql.length() > 0) {
+        sql.append(first.getStatementSeparator());
+      }
+      sql.append(command.getQuery().trim().replaceAll(";+$", ""));
+    }
 
-          }
+    int locked = 0;
+    int index = 0;
+    int timeout = 0;
+    int batchMaxRows = 0;
+    boolean batchLimited = true;
+    Connection con = null;
+    PreparedStatement statement = null;
+    ScheduledFuture<?> watch = null;
+    boolean discardConnection = false;
+    boolean discardStatement = false;
+    ConnectionPool pool = null;
 
-          switch (queryType) {
-            case METRIC:
-              List<Metric> rowList = parser.parseMetricRow(this.getMetricType(), rs, rsmd);
+    try {
+      for (final DatabaseCommand command : commands) {
+        command.runLock.lock();
+        locked += 1;
+        command.updateDefaultMetrics();
+        command.startStats();
+        command.parser.beforeQuery();
+        timeout = Math.max(timeout, command.queryTimeout);
+        batchMaxRows = Math.max(batchMaxRows, command.maxRows);
+        batchLimited &= command.maxRows > 0;
+      }
 
-              if (rowList != null && !rowList.isEmpty()) {
-                rowList.addAll(this.getDefaultMetrics()); // Include our defaults
-                result.addMetricResult(rowList);
-                rowsParsed += 1;
-              }
-              break;
-            case INVENTORY:
-              if (result.addInventoryResult(
-                  getInventoryPath(),
-                  parser.parseInventoryRow(rs, rsmd)
-              )) {
-                rowsParsed += 1;
-              }
-              break;
-            case RAW:
-              if (result.addRawResult(parser.parseRawRow(rs, rsmd))) {
-                rowsParsed += 1;
-              }
-              break;
-            default:
-              logger.error("Undefined queryType");
-              break processRows;
+      // The round trip is shared, so every command is charged for all of it
+      long phaseStart = System.nanoTime();
+      pool = first.acquirePool();
+      con = first.borrowConnection(pool);
+      for (final DatabaseCommand command : commands) {
+        command.stats.addBorrowNanos(System.nanoTime() - phaseStart);
+      }
+      if (timeout > 0) {
+        // The batch is one statement, a timeout cancels every query in it
+        watch = Watchdog.watch(timeout * 1000L, () -> {
+          for (final DatabaseCommand command : commands) {
+            command.timeOut();
           }
+        });
+      }
+      statement = first.openStatement(pool, con, sql.toString());
+      for (final DatabaseCommand command : commands) {
+        command.currentStatement = statement;
+        command.checkTimedOut();
+      }
+      // Always set, 0 resets them on a pooled statement
+      statement.setFetchSize(Math.max(0, first.getFetchSize()));
+      statement.setQueryTimeout(Math.max(0, timeout));
+      // The limit applies to every result set, only push down the largest
+      statement.setMaxRows(getMaxRowsPushdown(batchLimited ? batchMaxRows : 0));
+
+      logger.debug("Executing batch of " + commands.size() + " queries [ " + sql + " ]");
+      SQLException pending = null;
+      boolean isResultSet = false;
+      phaseStart = System.nanoTime();
+      try {
+        isResultSet = statement.execute();
+      } catch (SQLException e) {
+        pending = e;
+      }
+      for (final DatabaseCommand command : commands) {
+        command.stats.addExecuteNanos(System.nanoTime() - phaseStart);
+      }
+
+      while (index < commands.size()) {
+        final DatabaseCommand command = commands.get(index);
 
-          if (this.deduplicate && rowHash != null) {
-            // If we parsed the row, track the hash for deduplication
-            uniqueHistoryList.put(rowHash, 1);
+        if (pending != null) {
+          if (ConnectionPool.isConnectionFailure(pending)) {
+            throw pending;
+          }
+          command.logQueryError(command.getQuery(), pending);
+          command.addSqlExceptionToResult(pending, results.get(index));
+          discardStatement = true;
+          pending = null;
+          index += 1;
+        } else if (isResultSet) {
+          try (ResultSet rs = statement.getResultSet()) {
+            if (command.readResultSet(
+                DbQueryType.METRIC,
+                rs,
+                results.get(index),
+                command.stats,
+                phaseStart,
+                command.maxRows
+            )) {
+              command.logTruncated(command.stats);
+            }
+            command.parser.afterQuery();
+            command.consecutiveFailures = 0;
+          } catch (SQLException e) {
+            if (ConnectionPool.isConnectionFailure(e)) {
+              throw e;
+            }
+            command.logQueryError(command.getQuery(), e);
+            command.addSqlExceptionToResult(e, results.get(index));
+            discardStatement = true;
+          } catch (Exception e) {
+            logger.error("Unknown Exception caught for [" + command.getName() + "]", e);
+            command.stats.addError();
+            command.stats.setFailed();
           }
-        } catch (SQLException e) {
-          logger.error("Failed to parse row, skipping", e);
-        } finally {
-          rowsTotal += 1;
+          index += 1;
+        } else if (statement.getUpdateCount() == -1) {
+          break; // No more results
         }
-      }
+        // Update counts, e.g. from SET statements, belong to no command
 
-      // Reparse the last row to update any offsets we're keeping
-      if (this.queryParameterValues.size() > 0) {
-        if (rs.last()) {
-          Map<String, Object> lastRow = parser.parseRawRow(rs, rsmd);
-
-          if (lastRow != null) {
-            updateQueryParameterValues(lastRow);
+        if (index < commands.size()) {
+          try {
+            isResultSet = statement.getMoreResults();
+          } catch (SQLException e) {
+            pending = e;
           }
         }
       }
-      parser.afterQuery(); // Perform any cleanup needed by the parser
+
+      while (index < commands.size()) {
+        final DatabaseCommand command = commands.get(index);
+        logger.error("Batch returned no result set for [" + command.getName() + "]");
+        command.addSqlExceptionToResult(
+            new SQLException("The batch returned no result set for this query"),
+            results.get(index)
+        );
+        index += 1;
+      }
     } catch (SQLException e) {
-      logger.error("SQL Error Query: [" + query + "]", e);
-      addSqlExceptionToResult(e, result);
+      first.logQueryError(sql.toString(), e);
+      discardConnection = ConnectionPool.isConnectionFailure(e);
+      discardStatement = true;
+      for (; index < commands.size(); index++) {
+        commands.get(index).addSqlExceptionToResult(e, results.get(index));
+        if (con == null || discardConnection) {
+          commands.get(index).stats.setConnectionFailed();
+        }
+      }
     } catch (Exception e) {
       logger.error("Unknown Exception caught", e);
+      discardStatement = true;
+      for (; index < locked; index++) {
+        commands.get(index).stats.setFailed();
+      }
     } finally {
+      Watchdog.cancel(watch);
+      for (int x = 0; x < locked; x++) {
+        commands.get(x).currentStatement = null;
+      }
+      if (con != null) {
+        first.closeStatement(pool, con, statement, discardStatement);
+        first.releaseConnection(pool, con, discardConnection);
+      }
+      for (int x = 0; x < locked; x++) {
+        commands.get(x).reportAggregated(results.get(x), commands.get(x).stats);
+        commands.get(x).unlockRun();
+      }
+    }
+
+    final List<List<List<Metric>>> metrics = new ArrayList<>(results.size());
+    for (final DatabaseResult result : results) {
+      metrics.add(result.getMetricResult());
+    }
+    return metrics;
+  }
+
+  /**
+   * Parse the rows of a result set into the result, skipping duplicates and
+   * tracking the query parameter values of the last row.
+   *
+   * @return True if reading stopped at rowLimit or maxResultBytes with rows
+   *         left in the result
+   */
+  private boolean readResultSet(
+      DbQueryType queryType,
+      ResultSet rs,
+      DatabaseResult result,
+      CommandStats stats,
+      long executeStart,
+      int rowLimit
+  ) throws Exception {
+    int rowsParsed = 0;
+    int rowDuplicates = 0;
+    int rowsTotal = 0;
+    int rowsAggregated = 0;
+    boolean more = false;
+    long rowHash = 0;
+    boolean rowHashed = false;
+
+    final ResultSetMetaData rsmd = rs.getMetaData();
+
+    this.setTableName(rsmd.getTableName(1)); // Capture the TableName
+    this.updateDefaultMetrics();
+    final List<Metric> attributes = this.getDefaultMetrics();
+
+    // Track the offsets we're keeping as the rows go by
+    final int[] watermarkColumns = this.queryParameterValues.size() > 0
+        ? getWatermarkColumns(rsmd)
+        : null;
+    final Object[] watermark = watermarkColumns != null
+        ? new Object[watermarkColumns.length]
+        : null;
+    final ColumnExtractor[] watermarkExtractors = watermarkColumns != null
+        ? new ColumnExtractor[watermarkColumns.length]
+        : null;
+    for (int x = 0; watermarkColumns != null && x < watermarkColumns.length; x++) {
+      if (watermarkColumns[x] > 0) {
+        watermarkExtractors[x] = Util.getColumnExtractor(rsmd, watermarkColumns[x]);
+      }
+    }
+    boolean watermarkSeen = false;
+
+    // Metric rows are either folded into groups or held back to be sampled
+    final long rowBytes = CommandStats.estimateRowBytes(rsmd);
+    final Aggregator aggregator = queryType == DbQueryType.METRIC
+        ? result.getAggregator()
+        : null;
+    final RowSampler<List<Metric>> sampler = queryType == DbQueryType.METRIC && aggregator == null
+        ? RowSampler.<List<Metric>>create(sampleMode, sampleSize)
+        : null;
+    final int sampleColumnIndex = sampler != null && sampleColumn != null
+        ? findColumn(rsmd, sampleColumn)
+        : 0;
+    final ColumnExtractor sampleExtractor = sampleColumnIndex > 0
+        ? Util.getColumnExtractor(rsmd, sampleColumnIndex)
+        : null;
+    if (sampleMode == SampleMode.TOPN && sampler != null && sampleExtractor == null) {
+      logger.error("[" + name + "] sampleColumn '" + sampleColumn + "' is not in the result");
+    }
+
+    // Counters are read as one snapshot, rates are per second between reads
+    final KeyedDeltas keyedDeltas = queryType == DbQueryType.METRIC ? getKeyedDeltas() : null;
+    final long readTime = System.nanoTime();
+
+    // Time spent waiting on the driver for rows versus parsing them
+    long fetchStart = System.nanoTime();
+
+    // With no work to do per row, metric rows are read in columnar batches
+    // and only turned into metrics when they are reported
+    final MetricKind metricKind = MetricKind.fromString(this.getMetricType());
+    final boolean batchable = queryType == DbQueryType.METRIC
+        && metricKind != MetricKind.UNKNOWN
+        && !this.deduplicate
+        && watermarkColumns == null
+        && sampler == null
+        && aggregator == null
+        && keyedDeltas == null
+        && !isOverLimit(0, rowLimit, rowBytes);
+    ColumnarBatch batch = batchable
+        ? parser.parseBatch(rs, rsmd, getBatchRows(0, rowLimit, rowBytes))
+        : null;
+    final boolean batched = batch != null;
+
+    while (batch != null) {
+      // The driver and the parser cannot be timed apart within a batch
+      final long batchEnd = System.nanoTime();
+      stats.addParseNanos(batchEnd - fetchStart);
+      if (batch.getRowsRead() > 0) {
+        stats.setFirstRowNanos(batchEnd - executeStart);
+      }
+      for (int x = 0; x < batch.getRowErrors(); x++) {
+        stats.addError();
+      }
+
+      if (batch.size() > 0) {
+        result.addMetricBatch(batch.metricRows(metricKind), attributes);
+      }
+      rowsParsed += batch.size();
+      rowsTotal += batch.getRowsRead();
+
+      if (!batch.isFull()) {
+        batch = null; // The result set ran out
+      } else if (isOverLimit(rowsTotal, rowLimit, rowBytes)) {
+        more = rs.next();
+        batch = null;
+      } else {
+        fetchStart = System.nanoTime();
+        batch = parser.parseBatch(rs, rsmd, getBatchRows(rowsTotal, rowLimit, rowBytes));
+      }
+    }
+    fetchStart = System.nanoTime();
+
+    processRows: while (!batched && rs.next()) {
+      if (isOverLimit(rowsTotal, rowLimit, rowBytes)) {
+        more = true;
+        break;
+      }
+
+      final long rowStart = System.nanoTime();
+      stats.addFetchNanos(rowStart - fetchStart);
+      stats.setFirstRowNanos(rowStart - executeStart);
+
       try {
-        if (statement != null) {
-          statement.close();
+        if (watermarkColumns != null) {
+          for (int x = 0; x < watermarkColumns.length; x++) {
+            watermark[x] = watermarkColumns[x] > 0
+                ? watermarkExtractors[x].extract(rs, watermarkColumns[x])
+                : null;
+          }
+          watermarkSeen = true;
         }
 
-        if (rs != null) {
-          rs.close();
+        if (this.deduplicate) {
+          try {
+            rowHash = calculateHash(rs, rsmd);
+            rowHashed = true;
+          } catch (SQLException e) {
+            logger.error("Unable to check row for duplicate", e);
+            rowHashed = false;
+          }
+
+          final int times = rowHashed ? uniqueHistory.hit(rowHash) : 0;
+
+          if (times > 0) {
+            if (logger.isDebugEnabled()) {
+              logger.debug(
+                  "Found duplicate row with hash: '"
+                  + Long.toHexString(rowHash)
+                  + "' again, total count: '"
+                  + times
+                  + "'"
+              );
+            }
+            rowDuplicates += 1;
+            continue; // Skip the row, it is a duplicate
+          }
+
         }
 
-        if (con != null) {
-          con.close();
+        switch (queryType) {
+          case METRIC:
+            // Read the key first, some drivers only let a column be read once
+            final double sampleKey = getSampleKey(rs, sampleColumnIndex, sampleExtractor);
+            final List<Metric> rowList;
+
+            if (aggregator != null || keyedDeltas != null) {
+              final Map<String, Object> row = parser.parseRawRow(rs, rsmd);
+
+              if (keyedDeltas != null && !keyedDeltas.apply(row, readTime)) {
+                break; // The row only sets the baseline of its counters
+              }
+              if (aggregator != null) {
+                aggregator.add(row);
+                rowsAggregated += 1;
+                break;
+              }
+              rowList = keyedDeltas.toMetricRow(row);
+            } else {
+              rowList = parser.parseMetricRow(this.getMetricType(), rs, rsmd);
+            }
+
+            if (rowList != null && !rowList.isEmpty()) {
+              // Include our defaults, shared with every other row
+              final MetricRow metricRow = new MetricRow(rowList, attributes);
+              if (sampler != null) {
+                sampler.offer(metricRow, sampleKey);
+              } else {
+                result.addMetricResult(metricRow);
+              }
+              rowsParsed += 1;
+            }
+            break;
+          case INVENTORY:
+            if (result.addInventoryResult(
+                getInventoryPath(),
+                parser.parseInventoryRow(rs, rsmd)
+            )) {
+              rowsParsed += 1;
+            }
+            break;
+          case RAW:
+            if (result.addRawResult(parser.parseRawRow(rs, rsmd))) {
+              rowsParsed += 1;
+            }
+            break;
+          default:
+            logger.error("Undefined queryType");
+            break processRows;
+        }
+
+        if (this.deduplicate && rowHashed) {
+          // If we parsed the row, track the hash for deduplication
+          uniqueHistory.add(rowHash);
+          stateVersion += 1;
+        }
+      } catch (SQLException e) {
+        logger.error("Failed to parse row, skipping", e);
+        stats.addError();
+      } finally {
+        rowsTotal += 1;
+        fetchStart = System.nanoTime();
+        stats.addParseNanos(fetchStart - rowStart);
+      }
+    }
+    stats.addFetchNanos(System.nanoTime() - fetchStart);
+
+    if (sampler != null) {
+      for (final List<Metric> row : sampler.getRows()) {
+        result.addMetricResult(row);
+      }
+      rowsParsed -= (int) sampler.getDropped();
+      stats.addSampledOut(sampler.getDropped());
+    }
+    if (keyedDeltas != null) {
+      keyedDeltas.evictIdle(System.nanoTime());
+      stats.addCounterResets(keyedDeltas.takeResets());
+    }
+    stats.addRows(rowsTotal);
+    stats.addRowsParsed(rowsParsed);
+    stats.addDuplicates(rowDuplicates);
+    stats.addEstimatedBytes((long) CommandStats.estimateRowBytes(rsmd) * rowsTotal);
+
+    // Update the offsets from the last row we read
+    if (watermarkSeen) {
+      final Map<String, Object> lastRow = new HashMap<>();
+
+      for (int x = 0; x < watermark.length; x++) {
+        if (watermark[x] != null) {
+          final String column = this.queryParameterColumns.get(x);
+          lastRow.put(column.toLowerCase(Locale.ENGLISH), watermark[x]);
         }
-      } catch (Exception e) {
-        logger.error("Error Closing Connections" + e);
       }
-      rs = null;
-      statement = null;
-      con = null;
+      updateQueryParameterValues(lastRow);
     }
 
     logger.info(
@@ -396,17 +1443,136 @@ public abstract class DatabaseCommand {
         + rowsTotal
         + " rows ("
         + rowDuplicates
-        + " duplicates)"
+        + " duplicates, "
+        + rowsAggregated
+        + " aggregated)"
     );
+    return more;
+  }
+
+  /**
+   * Check whether reading one more row would go past rowLimit or
+   * maxResultBytes.
+   */
+  private boolean isOverLimit(int rowsTotal, int rowLimit, long rowBytes) {
+    return (rowLimit > 0 && rowsTotal >= rowLimit)
+        || (maxResultBytes > 0 && (rowsTotal + 1) * rowBytes > maxResultBytes);
+  }
+
+  /**
+   * Get how many rows the next columnar batch may read: batchSize, or fewer
+   * if rowLimit or maxResultBytes would be reached first.
+   */
+  private int getBatchRows(int rowsTotal, int rowLimit, long rowBytes) {
+    long rows = getBatchSize();
+
+    if (rowLimit > 0) {
+      rows = Math.min(rows, rowLimit - rowsTotal);
+    }
+    if (maxResultBytes > 0 && rowBytes > 0) {
+      rows = Math.min(rows, maxResultBytes / rowBytes - rowsTotal);
+    }
+    return (int) Math.max(1, rows);
+  }
+
+  /**
+   * Get the limit to push down to the driver: one row more than the command
+   * reads, so the extra row shows that the result was truncated.
+   */
+  private static int getMaxRowsPushdown(int maxRows) {
+    return maxRows > 0 ? (int) Math.min(Integer.MAX_VALUE, maxRows + 1L) : 0;
+  }
+
+  private static int findColumn(ResultSetMetaData rsmd, String name) throws SQLException {
+    for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+      if (rsmd.getColumnName(i).trim().equalsIgnoreCase(name.trim())) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  private static double getSampleKey(
+      ResultSet rs,
+      int column,
+      ColumnExtractor extractor
+  ) throws SQLException {
+    if (extractor == null) {
+      return Double.NaN;
+    }
+    final Object value = extractor.extract(rs, column);
+    return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+  }
 
-    return result;
+  /**
+   * Find the result set column of each query parameter column.
+   *
+   * @return Column index per query parameter column, 0 if not in the result
+   */
+  private int[] getWatermarkColumns(ResultSetMetaData rsmd) throws SQLException {
+    final int[] columns = new int[this.queryParameterColumns.size()];
+
+    for (int x = 0; x < columns.length; x++) {
+      final String name = this.queryParameterColumns.get(x).trim();
+
+      for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+        if (rsmd.getColumnName(i).trim().equalsIgnoreCase(name)) {
+          columns[x] = i;
+          break;
+        }
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Stop a run that timed out before its statement could be cancelled.
+   */
+  private void checkTimedOut() throws SQLTimeoutException {
+    if (timedOut) {
+      throw new SQLTimeoutException("Cancelled before the query was executed");
+    }
+  }
+
+  /**
+   * Log a failed query. Only the first failure in a row gets a stack trace, a
+   * command that keeps failing logs one line per run.
+   */
+  private void logQueryError(String query, SQLException e) {
+    consecutiveFailures += 1;
+
+    if (consecutiveFailures == 1) {
+      logger.error("SQL Error Query: [" + query + "]", e);
+    } else {
+      logger.error(
+          "SQL Error Query: [" + query + "], failed " + consecutiveFailures
+          + " times in a row: " + e.getMessage()
+      );
+    }
   }
 
   private void addSqlExceptionToResult(SQLException e, DatabaseResult result) {
+    stats.addError();
+    stats.setFailed();
+
     List<Metric> metrics = new ArrayList<>();
     metrics.addAll(this.getDefaultMetrics());
     metrics.add(new AttributeMetric("errorCode", e.getErrorCode()));
-    metrics.add(new AttributeMetric("errorMessage", e.getMessage()));
+
+    if (timedOut || e instanceof SQLTimeoutException) {
+      // The driver reports a cancel in its own words, make it recognizable
+      stats.setTimedOut();
+      metrics.add(new AttributeMetric("errorType", "timeout"));
+      metrics.add(new AttributeMetric(
+          "errorMessage",
+          "Query timed out after "
+              + (System.currentTimeMillis() - stats.getStartTime())
+              + "ms: "
+              + e.getMessage()
+      ));
+    } else {
+      metrics.add(new AttributeMetric("errorMessage", e.getMessage()));
+    }
     result.addMetricResult(metrics);
   }
 
@@ -426,6 +1592,18 @@ public abstract class DatabaseCommand {
     this.port = port;
   }
 
+  public boolean isHostScoped() {
+    return hostScoped;
+  }
+
+  /**
+   * Set whether the same command also runs against other hosts, in which case
+   * its inventory is kept apart per host.
+   */
+  public void setHostScoped(boolean hostScoped) {
+    this.hostScoped = hostScoped;
+  }
+
   public String getUsername() {
     return username;
   }
@@ -657,6 +1835,286 @@ public abstract class DatabaseCommand {
     return this.useSsl;
   }
 
+  /**
+   * Get the fetch size, falling back to the provider default.
+   */
+  public int getFetchSize() {
+    if (fetchSize != null) {
+      return fetchSize;
+    }
+    return getDefaultFetchSize();
+  }
+
+  /**
+   * Set the number of rows the driver fetches per round trip, 0 for the driver
+   * default.
+   */
+  public void setFetchSize(int fetchSize) {
+    if (fetchSize >= 0) {
+      this.fetchSize = fetchSize;
+    }
+  }
+
+  public boolean isStream() {
+    return stream;
+  }
+
+  public void setStream(boolean stream) {
+    this.stream = stream;
+  }
+
+  public boolean isCombine() {
+    return combine;
+  }
+
+  /**
+   * Set whether the query may be sent in one round trip with the other
+   * combined queries against the same connection key.
+   */
+  public void setCombine(boolean combine) {
+    this.combine = combine;
+  }
+
+  /**
+   * Whether the query can actually be combined: it is marked to, the provider
+   * supports multi-statement batches, and nothing has to be bound to it.
+   */
+  public boolean canCombine() {
+    return combine
+        && !stream
+        && getStatementSeparator() != null
+        && queryParameterColumns.isEmpty()
+        && !parser.isStateful();
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Set the number of rows a streaming command hands over at a time.
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize > 0) {
+      this.batchSize = batchSize;
+    }
+  }
+
+  /**
+   * Get the collection interval in seconds, 0 to run on every harvest cycle.
+   */
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Set the collection interval in seconds.
+   */
+  public void setInterval(int interval) {
+    if (interval >= 0) {
+      this.interval = interval;
+    }
+  }
+
+  /**
+   * Get the seconds a run may take before it is cancelled, 0 for no limit.
+   */
+  public int getQueryTimeout() {
+    return queryTimeout;
+  }
+
+  /**
+   * Set the seconds a run may take, from executing the query to reading the
+   * last row, before it is cancelled. 0 for no limit.
+   */
+  public void setQueryTimeout(int queryTimeout) {
+    if (queryTimeout >= 0) {
+      this.queryTimeout = queryTimeout;
+    }
+  }
+
+  /**
+   * Get the seconds to wait when opening a connection, 0 for the driver
+   * default.
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Set the seconds to wait when opening a connection, 0 for the driver
+   * default.
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    if (connectTimeout >= 0) {
+      this.connectTimeout = connectTimeout;
+    }
+  }
+
+  /**
+   * Get the most rows a run reads, 0 for no limit.
+   */
+  public int getMaxRows() {
+    return maxRows;
+  }
+
+  /**
+   * Set the most rows a run reads. The limit is also passed to the driver, so
+   * the database stops sending rows. 0 for no limit.
+   */
+  public void setMaxRows(int maxRows) {
+    if (maxRows >= 0) {
+      this.maxRows = maxRows;
+    }
+  }
+
+  /**
+   * Get the most bytes a run reads, estimated from the column types, 0 for no
+   * limit.
+   */
+  public long getMaxResultBytes() {
+    return maxResultBytes;
+  }
+
+  /**
+   * Set the most bytes a run reads, estimated from the column types. 0 for no
+   * limit.
+   */
+  public void setMaxResultBytes(long maxResultBytes) {
+    if (maxResultBytes >= 0) {
+      this.maxResultBytes = maxResultBytes;
+    }
+  }
+
+  public SampleMode getSampleMode() {
+    return sampleMode;
+  }
+
+  /**
+   * Set how the rows of a metric query are sampled, null for no sampling.
+   */
+  public void setSampleMode(SampleMode sampleMode) {
+    this.sampleMode = sampleMode != null ? sampleMode : SampleMode.NONE;
+  }
+
+  public String getSampleColumn() {
+    return sampleColumn;
+  }
+
+  /**
+   * Set the numeric column whose largest values top-N sampling keeps.
+   */
+  public void setSampleColumn(String sampleColumn) {
+    this.sampleColumn = sampleColumn;
+  }
+
+  public int getSampleSize() {
+    return sampleSize;
+  }
+
+  /**
+   * Set the most rows a sampled run reports.
+   */
+  public void setSampleSize(int sampleSize) {
+    if (sampleSize > 0) {
+      this.sampleSize = sampleSize;
+    }
+  }
+
+  public AggregateSpec getAggregate() {
+    return aggregate;
+  }
+
+  /**
+   * Set how the rows of a metric query are folded into one row per group,
+   * null to report every row.
+   */
+  public void setAggregate(AggregateSpec aggregate) {
+    this.aggregate = aggregate;
+  }
+
+  /**
+   * Whether the rows past the watermark are drained in chunks.
+   */
+  public boolean isChunked() {
+    return chunkSize > 0 && !queryParameterColumns.isEmpty();
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Set the most rows a tailing query reads per chunk, 0 to read everything
+   * past the watermark in one query.
+   */
+  public void setChunkSize(int chunkSize) {
+    if (chunkSize >= 0) {
+      this.chunkSize = chunkSize;
+    }
+  }
+
+  public int getMaxChunks() {
+    return maxChunks;
+  }
+
+  /**
+   * Set the most chunks a run reads.
+   */
+  public void setMaxChunks(int maxChunks) {
+    if (maxChunks > 0) {
+      this.maxChunks = maxChunks;
+    }
+  }
+
+  public int getChunkBudget() {
+    return chunkBudget;
+  }
+
+  /**
+   * Set the seconds after which a run starts no more chunks, 0 for no limit.
+   */
+  public void setChunkBudget(int chunkBudget) {
+    if (chunkBudget >= 0) {
+      this.chunkBudget = chunkBudget;
+    }
+  }
+
+  public int getCatchUpThreshold() {
+    return catchUpThreshold;
+  }
+
+  /**
+   * Set the number of rows read in a run after which the rest of the backlog
+   * is skipped, 0 to always drain it.
+   */
+  public void setCatchUpThreshold(int catchUpThreshold) {
+    if (catchUpThreshold >= 0) {
+      this.catchUpThreshold = catchUpThreshold;
+    }
+  }
+
+  public OverlapPolicy getOverlapPolicy() {
+    return overlapPolicy;
+  }
+
+  public void setOverlapPolicy(OverlapPolicy overlapPolicy) {
+    this.overlapPolicy = overlapPolicy;
+  }
+
+  public PoolSettings getPoolSettings() {
+    return poolSettings;
+  }
+
+  /**
+   * Set the connection pool settings, ignored once the pool has been created.
+   */
+  public void setPoolSettings(PoolSettings poolSettings) {
+    if (poolSettings != null) {
+      this.poolSettings = poolSettings;
+    }
+  }
+
   public String getCategory() {
     return category;
   }
@@ -679,12 +2137,29 @@ public abstract class DatabaseCommand {
 
   public void setMetricType(String metricType) {
     this.metricType = metricType;
+    this.keyedDeltas = null;
   }
 
+  /**
+   * Get the attributes added to every row of the command. The list is shared
+   * by the rows and must not be changed.
+   */
   public List<Metric> getDefaultMetrics() {
     return this.defaultMetrics;
   }
 
+  /**
+   * Get the identifier the agent reports this command's rows under, null
+   * until the agent sets it.
+   */
+  public String getInstanceId() {
+    return instanceId;
+  }
+
+  public void setInstanceId(String instanceId) {
+    this.instanceId = instanceId;
+  }
+
   public void setDeduplicate(boolean deduplicate) {
     this.deduplicate = deduplicate;
   }
@@ -695,23 +2170,113 @@ public abstract class DatabaseCommand {
 
   /**
    * Set the row buffer size.
+   *
+   * @deprecated Rows are hashed column by column, there is no row buffer.
    */
+  @Deprecated
   public void setRowBufferSize(int size) {
     if (size > 0) {
       this.rowBufferSize = size;
     }
   }
 
+  @Deprecated
   public int getRowBufferSize() {
     return rowBufferSize;
   }
 
+  public List<String> getDedupKeyColumns() {
+    return dedupKeyColumns;
+  }
+
+  /**
+   * Set the columns that identify a row for deduplication. An empty list
+   * hashes the whole row.
+   */
+  public void setDedupKeyColumns(List<String> columns) {
+    this.dedupKeyColumns.clear();
+    if (columns != null) {
+      this.dedupKeyColumns.addAll(columns);
+    }
+    this.rowHashPlanMetaData = null;
+  }
+
+  public List<String> getIdentityColumns() {
+    return identityColumns;
+  }
+
+  /**
+   * Set the columns that identify the entity of a row, so a delta or rate
+   * metricType compares each counter with the same entity's previous value.
+   * An empty list leaves deltas and rates to the metric name alone.
+   */
+  public void setIdentityColumns(List<String> columns) {
+    this.identityColumns.clear();
+    if (columns != null) {
+      this.identityColumns.addAll(columns);
+    }
+    this.keyedDeltas = null;
+  }
+
+  public List<String> getCounterColumns() {
+    return counterColumns;
+  }
+
+  /**
+   * Set the cumulative columns turned into deltas or rates. An empty list
+   * takes every numeric column that is not an identity column.
+   */
+  public void setCounterColumns(List<String> columns) {
+    this.counterColumns.clear();
+    if (columns != null) {
+      this.counterColumns.addAll(columns);
+    }
+    this.keyedDeltas = null;
+  }
+
+  /**
+   * Get the seconds after which an entity that was not seen is forgotten. By
+   * default 10 minutes, or three intervals of a query that runs less often.
+   */
+  public int getKeyIdleTimeout() {
+    return keyIdleTimeout > 0 ? keyIdleTimeout : Math.max(defaultKeyIdleTimeout, interval * 3);
+  }
+
+  public void setKeyIdleTimeout(int keyIdleTimeout) {
+    if (keyIdleTimeout >= 0) {
+      this.keyIdleTimeout = keyIdleTimeout;
+      this.keyedDeltas = null;
+    }
+  }
+
+  /**
+   * Whether deltas and rates are computed per entity, which needs identity
+   * columns and a delta or rate metricType.
+   */
+  public boolean isKeyedDelta() {
+    final MetricKind kind = MetricKind.fromString(metricType);
+    return !identityColumns.isEmpty() && (kind == MetricKind.DELTA || kind == MetricKind.RATE);
+  }
+
+  private KeyedDeltas getKeyedDeltas() {
+    if (keyedDeltas == null && isKeyedDelta()) {
+      keyedDeltas = new KeyedDeltas(
+          identityColumns,
+          counterColumns,
+          MetricKind.fromString(metricType),
+          getKeyIdleTimeout()
+      );
+    }
+    return keyedDeltas;
+  }
+
   /**
    * Set the unique history size.
    */
   public void setUniqueHistorySize(int uniqueHistorySize) {
-    if (uniqueHistorySize > 0) {
+    if (uniqueHistorySize > 0 && uniqueHistorySize != this.uniqueHistorySize) {
       this.uniqueHistorySize = uniqueHistorySize;
+      this.uniqueHistory.resize(uniqueHistorySize);
     }
   }
 
@@ -720,23 +2285,45 @@ public abstract class DatabaseCommand {
   }
 
   /**
-   * Update the default metrics.
+   * Update the default metrics. The set is only rebuilt when one of its
+   * values changed, so every row of every run shares the same immutable set.
    */
   public void updateDefaultMetrics() {
-    defaultMetrics.clear();
+    final String[] values = {
+        this.getEventType(),
+        this.getDatabase(),
+        this.getName(),
+        this.getQuery(),
+        this.getHostname(),
+        this.tableName
+    };
+    if (Arrays.equals(values, defaultMetricValues)) {
+      return;
+    }
 
-    defaultMetrics.add(new AttributeMetric("event_type", this.getEventType()));
-    defaultMetrics.add(new AttributeMetric("database", this.getDatabase()));
-    defaultMetrics.add(new AttributeMetric("queryName", this.getName()));
-    defaultMetrics.add(new AttributeMetric("query", this.getQuery()));
-    defaultMetrics.add(new AttributeMetric("databaseHost", this.getHostname()));
+    final List<Metric> metrics = new ArrayList<>(values.length);
+    metrics.add(new AttributeMetric("event_type", values[0]));
+    metrics.add(new AttributeMetric("database", values[1]));
+    metrics.add(new AttributeMetric("queryName", values[2]));
+    metrics.add(new AttributeMetric("query", values[3]));
+    metrics.add(new AttributeMetric("databaseHost", values[4]));
+    if (values[5] != null) {
+      metrics.add(new AttributeMetric("tableName", values[5]));
+    }
+    defaultMetrics = Collections.unmodifiableList(metrics);
+    defaultMetricValues = values;
   }
 
   /**
    * Get the inventory path.
    */
   public String getInventoryPath() {
-    String path = this.getPrefix() + "/" + this.getDatabase() + "/" + this.getTableName();
+    String path = this.getDatabase() + "/" + this.getTableName();
+
+    if (hostScoped) {
+      path = this.getHostname() + "/" + path;
+    }
+    path = this.getPrefix() + "/" + path;
 
     return path.toLowerCase(Locale.ENGLISH);
   }
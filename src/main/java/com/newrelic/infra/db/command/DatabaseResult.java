@@ -1,10 +1,14 @@
 package com.newrelic.infra.db.command;
 
+import com.newrelic.infra.db.aggregate.Aggregator;
 import com.newrelic.infra.publish.api.metrics.Metric;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 /**
  * The database result class.
@@ -13,6 +17,13 @@ public class DatabaseResult {
   private List<Map<String, Object>> rawResult;
   private List<List<Metric>> metricResult;
   private Map<String, Map<String, String>> inventoryResult;
+  private MetricSink metricSink;
+  private int batchSize;
+  private Aggregator aggregator;
+
+  // Rows added before metricResult, in order: lists of single rows and views
+  // of columnar batches
+  private List<List<List<Metric>>> metricParts;
 
   /**
    * Create a new database result.
@@ -23,6 +34,20 @@ public class DatabaseResult {
     this.inventoryResult = new HashMap<String, Map<String, String>>();
   }
 
+  /**
+   * Create a streaming database result. Metric rows are handed to the sink
+   * every batchSize rows instead of being kept until the query completes.
+   *
+   * @param metricSink Receives each full batch of metric rows
+   * @param batchSize  Number of rows to buffer before calling the sink
+   */
+  public DatabaseResult(MetricSink metricSink, int batchSize) {
+    this();
+    this.metricSink = metricSink;
+    this.batchSize = Math.max(1, batchSize);
+    this.metricResult = new ArrayList<List<Metric>>(this.batchSize);
+  }
+
   /**
    * Add a native Java result to the DatabaseResult.
    *
@@ -55,6 +80,10 @@ public class DatabaseResult {
   public boolean addMetricResult(List<Metric> metric) {
     if ((metric != null) && !metric.isEmpty()) {
       this.metricResult.add(metric);
+
+      if (this.metricSink != null && this.metricResult.size() >= this.batchSize) {
+        flushMetricResult();
+      }
       return true;
     }
 
@@ -62,12 +91,85 @@ public class DatabaseResult {
   }
 
   /**
-   * Return the entire set of Metrics.
+   * Add a batch of metric rows that is only read when it is reported, such
+   * as the view of a {@link com.newrelic.infra.db.parser.ColumnarBatch}. The
+   * rows are kept as they are, not copied, and each is returned with the
+   * shared metrics after its own.
+   *
+   * @param rows   Metric rows, which must not change once added
+   * @param shared Metrics added to every row, kept by reference
+   */
+  public void addMetricBatch(List<List<Metric>> rows, List<Metric> shared) {
+    final List<List<Metric>> batch = new SharedRows(rows, shared);
+
+    if (this.metricSink != null) {
+      flushMetricResult();
+      this.metricSink.accept(batch);
+      return;
+    }
+
+    if (this.metricParts == null) {
+      this.metricParts = new ArrayList<>();
+    }
+    if (!this.metricResult.isEmpty()) {
+      this.metricParts.add(this.metricResult);
+      this.metricResult = new ArrayList<List<Metric>>();
+    }
+    this.metricParts.add(batch);
+  }
+
+  /**
+   * Hand any buffered metric rows to the sink of a streaming result. Does
+   * nothing for a result without a sink.
+   */
+  public void flushMetricResult() {
+    if (this.metricSink != null && !this.metricResult.isEmpty()) {
+      final List<List<Metric>> batch = this.metricResult;
+      this.metricResult = new ArrayList<List<Metric>>(this.batchSize);
+      this.metricSink.accept(batch);
+    }
+  }
+
+  /**
+   * Return the entire set of Metrics. For a streaming result, only the rows
+   * not yet handed to the sink.
    *
    * @return Metric set.
    */
   public List<List<Metric>> getMetricResult() {
-    return this.metricResult;
+    if (this.metricParts == null) {
+      return this.metricResult;
+    }
+    return new ConcatenatedRows(this.metricParts, this.metricResult);
+  }
+
+  /**
+   * Get the aggregator metric rows are folded into instead of being added,
+   * null if the rows are not aggregated.
+   */
+  public Aggregator getAggregator() {
+    return this.aggregator;
+  }
+
+  public void setAggregator(Aggregator aggregator) {
+    this.aggregator = aggregator;
+  }
+
+  /**
+   * Add the folded rows of the aggregator, one metric row per group.
+   *
+   * @param defaultMetrics Metrics added to every group row
+   * @return Number of group rows added
+   */
+  public int addAggregatedResult(List<Metric> defaultMetrics) {
+    int added = 0;
+
+    for (final List<Metric> row : this.aggregator.getRows()) {
+      if (addMetricResult(new MetricRow(row, defaultMetrics))) {
+        added += 1;
+      }
+    }
+    return added;
   }
 
   /**
@@ -98,4 +200,73 @@ public class DatabaseResult {
   public Map<String, Map<String, String>> getInventoryResult() {
     return this.inventoryResult;
   }
+
+  /**
+   * Rows of a batch, each followed by the metrics shared by all of them.
+   */
+  private static final class SharedRows extends AbstractList<List<Metric>>
+      implements RandomAccess {
+    private final List<List<Metric>> rows;
+    private final List<Metric> shared;
+
+    private SharedRows(List<List<Metric>> rows, List<Metric> shared) {
+      this.rows = rows;
+      this.shared = shared;
+    }
+
+    @Override
+    public List<Metric> get(int index) {
+      return new MetricRow(rows.get(index), shared);
+    }
+
+    @Override
+    public int size() {
+      return rows.size();
+    }
+  }
+
+  /**
+   * The rows of several lists as one list, without copying them.
+   */
+  private static final class ConcatenatedRows extends AbstractList<List<Metric>>
+      implements RandomAccess {
+    private final List<List<List<Metric>>> parts;
+    private final int[] starts;
+    private final int size;
+
+    private ConcatenatedRows(List<List<List<Metric>>> parts, List<List<Metric>> last) {
+      this.parts = new ArrayList<>(parts);
+      this.parts.add(last);
+      this.starts = new int[this.parts.size()];
+
+      int total = 0;
+      for (int part = 0; part < starts.length; part++) {
+        starts[part] = total;
+        total += this.parts.get(part).size();
+      }
+      this.size = total;
+    }
+
+    @Override
+    public List<Metric> get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+      }
+
+      int part = Arrays.binarySearch(starts, index);
+      if (part < 0) {
+        part = -part - 2;
+      }
+      // Skip empty parts that start at the same index
+      while (index - starts[part] >= parts.get(part).size()) {
+        part += 1;
+      }
+      return parts.get(part).get(index - starts[part]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
 }
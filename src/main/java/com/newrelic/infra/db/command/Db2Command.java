@@ -3,6 +3,7 @@ package com.newrelic.infra.db.command;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 /**
  * The database command class for DB/2.
@@ -21,12 +22,6 @@ public class Db2Command extends DatabaseCommand {
 
   @Override
   public Connection getConnection() throws SQLException {
-    try {
-      Class.forName(getDbDriverName());
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
-    }
-
     String url = "jdbc:db2://" + getHostname();
 
     if (getPort() != 0) {
@@ -50,7 +45,12 @@ public class Db2Command extends DatabaseCommand {
       url += ";";
     }
 
+    Properties props = getCredentials();
+    if (getConnectTimeout() > 0) {
+      props.setProperty("loginTimeout", String.valueOf(getConnectTimeout()));
+    }
+
     // Set URL for data sources
-    return DriverManager.getConnection(url, getUsername(), getPassword());
+    return DriverManager.getConnection(url, props);
   }
 }
@@ -0,0 +1,43 @@
+package com.newrelic.infra.db.command;
+
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The metrics of one reported row: the row's own values followed by a set of
+ * attributes shared with every other row of the command, such as the query
+ * name and database. The shared set is referenced, not copied, so adding the
+ * attributes to a row costs one small object whatever their number.
+ * <p>
+ * Read only. The shared set must not change once rows refer to it.
+ * </p>
+ */
+public final class MetricRow extends AbstractList<Metric> implements RandomAccess {
+  private final List<Metric> values;
+  private final List<Metric> shared;
+  private final int valueCount;
+
+  /**
+   * Create a row.
+   *
+   * @param values The row's own metrics
+   * @param shared Attributes shared by many rows, kept by reference
+   */
+  public MetricRow(List<Metric> values, List<Metric> shared) {
+    this.values = values;
+    this.shared = shared;
+    this.valueCount = values.size();
+  }
+
+  @Override
+  public Metric get(int index) {
+    return index < valueCount ? values.get(index) : shared.get(index - valueCount);
+  }
+
+  @Override
+  public int size() {
+    return valueCount + shared.size();
+  }
+}
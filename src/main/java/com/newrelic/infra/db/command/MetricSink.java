@@ -0,0 +1,19 @@
+package com.newrelic.infra.db.command;
+
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.util.List;
+
+/**
+ * Receives metric rows in batches while a streaming command is still reading
+ * its result set. The cursor does not advance until the sink returns, so a
+ * sink that blocks applies backpressure to the query.
+ */
+@FunctionalInterface
+public interface MetricSink {
+  /**
+   * Accept a batch of rows. The sink takes ownership of the list.
+   *
+   * @param rows Parsed rows, one list of metrics per row
+   */
+  void accept(List<List<Metric>> rows);
+}
@@ -17,6 +17,11 @@ public class MsSqlCommand extends DatabaseCommand {
     return "MSSQL";
   }
 
+  @Override
+  protected String getStatementSeparator() {
+    return ";\n";
+  }
+
   @Override
   public String getDbDriverName() {
     return "com.microsoft.sqlserver.jdbc.SQLServerDriver";
@@ -25,12 +30,6 @@ public class MsSqlCommand extends DatabaseCommand {
   @Override
   public Connection getConnection() throws SQLException {
 
-    try {
-      Class.forName(getDbDriverName());
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
-    }
-
     String url = "jdbc:sqlserver://" + getHostname();
 
     if (getPort() != 0) {
@@ -40,6 +39,10 @@ public class MsSqlCommand extends DatabaseCommand {
 
     url += ";user=" + getUsername() + ";password=" + getPassword();
 
+    if (getConnectTimeout() > 0) {
+      url += ";loginTimeout=" + getConnectTimeout();
+    }
+
     if (isSslConnection()) {
       String location = getSslTrustStoreLocation();
       String password = getSslTrustStorePassword();
@@ -23,12 +23,6 @@ public class MySqlCommand extends DatabaseCommand {
   @Override
   public Connection getConnection() throws SQLException {
 
-    try {
-      Class.forName(getDbDriverName());
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
-    }
-
     String url = "jdbc:mysql://" + getHostname();
 
     if (getPort() != 0) {
@@ -42,6 +36,10 @@ public class MySqlCommand extends DatabaseCommand {
     Properties props = new Properties();
     props.setProperty("user", getUsername());
     props.setProperty("password", getPassword());
+    if (getConnectTimeout() > 0) {
+      // Connector/J ignores the JDBC login timeout and takes milliseconds
+      props.setProperty("connectTimeout", String.valueOf(getConnectTimeout() * 1000L));
+    }
 
     return DriverManager.getConnection(url, props);
   }
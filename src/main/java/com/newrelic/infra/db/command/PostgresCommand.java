@@ -21,13 +21,18 @@ public class PostgresCommand extends DatabaseCommand {
   }
 
   @Override
-  public Connection getConnection() throws SQLException {
+  protected int getDefaultFetchSize() {
+    // Without a fetch size the driver reads the whole result into memory
+    return 1000;
+  }
 
-    try {
-      Class.forName(getDbDriverName());
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
-    }
+  @Override
+  protected boolean isFetchSizeTransactional() {
+    return true;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
 
     String url = "jdbc:postgresql://" + getHostname();
 
@@ -40,6 +45,10 @@ public class PostgresCommand extends DatabaseCommand {
     Properties props = new Properties();
     props.setProperty("user", getUsername());
     props.setProperty("password", getPassword());
+    if (getConnectTimeout() > 0) {
+      props.setProperty("connectTimeout", String.valueOf(getConnectTimeout()));
+      props.setProperty("loginTimeout", String.valueOf(getConnectTimeout()));
+    }
     // props.setProperty("ssl","false");
 
     return DriverManager.getConnection(url, props);
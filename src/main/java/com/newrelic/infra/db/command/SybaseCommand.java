@@ -15,6 +15,11 @@ public class SybaseCommand extends DatabaseCommand {
     return "SYBASE";
   }
 
+  @Override
+  protected String getStatementSeparator() {
+    return "\n";
+  }
+
   @Override
   public String getDbDriverName() {
     return "com.sybase.jdbc42.jdbc.SybDriver";
@@ -22,18 +27,17 @@ public class SybaseCommand extends DatabaseCommand {
 
   @Override
   public Connection getConnection() throws SQLException {
+    String url = "jdbc:sybase:Tds:" + getHostname() + ":" + getPort() + "/" + getDatabase();
+    Properties props = getCredentials();
+    if (getConnectTimeout() > 0) {
+      props.put("LOGIN_TIMEOUT", String.valueOf(getConnectTimeout()));
+    }
+
     if (useSsl()) { // encrypt password in transit with bouncy castle
-      String url = "jdbc:sybase:Tds:" + getHostname() + ":" + getPort() + "/" + getDatabase();
       logger.info("Bouncy Castle requested. Connection string = " + url);
-      Properties props = new Properties();
       props.put("ENCRYPT_PASSWORD", "true");
       props.put("JCE_PROVIDER_CLASS", "org.bouncycastle.jce.provider.BouncyCastleProvider");
-      props.put("user", getUsername());
-      props.put("password", getPassword());
-      return DriverManager.getConnection(url, props);
-    } else { // no encryption
-      String url = "jdbc:sybase:Tds:" + getHostname() + ":" + getPort() + "/" + getDatabase();
-      return DriverManager.getConnection(url, getUsername(), getPassword());
     }
+    return DriverManager.getConnection(url, props);
   }
 }
\ No newline at end of file
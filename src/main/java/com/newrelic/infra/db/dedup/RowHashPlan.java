@@ -0,0 +1,160 @@
+package com.newrelic.infra.db.dedup;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Which columns of a result set identify a row for deduplication, and how to
+ * feed each of them to a {@link RowHasher}. Compiled once per result set.
+ */
+public final class RowHashPlan {
+  private static final Logger logger = LoggerFactory.getLogger(RowHashPlan.class);
+
+  private static final int LONG = 0;
+  private static final int DOUBLE = 1;
+  private static final int BOOLEAN = 2;
+  private static final int BYTES = 3;
+  private static final int STRING = 4;
+
+  private final int[] columns;
+  private final int[] kinds;
+
+  private RowHashPlan(int[] columns, int[] kinds) {
+    this.columns = columns;
+    this.kinds = kinds;
+  }
+
+  /**
+   * Compile a plan for a result set.
+   *
+   * @param rsmd       Metadata of the result set
+   * @param keyColumns Names of the columns that identify a row, or an empty
+   *                   list to hash every column
+   * @return The plan
+   * @throws SQLException If the metadata cannot be read
+   */
+  public static RowHashPlan compile(
+      ResultSetMetaData rsmd,
+      List<String> keyColumns
+  ) throws SQLException {
+    final List<Integer> selected = new ArrayList<>();
+
+    for (final String name : keyColumns) {
+      int found = 0;
+
+      for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+        if (rsmd.getColumnName(i).trim().equalsIgnoreCase(name.trim())) {
+          found = i;
+          break;
+        }
+      }
+
+      if (found > 0) {
+        selected.add(found);
+      } else {
+        logger.error("Could not find dedup key column [" + name + "] in result set");
+      }
+    }
+
+    if (selected.isEmpty()) {
+      if (!keyColumns.isEmpty()) {
+        logger.error("No dedup key columns found, hashing the whole row");
+      }
+      for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+        selected.add(i);
+      }
+    }
+
+    final int[] columns = new int[selected.size()];
+    final int[] kinds = new int[selected.size()];
+
+    for (int x = 0; x < columns.length; x++) {
+      columns[x] = selected.get(x);
+      kinds[x] = kindOf(rsmd.getColumnType(columns[x]));
+    }
+    return new RowHashPlan(columns, kinds);
+  }
+
+  /**
+   * Hash the current row of a result set.
+   *
+   * @param rs     Result set positioned on the row
+   * @param hasher Hasher to use, it is reset first
+   * @return The 64 bit row hash
+   */
+  public long hash(ResultSet rs, RowHasher hasher) throws SQLException {
+    hasher.reset();
+
+    for (int x = 0; x < columns.length; x++) {
+      final int column = columns[x];
+
+      switch (kinds[x]) {
+        case LONG: {
+          long value = rs.getLong(column);
+          if (rs.wasNull()) {
+            hasher.putNull();
+          } else {
+            hasher.putLong(value);
+          }
+          break;
+        }
+        case DOUBLE: {
+          double value = rs.getDouble(column);
+          if (rs.wasNull()) {
+            hasher.putNull();
+          } else {
+            hasher.putDouble(value);
+          }
+          break;
+        }
+        case BOOLEAN: {
+          boolean value = rs.getBoolean(column);
+          if (rs.wasNull()) {
+            hasher.putNull();
+          } else {
+            hasher.putBoolean(value);
+          }
+          break;
+        }
+        case BYTES:
+          hasher.putBytes(rs.getBytes(column));
+          break;
+        default:
+          hasher.putString(rs.getString(column));
+          break;
+      }
+    }
+    return hasher.hash();
+  }
+
+  private static int kindOf(int sqlType) {
+    switch (sqlType) {
+      case Types.BIGINT:
+      case Types.INTEGER:
+      case Types.SMALLINT:
+      case Types.TINYINT:
+        return LONG;
+      case Types.DOUBLE:
+      case Types.FLOAT:
+      case Types.REAL:
+        return DOUBLE;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return BOOLEAN;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+      case Types.BLOB:
+        return BYTES;
+      default:
+        // Includes DECIMAL and NUMERIC, whose text form is exact
+        return STRING;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.newrelic.infra.db.dedup;
+
+/**
+ * A streaming, non-cryptographic 64 bit hasher for deduplicating rows.
+ * <p>
+ * Values are fed in one at a time, so a row of any width is hashed without
+ * copying it into a buffer first. The mixing follows xxHash64: every 64 bit
+ * word goes through a multiply-rotate round and the result is avalanched at
+ * the end. Each value is also tagged with its length or kind, so that the
+ * columns ("ab", "c") and ("a", "bc") hash differently.
+ * </p>
+ * <p>
+ * Instances are not thread safe; use one per thread and call {@link #reset()}
+ * before each row.
+ * </p>
+ */
+public final class RowHasher {
+  private static final long PRIME1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME3 = 0x165667B19E3779F9L;
+  private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+  private static final long NULL_TAG = 0x6E756C6C6E756C6CL;
+  private static final long TRUE_TAG = 0x7472756574727565L;
+  private static final long FALSE_TAG = 0x66616C7365666C73L;
+
+  private long state;
+  private long length;
+
+  public RowHasher() {
+    reset();
+  }
+
+  /**
+   * Start a new hash.
+   */
+  public RowHasher reset() {
+    this.state = PRIME5;
+    this.length = 0;
+    return this;
+  }
+
+  /**
+   * Add a 64 bit value.
+   */
+  public RowHasher putLong(long value) {
+    state ^= round(value);
+    state = Long.rotateLeft(state, 27) * PRIME1 + PRIME4;
+    length += 8;
+    return this;
+  }
+
+  public RowHasher putDouble(double value) {
+    return putLong(Double.doubleToLongBits(value));
+  }
+
+  public RowHasher putBoolean(boolean value) {
+    return putLong(value ? TRUE_TAG : FALSE_TAG);
+  }
+
+  /**
+   * Add a SQL NULL, which hashes differently from any value.
+   */
+  public RowHasher putNull() {
+    return putLong(NULL_TAG);
+  }
+
+  /**
+   * Add the characters of a string, four at a time.
+   */
+  public RowHasher putString(CharSequence value) {
+    if (value == null) {
+      return putNull();
+    }
+
+    final int len = value.length();
+    int x = 0;
+
+    for (; x + 4 <= len; x += 4) {
+      putLong(
+          (long) value.charAt(x)
+          | (long) value.charAt(x + 1) << 16
+          | (long) value.charAt(x + 2) << 32
+          | (long) value.charAt(x + 3) << 48
+      );
+    }
+
+    long tail = 0;
+    for (int shift = 0; x < len; x++, shift += 16) {
+      tail |= (long) value.charAt(x) << shift;
+    }
+    putLong(tail);
+    return putLong(len);
+  }
+
+  /**
+   * Add a byte array, eight bytes at a time.
+   */
+  public RowHasher putBytes(byte[] value) {
+    if (value == null) {
+      return putNull();
+    }
+
+    int x = 0;
+
+    for (; x + 8 <= value.length; x += 8) {
+      long word = 0;
+      for (int b = 7; b >= 0; b--) {
+        word = word << 8 | (value[x + b] & 0xFFL);
+      }
+      putLong(word);
+    }
+
+    long tail = 0;
+    for (int shift = 0; x < value.length; x++, shift += 8) {
+      tail |= (value[x] & 0xFFL) << shift;
+    }
+    putLong(tail);
+    return putLong(value.length);
+  }
+
+  /**
+   * Finish the hash. The hasher can keep being fed afterwards.
+   */
+  public long hash() {
+    long h = state ^ length;
+
+    h ^= h >>> 33;
+    h *= PRIME2;
+    h ^= h >>> 29;
+    h *= PRIME3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private static long round(long value) {
+    return Long.rotateLeft(value * PRIME2, 31) * PRIME1;
+  }
+}
@@ -0,0 +1,218 @@
+package com.newrelic.infra.db.delta;
+
+import java.util.Arrays;
+
+/**
+ * The previous value of every counter, keyed by a 64 bit hash of the entity
+ * and column it belongs to.
+ * <p>
+ * Entries live in parallel primitive arrays and are found through an open
+ * addressing (linear probing) index, like {@link
+ * com.newrelic.infra.db.dedup.DedupHistory}, so a lookup does not allocate.
+ * The table grows as keys are added and shrinks again as idle keys are
+ * evicted.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+public final class DeltaTable {
+  private static final int EMPTY = -1;
+  private static final int initialCapacity = 64;
+
+  private long[] keys;
+  private double[] values;
+  private long[] lastSeen;
+  private int size = 0;
+
+  // Index from hash slot to entry, EMPTY if the slot is free
+  private int[] table;
+  private int mask;
+
+  /**
+   * Create an empty table.
+   */
+  public DeltaTable() {
+    allocate(initialCapacity);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Find the entry of a key.
+   *
+   * @param key Hash of the entity and column
+   * @return The entry, or -1 if the key is not in the table
+   */
+  public int find(long key) {
+    final int slot = findSlot(key);
+    return slot >= 0 ? table[slot] : -1;
+  }
+
+  /**
+   * Add a key seen for the first time.
+   *
+   * @param key   Hash of the entity and column
+   * @param value The counter value
+   * @param now   When the value was read, in nanoseconds
+   * @return The new entry
+   */
+  public int add(long key, double value, long now) {
+    if (size == keys.length) {
+      final long[] oldKeys = keys;
+      final double[] oldValues = values;
+      final long[] oldLastSeen = lastSeen;
+
+      allocate(keys.length * 2);
+      for (int entry = 0; entry < oldKeys.length; entry++) {
+        insert(oldKeys[entry], oldValues[entry], oldLastSeen[entry]);
+      }
+    }
+    return insert(key, value, now);
+  }
+
+  public double getValue(int entry) {
+    return values[entry];
+  }
+
+  /**
+   * Get when an entry was last updated, in nanoseconds.
+   */
+  public long getLastSeen(int entry) {
+    return lastSeen[entry];
+  }
+
+  /**
+   * Replace the value of an entry.
+   */
+  public void update(int entry, double value, long now) {
+    values[entry] = value;
+    lastSeen[entry] = now;
+  }
+
+  /**
+   * Remove every entry not updated since cutoff.
+   *
+   * @param cutoff Time in nanoseconds
+   * @return The number of entries removed
+   */
+  public int evictIdle(long cutoff) {
+    int evicted = 0;
+    int entry = 0;
+
+    while (entry < size) {
+      if (lastSeen[entry] - cutoff < 0) {
+        remove(entry);
+        evicted += 1;
+      } else {
+        entry += 1;
+      }
+    }
+
+    if (keys.length > initialCapacity && size < keys.length / 4) {
+      final long[] oldKeys = keys;
+      final double[] oldValues = values;
+      final long[] oldLastSeen = lastSeen;
+      final int oldSize = size;
+
+      allocate(Math.max(initialCapacity, keys.length / 2));
+      for (int x = 0; x < oldSize; x++) {
+        insert(oldKeys[x], oldValues[x], oldLastSeen[x]);
+      }
+    }
+    return evicted;
+  }
+
+  private void allocate(int capacity) {
+    this.keys = new long[capacity];
+    this.values = new double[capacity];
+    this.lastSeen = new long[capacity];
+    this.size = 0;
+
+    // Keep the index at most half full so probe sequences stay short
+    this.table = new int[capacity * 2];
+    this.mask = table.length - 1;
+    Arrays.fill(table, EMPTY);
+  }
+
+  private int insert(long key, double value, long now) {
+    final int entry = size;
+    size += 1;
+    keys[entry] = key;
+    values[entry] = value;
+    lastSeen[entry] = now;
+
+    int slot = home(key);
+    while (table[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = entry;
+    return entry;
+  }
+
+  private int home(long key) {
+    // Keys are already hashes, just fold the high bits in
+    return (int) (key ^ (key >>> 32)) & mask;
+  }
+
+  private int findSlot(long key) {
+    int slot = home(key);
+
+    while (table[slot] != EMPTY) {
+      if (keys[table[slot]] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Remove an entry, moving the last entry into its place so the arrays stay
+   * dense.
+   */
+  private void remove(int entry) {
+    removeSlot(findSlot(keys[entry]));
+
+    final int last = size - 1;
+    if (entry != last) {
+      table[findSlot(keys[last])] = entry;
+      keys[entry] = keys[last];
+      values[entry] = values[last];
+      lastSeen[entry] = lastSeen[last];
+    }
+    size = last;
+  }
+
+  /**
+   * Free an index slot, shifting later entries of the same probe run back so
+   * lookups never stop early at the hole.
+   */
+  private void removeSlot(int slot) {
+    int hole = slot;
+    int next = slot;
+    table[hole] = EMPTY;
+
+    while (true) {
+      next = (next + 1) & mask;
+
+      if (table[next] == EMPTY) {
+        return;
+      }
+
+      final int home = home(keys[table[next]]);
+      // Move the entry unless its home lies cyclically in (hole, next]
+      final boolean stays = hole <= next
+          ? hole < home && home <= next
+          : hole < home || home <= next;
+
+      if (!stays) {
+        table[hole] = table[next];
+        table[next] = EMPTY;
+        hole = next;
+      }
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package com.newrelic.infra.db.delta;
+
+import static com.newrelic.infra.db.Util.getNumber;
+
+import com.newrelic.infra.db.dedup.RowHasher;
+import com.newrelic.infra.db.parser.MetricKind;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns cumulative counters into deltas or per second rates, per entity. The
+ * identity columns of a row pick the entity, so the same counter on
+ * different rows, for example one per database or file, is tracked
+ * separately instead of every row being compared with the one before it.
+ * <p>
+ * A counter that went down was reset, e.g. by a server restart, and its new
+ * value is taken as the delta since the reset. A counter seen for the first
+ * time has nothing to compare with and is left out of the row. Entities that
+ * stop showing up are forgotten after the idle timeout.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+public final class KeyedDeltas {
+  private final String[] identityColumns;
+  private final Set<String> identity;
+  private final Set<String> counterColumns;
+  private final MetricKind kind;
+  private final long idleNanos;
+  private final DeltaTable table = new DeltaTable();
+  private final RowHasher hasher = new RowHasher();
+  private long resets = 0;
+
+  /**
+   * Create the delta state of a command.
+   *
+   * @param identityColumns Columns that identify the entity of a row
+   * @param counterColumns  Cumulative columns, or an empty list for every
+   *                        numeric column that is not an identity column
+   * @param kind            {@link MetricKind#DELTA} or {@link MetricKind#RATE}
+   * @param idleTimeout     Seconds after which an entity that was not seen is
+   *                        forgotten
+   */
+  public KeyedDeltas(
+      List<String> identityColumns,
+      List<String> counterColumns,
+      MetricKind kind,
+      int idleTimeout
+  ) {
+    if (kind != MetricKind.DELTA && kind != MetricKind.RATE) {
+      throw new IllegalArgumentException("Keyed deltas need a delta or rate metricType");
+    }
+
+    this.identityColumns = new String[identityColumns.size()];
+    this.identity = new HashSet<>();
+    for (int i = 0; i < this.identityColumns.length; i++) {
+      this.identityColumns[i] = normalize(identityColumns.get(i));
+      this.identity.add(this.identityColumns[i]);
+    }
+    this.counterColumns = new HashSet<>();
+    for (final String column : counterColumns) {
+      this.counterColumns.add(normalize(column));
+    }
+    this.kind = kind;
+    this.idleNanos = idleTimeout * 1000000000L;
+  }
+
+  /**
+   * Replace the counters of a parsed row with their delta or rate since the
+   * entity's previous row. Counters without a previous value are removed.
+   *
+   * @param row Column name to value, as from a parser's raw row; updated in
+   *            place
+   * @param now When the row was read, in nanoseconds
+   * @return False if a counter was seen for the first time, so the row only
+   *         sets the baseline and should not be reported
+   */
+  public boolean apply(Map<String, Object> row, long now) {
+    boolean complete = true;
+
+    hasher.reset();
+    for (final String column : identityColumns) {
+      putValue(row.get(column));
+    }
+    final long entity = hasher.hash();
+
+    final Iterator<Map.Entry<String, Object>> columns = row.entrySet().iterator();
+    while (columns.hasNext()) {
+      final Map.Entry<String, Object> column = columns.next();
+
+      if (!isCounter(column.getKey(), column.getValue())) {
+        continue;
+      }
+
+      final double value = ((Number) column.getValue()).doubleValue();
+      final long key = hasher.reset().putLong(entity).putString(column.getKey()).hash();
+      final int entry = table.find(key);
+
+      if (entry < 0) {
+        table.add(key, value, now);
+        columns.remove();
+        complete = false;
+        continue;
+      }
+
+      final double previous = table.getValue(entry);
+      final long elapsed = now - table.getLastSeen(entry);
+      table.update(entry, value, now);
+
+      double delta = value - previous;
+      if (delta < 0) {
+        resets += 1;
+        delta = value;
+      }
+
+      if (kind == MetricKind.DELTA) {
+        column.setValue(delta);
+      } else if (elapsed > 0) {
+        column.setValue(delta * 1000000000.0 / elapsed);
+      } else {
+        columns.remove();
+      }
+    }
+    return complete;
+  }
+
+  /**
+   * Build the metric row of a row passed through {@link #apply(Map, long)}.
+   * Identity columns and text are attributes, everything else is a gauge.
+   */
+  public List<Metric> toMetricRow(Map<String, Object> row) {
+    final List<Metric> metrics = new ArrayList<>(row.size());
+
+    for (final Map.Entry<String, Object> column : row.entrySet()) {
+      final Object value = column.getValue();
+
+      if (value instanceof String) {
+        metrics.add(new AttributeMetric(column.getKey(), ((String) value).trim()));
+      } else if (identity.contains(column.getKey()) || !(value instanceof Number)) {
+        metrics.add(new AttributeMetric(column.getKey(), String.valueOf(value)));
+      } else {
+        metrics.add(new GaugeMetric(column.getKey(), getNumber(value)));
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Forget the entities not seen within the idle timeout.
+   *
+   * @param now Current time in nanoseconds
+   * @return The number of counters forgotten
+   */
+  public int evictIdle(long now) {
+    return table.evictIdle(now - idleNanos);
+  }
+
+  /**
+   * Get the number of counters being tracked.
+   */
+  public int size() {
+    return table.size();
+  }
+
+  /**
+   * Get the number of counter resets seen since the last call, and start
+   * counting again.
+   */
+  public long takeResets() {
+    final long taken = resets;
+    resets = 0;
+    return taken;
+  }
+
+  private boolean isCounter(String column, Object value) {
+    if (!(value instanceof Number) || identity.contains(column)) {
+      return false;
+    }
+    return counterColumns.isEmpty() || counterColumns.contains(column);
+  }
+
+  private void putValue(Object value) {
+    if (value == null) {
+      hasher.putNull();
+    } else if (value instanceof Long || value instanceof Integer
+        || value instanceof Short || value instanceof Byte
+        || value instanceof BigInteger) {
+      hasher.putLong(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      hasher.putDouble(((Number) value).doubleValue());
+    } else if (value instanceof BigDecimal) {
+      hasher.putString(((BigDecimal) value).stripTrailingZeros().toPlainString());
+    } else if (value instanceof String) {
+      hasher.putString(((String) value).trim());
+    } else {
+      hasher.putString(String.valueOf(value));
+    }
+  }
+
+  private static String normalize(String column) {
+    return column.trim().toLowerCase(Locale.ENGLISH);
+  }
+}
@@ -0,0 +1,13 @@
+package com.newrelic.infra.db.parser;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads one column of the current row as the Java type used for reporting.
+ * Chosen once per column from its SQL type, see {@link ColumnPlan}.
+ */
+@FunctionalInterface
+public interface ColumnExtractor {
+  Object extract(ResultSet rs, int column) throws SQLException;
+}
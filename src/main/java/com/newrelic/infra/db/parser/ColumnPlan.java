@@ -0,0 +1,201 @@
+package com.newrelic.infra.db.parser;
+
+import com.newrelic.infra.db.Util;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Locale;
+
+/**
+ * Everything a parser needs to know about the columns of a result set,
+ * worked out once per result set shape instead of once per row.
+ * <p>
+ * Holds the normalized column names, SQL types, a typed extractor and the
+ * columnar {@link Storage} of every column. A plan is reused for as long as
+ * the query keeps returning the same columns; {@link #matches(ResultSetMetaData)}
+ * detects a schema change.
+ * </p>
+ */
+public final class ColumnPlan {
+  private final int columnCount;
+  private final String[] names;
+  private final int[] types;
+  private final int[] precisions;
+  private final int[] scales;
+  private final ColumnExtractor[] extractors;
+  private final Storage[] storages;
+  private final boolean[] nullChecked;
+
+  /**
+   * How a column is held in a {@link ColumnarBatch}.
+   */
+  public enum Storage {
+    /** Integer types and exact numerics without a scale that fit in a long. */
+    LONG,
+    /** DOUBLE, FLOAT and exact numerics with a scale that fit in a double. */
+    DOUBLE,
+    /** Every type the extractor reads as a String, dictionary encoded. */
+    TEXT,
+    /** Anything else, kept as the extractor returns it. */
+    OBJECT
+  }
+
+  private ColumnPlan(int columnCount) {
+    this.columnCount = columnCount;
+    this.names = new String[columnCount];
+    this.types = new int[columnCount];
+    this.precisions = new int[columnCount];
+    this.scales = new int[columnCount];
+    this.extractors = new ColumnExtractor[columnCount];
+    this.storages = new Storage[columnCount];
+    this.nullChecked = new boolean[columnCount];
+  }
+
+  /**
+   * Compile a plan for a result set.
+   *
+   * @param rsmd Metadata of the result set
+   * @return The plan
+   * @throws SQLException If the metadata cannot be read
+   */
+  public static ColumnPlan compile(ResultSetMetaData rsmd) throws SQLException {
+    final ColumnPlan plan = new ColumnPlan(rsmd.getColumnCount());
+
+    for (int i = 0; i < plan.columnCount; i++) {
+      plan.names[i] = normalize(rsmd.getColumnName(i + 1));
+      plan.types[i] = rsmd.getColumnType(i + 1);
+      if (isExactNumeric(plan.types[i])) {
+        plan.precisions[i] = rsmd.getPrecision(i + 1);
+        plan.scales[i] = rsmd.getScale(i + 1);
+      }
+      plan.extractors[i] = Util.getColumnExtractor(rsmd, i + 1);
+      plan.setStorage(i);
+    }
+    return plan;
+  }
+
+  /**
+   * Pick the storage that holds exactly what the extractor returns. Like the
+   * extractors, only exact numerics treat SQL NULL as null; the other
+   * primitive getters return 0 for it.
+   */
+  private void setStorage(int i) {
+    switch (types[i]) {
+      case Types.BIGINT:
+      case Types.INTEGER:
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        storages[i] = Storage.LONG;
+        break;
+      case Types.DOUBLE:
+      case Types.FLOAT:
+        storages[i] = Storage.DOUBLE;
+        break;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        final int precision = precisions[i];
+        final int scale = scales[i];
+
+        if (scale == 0 && precision > 0 && precision <= 18) {
+          storages[i] = Storage.LONG;
+          nullChecked[i] = true;
+        } else if (precision > 0 && precision <= 15) {
+          storages[i] = Storage.DOUBLE;
+          nullChecked[i] = true;
+        } else {
+          storages[i] = Storage.OBJECT;
+        }
+        break;
+      default:
+        // Text, dates, booleans and binary are all extracted as strings, and
+        // unsupported types as null
+        storages[i] = Storage.TEXT;
+        break;
+    }
+  }
+
+  /**
+   * Check whether a result set still has the columns this plan was compiled
+   * for: the same names and types, and for DECIMAL and NUMERIC the same
+   * precision and scale.
+   */
+  public boolean matches(ResultSetMetaData rsmd) throws SQLException {
+    if (rsmd.getColumnCount() != columnCount) {
+      return false;
+    }
+
+    for (int i = 0; i < columnCount; i++) {
+      if (rsmd.getColumnType(i + 1) != types[i]
+          || !normalize(rsmd.getColumnName(i + 1)).equals(names[i])) {
+        return false;
+      }
+      // How exact numerics are read depends on their precision and scale
+      if (isExactNumeric(types[i])
+          && (rsmd.getPrecision(i + 1) != precisions[i] || rsmd.getScale(i + 1) != scales[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isExactNumeric(int type) {
+    return type == Types.DECIMAL || type == Types.NUMERIC;
+  }
+
+  public int getColumnCount() {
+    return columnCount;
+  }
+
+  /**
+   * Get the trimmed, lower case name of a column.
+   *
+   * @param column 1 based column index, as in JDBC
+   */
+  public String getName(int column) {
+    return names[column - 1];
+  }
+
+  /**
+   * Get the {@link java.sql.Types} of a column.
+   *
+   * @param column 1 based column index, as in JDBC
+   */
+  public int getType(int column) {
+    return types[column - 1];
+  }
+
+  /**
+   * Get how a column is held in a {@link ColumnarBatch}.
+   *
+   * @param column 1 based column index, as in JDBC
+   */
+  public Storage getStorage(int column) {
+    return storages[column - 1];
+  }
+
+  /**
+   * Check whether SQL NULL must be told apart with {@link ResultSet#wasNull()}
+   * when reading a LONG or DOUBLE column.
+   *
+   * @param column 1 based column index, as in JDBC
+   */
+  public boolean isNullChecked(int column) {
+    return nullChecked[column - 1];
+  }
+
+  /**
+   * Read a column of the current row.
+   *
+   * @param rs     Result set positioned on the row
+   * @param column 1 based column index, as in JDBC
+   * @return The value, or null for SQL NULL or an unsupported type
+   */
+  public Object extract(ResultSet rs, int column) throws SQLException {
+    return extractors[column - 1].extract(rs, column);
+  }
+
+  private static String normalize(String columnName) {
+    return columnName.trim().toLowerCase(Locale.ENGLISH);
+  }
+}
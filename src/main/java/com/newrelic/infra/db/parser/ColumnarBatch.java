@@ -0,0 +1,382 @@
+package com.newrelic.infra.db.parser;
+
+import static com.newrelic.infra.db.Util.getNumber;
+
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.DeltaMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import com.newrelic.infra.publish.api.metrics.RateMetric;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A batch of rows stored by column instead of by row. Numbers are held in
+ * primitive long and double arrays, text is dictionary encoded so repeated
+ * values are stored once, SQL NULL is one bit per value and the column names
+ * are shared with the {@link ColumnPlan} rather than repeated on every row.
+ * <p>
+ * Metric, inventory and raw rows are views built from the columns when they
+ * are asked for, normally at report time. Values match what the row at a time
+ * parse methods of {@link GenericParser} return, except that every integer is
+ * a Long and every floating point number a Double.
+ * </p>
+ * <p>
+ * Filled by one thread, then read only. Rows whose every column is null are
+ * not stored, as the row parsers report nothing for them either.
+ * </p>
+ */
+public final class ColumnarBatch {
+  private final ColumnPlan plan;
+  private final int capacity;
+  private final long[][] longs;
+  private final double[][] doubles;
+  private final int[][] codes;
+  private final Object[][] objects;
+  private final long[][] nulls;
+  private final List<String> dictionary = new ArrayList<>();
+  private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+  private int size = 0;
+  private int rowsRead = 0;
+  private int rowErrors = 0;
+
+  /**
+   * Create an empty batch.
+   *
+   * @param plan     Columns of the result set the batch is read from
+   * @param capacity Most rows the batch can hold
+   */
+  public ColumnarBatch(ColumnPlan plan, int capacity) {
+    final int columnCount = plan.getColumnCount();
+
+    this.plan = plan;
+    this.capacity = capacity;
+    this.longs = new long[columnCount][];
+    this.doubles = new double[columnCount][];
+    this.codes = new int[columnCount][];
+    this.objects = new Object[columnCount][];
+    this.nulls = new long[columnCount][(capacity + 63) >>> 6];
+
+    for (int i = 0; i < columnCount; i++) {
+      switch (plan.getStorage(i + 1)) {
+        case LONG:
+          longs[i] = new long[capacity];
+          break;
+        case DOUBLE:
+          doubles[i] = new double[capacity];
+          break;
+        case TEXT:
+          codes[i] = new int[capacity];
+          break;
+        default:
+          objects[i] = new Object[capacity];
+          break;
+      }
+    }
+  }
+
+  /**
+   * Read the row the result set is positioned on into the batch.
+   *
+   * @param rs Result set positioned on a row
+   * @throws SQLException          If a column cannot be read
+   * @throws IllegalStateException If the batch is full
+   */
+  public void readRow(ResultSet rs) throws SQLException {
+    if (isFull()) {
+      throw new IllegalStateException("Batch is full at " + capacity + " rows");
+    }
+
+    final int row = size;
+    boolean empty = true;
+    rowsRead += 1;
+
+    for (int i = 0; i < longs.length; i++) {
+      final int column = i + 1;
+      boolean isNull = false;
+
+      switch (plan.getStorage(column)) {
+        case LONG:
+          longs[i][row] = rs.getLong(column);
+          isNull = plan.isNullChecked(column) && rs.wasNull();
+          break;
+        case DOUBLE:
+          doubles[i][row] = rs.getDouble(column);
+          isNull = plan.isNullChecked(column) && rs.wasNull();
+          break;
+        case TEXT:
+          final Object text = plan.extract(rs, column);
+          isNull = text == null;
+          codes[i][row] = isNull ? -1 : encode((String) text);
+          break;
+        default:
+          objects[i][row] = plan.extract(rs, column);
+          isNull = objects[i][row] == null;
+          break;
+      }
+
+      if (isNull) {
+        nulls[i][row >>> 6] |= 1L << row;
+      } else {
+        nulls[i][row >>> 6] &= ~(1L << row);
+        empty = false;
+      }
+    }
+
+    if (!empty) {
+      size += 1;
+    }
+  }
+
+  /**
+   * Get the number of rows stored.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of rows read from the result set, including the rows that
+   * were not stored because every column was null.
+   */
+  public int getRowsRead() {
+    return rowsRead;
+  }
+
+  /**
+   * Count a row that was read but could not be parsed, so it was skipped.
+   */
+  public void addRowError() {
+    rowErrors += 1;
+  }
+
+  public int getRowErrors() {
+    return rowErrors;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public boolean isFull() {
+    return rowsRead >= capacity;
+  }
+
+  public ColumnPlan getPlan() {
+    return plan;
+  }
+
+  /**
+   * Get the number of distinct strings stored.
+   */
+  public int getDictionarySize() {
+    return dictionary.size();
+  }
+
+  /**
+   * Check whether a value is SQL NULL.
+   *
+   * @param row    0 based row index
+   * @param column 1 based column index, as in JDBC
+   */
+  public boolean isNull(int row, int column) {
+    checkRow(row);
+    return (nulls[column - 1][row >>> 6] & (1L << row)) != 0;
+  }
+
+  /**
+   * Get the value of a LONG column.
+   *
+   * @param row    0 based row index
+   * @param column 1 based column index, as in JDBC
+   */
+  public long getLong(int row, int column) {
+    checkRow(row);
+    return longs[column - 1][row];
+  }
+
+  /**
+   * Get the value of a DOUBLE column.
+   *
+   * @param row    0 based row index
+   * @param column 1 based column index, as in JDBC
+   */
+  public double getDouble(int row, int column) {
+    checkRow(row);
+    return doubles[column - 1][row];
+  }
+
+  /**
+   * Get the value of a TEXT column, as extracted.
+   *
+   * @param row    0 based row index
+   * @param column 1 based column index, as in JDBC
+   * @return The string, or null for SQL NULL
+   */
+  public String getString(int row, int column) {
+    checkRow(row);
+    final int code = codes[column - 1][row];
+    return code < 0 ? null : dictionary.get(code);
+  }
+
+  /**
+   * Get the value of any column as an Object, boxing numbers.
+   *
+   * @param row    0 based row index
+   * @param column 1 based column index, as in JDBC
+   * @return The value, or null for SQL NULL
+   */
+  public Object getValue(int row, int column) {
+    if (isNull(row, column)) {
+      return null;
+    }
+
+    switch (plan.getStorage(column)) {
+      case LONG:
+        return longs[column - 1][row];
+      case DOUBLE:
+        return doubles[column - 1][row];
+      case TEXT:
+        return dictionary.get(codes[column - 1][row]);
+      default:
+        return objects[column - 1][row];
+    }
+  }
+
+  /**
+   * Build the metric row of a row, the way
+   * {@link GenericParser#parseMetricRow(String, ResultSet, java.sql.ResultSetMetaData)}
+   * does: text is a trimmed attribute and numbers are metrics of the given
+   * kind. Numbers are left out for {@link MetricKind#UNKNOWN}.
+   *
+   * @param row  0 based row index
+   * @param kind Kind of the numeric metrics
+   * @return The metrics of the row
+   */
+  public List<Metric> getMetricRow(int row, MetricKind kind) {
+    final List<Metric> metrics = new ArrayList<>(longs.length);
+
+    for (int column = 1; column <= longs.length; column++) {
+      final Object value = getValue(row, column);
+
+      if (value == null) {
+        continue;
+      }
+
+      final String name = plan.getName(column);
+      if (value instanceof String) {
+        metrics.add(new AttributeMetric(name, ((String) value).trim()));
+        continue;
+      }
+
+      switch (kind) {
+        case GAUGE:
+          metrics.add(new GaugeMetric(name, getNumber(value)));
+          break;
+        case DELTA:
+          metrics.add(new DeltaMetric(name, getNumber(value)));
+          break;
+        case RATE:
+          metrics.add(new RateMetric(name, getNumber(value)));
+          break;
+        default:
+          break;
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Build the inventory row of a row: every value that is not null, as a
+   * string.
+   *
+   * @param row 0 based row index
+   * @return Column name to value
+   */
+  public Map<String, String> getInventoryRow(int row) {
+    final Map<String, String> inventory = new HashMap<>();
+
+    for (int column = 1; column <= longs.length; column++) {
+      final Object value = getValue(row, column);
+
+      if (value != null) {
+        inventory.put(plan.getName(column), String.valueOf(value));
+      }
+    }
+    return inventory;
+  }
+
+  /**
+   * Build the raw row of a row, the way
+   * {@link GenericParser#parseRawRow(ResultSet, java.sql.ResultSetMetaData)}
+   * does.
+   *
+   * @param row 0 based row index
+   * @return Column name to value, without nulls or unnamed columns
+   */
+  public Map<String, Object> getRawRow(int row) {
+    final Map<String, Object> raw = new HashMap<>();
+
+    for (int column = 1; column <= longs.length; column++) {
+      final String name = plan.getName(column);
+      final Object value = getValue(row, column);
+
+      if (!name.isEmpty() && value != null) {
+        raw.put(name, value);
+      }
+    }
+    return raw;
+  }
+
+  /**
+   * Get the rows of the batch as metric rows. Each row is built when it is
+   * read, so nothing is allocated for rows that are never reported.
+   *
+   * @param kind Kind of the numeric metrics
+   * @return Read only view of the rows
+   */
+  public List<List<Metric>> metricRows(MetricKind kind) {
+    return new MetricRows(kind);
+  }
+
+  private int encode(String value) {
+    final Integer code = dictionaryCodes.get(value);
+
+    if (code != null) {
+      return code;
+    }
+    dictionary.add(value);
+    dictionaryCodes.put(value, dictionary.size() - 1);
+    return dictionary.size() - 1;
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+    }
+  }
+
+  private final class MetricRows extends AbstractList<List<Metric>> implements RandomAccess {
+    private final MetricKind kind;
+
+    private MetricRows(MetricKind kind) {
+      this.kind = kind;
+    }
+
+    @Override
+    public List<Metric> get(int row) {
+      return getMetricRow(row, kind);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
@@ -33,6 +33,37 @@ public abstract class DatabaseParser {
       ResultSetMetaData resultSetMetaData
   ) throws Exception;
 
+  /**
+   * Parse up to batchSize rows into a {@link ColumnarBatch}, advancing the
+   * result set past them. Optional: a parser that only parses one row at a
+   * time returns null without moving the result set, and its rows are read
+   * with {@link #parseMetricRow(String, ResultSet, ResultSetMetaData)}.
+   *
+   * @param resultSet         Result set positioned before the first row to
+   *                          parse
+   * @param resultSetMetaData Metadata of the result set
+   * @param batchSize         Most rows to read
+   * @return The batch, with fewer than batchSize rows read only when the
+   *         result set ran out, or null if batches are not supported
+   * @see #supportsBatch()
+   */
+  public ColumnarBatch parseBatch(
+      ResultSet resultSet,
+      ResultSetMetaData resultSetMetaData,
+      int batchSize
+  ) throws Exception {
+    return null;
+  }
+
+  /**
+   * Whether {@link #parseBatch} reads rows into batches. A parser opts in by
+   * returning true; its batches must hold the same values its row parse
+   * methods would return, as they are reported in their place.
+   */
+  protected boolean supportsBatch() {
+    return false;
+  }
+
   public void setOptions(JsonObject options) {
     logger.error("Selected DatabaseParser does not support parserOptions, ignoring...");
   }
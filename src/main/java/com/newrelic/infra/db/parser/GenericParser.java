@@ -1,7 +1,6 @@
 package com.newrelic.infra.db.parser;
 
 import static com.newrelic.infra.db.Util.getNumber;
-import static com.newrelic.infra.db.Util.getSqlColumnByType;
 
 import com.newrelic.infra.db.command.DatabaseCommand;
 import com.newrelic.infra.publish.api.metrics.AttributeMetric;
@@ -15,7 +14,6 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -23,6 +21,43 @@ import java.util.Map;
  */
 public class GenericParser extends DatabaseParser {
 
+  private ResultSetMetaData planMetaData = null;
+  private ColumnPlan plan = null;
+  private String planMetricType = null;
+  private MetricKind planMetricKind = MetricKind.GAUGE;
+
+  /**
+   * Get the column plan for a result set. The plan is compiled on first use
+   * and only recompiled when a new result set has different columns.
+   *
+   * @param rsmd Metadata of the result set being parsed
+   * @return The column plan
+   */
+  protected ColumnPlan getColumnPlan(ResultSetMetaData rsmd) throws SQLException {
+    if (rsmd != planMetaData) {
+      if (plan == null || !plan.matches(rsmd)) {
+        if (plan != null) {
+          logger.debug("Result set columns changed, recompiling column plan");
+        }
+        plan = ColumnPlan.compile(rsmd);
+      }
+      planMetaData = rsmd;
+    }
+    return plan;
+  }
+
+  private MetricKind getMetricKind(String metricType) {
+    if (metricType == null ? planMetricType != null : !metricType.equals(planMetricType)) {
+      planMetricType = metricType;
+      planMetricKind = MetricKind.fromString(metricType);
+
+      if (planMetricKind == MetricKind.UNKNOWN) {
+        logger.error("Unknown Metric Type: '" + metricType + "'");
+      }
+    }
+    return planMetricKind;
+  }
+
   @Override
   public String getParserName() {
     return "GenericParser";
@@ -43,45 +78,44 @@ public class GenericParser extends DatabaseParser {
       ResultSet rs,
       ResultSetMetaData rsmd
   ) throws Exception {
-    List<Metric> theList = new ArrayList<Metric>();
+    List<Metric> theList = null;
 
     Metric metric = null;
 
     try {
-      int numColumns = rsmd.getColumnCount();
+      final ColumnPlan columns = getColumnPlan(rsmd);
+      final MetricKind kind = getMetricKind(metricType);
+      int numColumns = columns.getColumnCount();
+      theList = new ArrayList<Metric>(numColumns);
 
       for (int i = 1; i < numColumns + 1; i++) {
-        String columnName = rsmd.getColumnName(i).trim().toLowerCase(Locale.ENGLISH);
-        Object value = getSqlColumnByType(rs, rsmd, i);
+        String columnName = columns.getName(i);
+        Object value = columns.extract(rs, i);
 
         if (value != null) {
           if (value instanceof String) {
-            metric = new AttributeMetric(columnName.trim(), ((String) value).trim());
+            metric = new AttributeMetric(columnName, ((String) value).trim());
           } else {
-            if (metricType != null) {
-              switch (metricType.toLowerCase(Locale.ENGLISH)) {
-                case "gauge":
-                  metric = new GaugeMetric(columnName, getNumber(value));
-                  break;
-                case "delta":
-                  metric = new DeltaMetric(columnName, getNumber(value));
-                  break;
-                case "rate":
-                  metric = new RateMetric(columnName, getNumber(value));
-                  break;
-                default:
-                  logger.error("Unknown Metric Type: '" + metricType + "'");
-                  continue;
-              }
-            } else {
-              // Default to Gauge
-              metric = new GaugeMetric(columnName, getNumber(value));
+            switch (kind) {
+              case GAUGE:
+                metric = new GaugeMetric(columnName, getNumber(value));
+                break;
+              case DELTA:
+                metric = new DeltaMetric(columnName, getNumber(value));
+                break;
+              case RATE:
+                metric = new RateMetric(columnName, getNumber(value));
+                break;
+              default:
+                continue;
             }
           }
           theList.add(metric);
         }
       }
-      logger.debug("returning metricList: [" + theList + "]");
+      if (logger.isDebugEnabled()) {
+        logger.debug("returning metricList: [" + theList + "]");
+      }
     } catch (SQLException e) {
       logger.error("Error parsing Metric row: [" + rs.getRow() + "]", e);
       throw e;
@@ -90,6 +124,42 @@ public class GenericParser extends DatabaseParser {
     return theList;
   }
 
+  /**
+   * Parse rows into a columnar batch, with the same column plan as the row
+   * parse methods.
+   */
+  @Override
+  public ColumnarBatch parseBatch(
+      ResultSet rs,
+      ResultSetMetaData rsmd,
+      int batchSize
+  ) throws Exception {
+    if (!supportsBatch()) {
+      return null;
+    }
+
+    final ColumnarBatch batch = new ColumnarBatch(getColumnPlan(rsmd), batchSize);
+
+    while (!batch.isFull() && rs.next()) {
+      try {
+        batch.readRow(rs);
+      } catch (SQLException e) {
+        logger.error("Failed to parse row, skipping", e);
+        batch.addRowError();
+      }
+    }
+    return batch;
+  }
+
+  /**
+   * Batches hold what {@link #parseMetricRow(String, ResultSet, ResultSetMetaData)}
+   * returns. A subclass that parses rows its own way must return false.
+   */
+  @Override
+  protected boolean supportsBatch() {
+    return true;
+  }
+
   @Deprecated
   public Map<String, String> parseInventoryRow(
       DatabaseCommand databaseCommand,
@@ -108,15 +178,12 @@ public class GenericParser extends DatabaseParser {
     Map<String, String> row = new HashMap<String, String>();
 
     try {
-      int numColumns = rsmd.getColumnCount();
+      final ColumnPlan columns = getColumnPlan(rsmd);
+      int numColumns = columns.getColumnCount();
 
       for (int i = 1; i < numColumns + 1; i++) {
-        String columnName = rsmd.getColumnName(i).trim().toLowerCase(Locale.ENGLISH);
-        String value = null;
-
-        if (rs.getString(columnName) != null) {
-          value = rs.getString(columnName);
-        }
+        String columnName = columns.getName(i);
+        String value = rs.getString(i);
 
         if (value != null) {
           row.put(columnName, value);
@@ -148,12 +215,13 @@ public class GenericParser extends DatabaseParser {
     int currentRow = 0;
 
     try {
-      int numColumns = resultSetMetaData.getColumnCount();
+      final ColumnPlan columns = getColumnPlan(resultSetMetaData);
+      int numColumns = columns.getColumnCount();
       currentRow = resultSet.getRow();
 
       for (int i = 1; i < numColumns + 1; i++) {
-        String columnName = resultSetMetaData.getColumnName(i).trim().toLowerCase(Locale.ENGLISH);
-        Object value = getSqlColumnByType(resultSet, resultSetMetaData, i);
+        String columnName = columns.getName(i);
+        Object value = columns.extract(resultSet, i);
 
         if ((!columnName.isEmpty()) && (value != null)) {
           row.put(columnName, value);
@@ -0,0 +1,31 @@
+package com.newrelic.infra.db.parser;
+
+import java.util.Locale;
+
+/**
+ * The kind of metric numeric columns are reported as, from a command's
+ * metricType.
+ */
+public enum MetricKind {
+  GAUGE, DELTA, RATE, UNKNOWN;
+
+  /**
+   * Resolve a metricType setting, defaulting to gauge when it is not set.
+   */
+  public static MetricKind fromString(String metricType) {
+    if (metricType == null) {
+      return GAUGE;
+    }
+
+    switch (metricType.toLowerCase(Locale.ENGLISH)) {
+      case "gauge":
+        return GAUGE;
+      case "delta":
+        return DELTA;
+      case "rate":
+        return RATE;
+      default:
+        return UNKNOWN;
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package com.newrelic.infra.db.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Opens new physical connections for a {@link ConnectionPool}.
+ */
+public interface ConnectionFactory {
+  Connection create() throws SQLException;
+}
@@ -0,0 +1,168 @@
+package com.newrelic.infra.db.pool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Identifies the set of commands that can share physical connections. Two
+ * commands with equal keys connect to the same database as the same user with
+ * the same password, SSL settings, connect timeout and pool settings, so any
+ * of them can open connections for the others. Only a digest of the password
+ * is kept.
+ */
+public final class ConnectionKey {
+  private final String provider;
+  private final String hostname;
+  private final int port;
+  private final String database;
+  private final String username;
+  private final byte[] passwordDigest;
+  private final boolean sslConnection;
+  private final boolean sslEncrypt;
+  private final boolean sslTrustServerCert;
+  private final String sslHostnameInCert;
+  private final String sslTrustStoreLocation;
+  private final String sslTrustStorePassword;
+  private final boolean useSsl;
+  private final int connectTimeout;
+  private final PoolSettings poolSettings;
+
+  /**
+   * Create a new connection key.
+   */
+  public ConnectionKey(
+      String provider,
+      String hostname,
+      int port,
+      String database,
+      String username,
+      String password,
+      boolean sslConnection,
+      boolean sslEncrypt,
+      boolean sslTrustServerCert,
+      String sslHostnameInCert,
+      String sslTrustStoreLocation,
+      String sslTrustStorePassword,
+      boolean useSsl,
+      int connectTimeout,
+      PoolSettings poolSettings
+  ) {
+    this.provider = provider == null ? null : provider.toLowerCase(Locale.ENGLISH);
+    this.hostname = hostname;
+    this.port = port;
+    this.database = database;
+    this.username = username;
+    this.passwordDigest = digest(password);
+    this.sslConnection = sslConnection;
+    this.sslEncrypt = sslEncrypt;
+    this.sslTrustServerCert = sslTrustServerCert;
+    this.sslHostnameInCert = sslHostnameInCert;
+    this.sslTrustStoreLocation = sslTrustStoreLocation;
+    this.sslTrustStorePassword = sslTrustStorePassword;
+    this.useSsl = useSsl;
+    this.connectTimeout = connectTimeout;
+    this.poolSettings = poolSettings;
+  }
+
+  public String getProvider() {
+    return provider;
+  }
+
+  public String getHostname() {
+    return hostname;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public String getDatabase() {
+    return database;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public PoolSettings getPoolSettings() {
+    return poolSettings;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ConnectionKey)) {
+      return false;
+    }
+    ConnectionKey that = (ConnectionKey) o;
+    return port == that.port
+        && sslConnection == that.sslConnection
+        && sslEncrypt == that.sslEncrypt
+        && sslTrustServerCert == that.sslTrustServerCert
+        && useSsl == that.useSsl
+        && connectTimeout == that.connectTimeout
+        && Arrays.equals(passwordDigest, that.passwordDigest)
+        && Objects.equals(provider, that.provider)
+        && Objects.equals(hostname, that.hostname)
+        && Objects.equals(database, that.database)
+        && Objects.equals(username, that.username)
+        && Objects.equals(sslHostnameInCert, that.sslHostnameInCert)
+        && Objects.equals(sslTrustStoreLocation, that.sslTrustStoreLocation)
+        && Objects.equals(sslTrustStorePassword, that.sslTrustStorePassword)
+        && Objects.equals(poolSettings, that.poolSettings);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(passwordDigest) + Objects.hash(
+        provider,
+        hostname,
+        port,
+        database,
+        username,
+        sslConnection,
+        sslEncrypt,
+        sslTrustServerCert,
+        sslHostnameInCert,
+        sslTrustStoreLocation,
+        sslTrustStorePassword,
+        useSsl,
+        connectTimeout,
+        poolSettings
+    );
+  }
+
+  /**
+   * Describe the key for logging. Never includes credentials.
+   */
+  @Override
+  public String toString() {
+    return provider + "://" + username + "@" + hostname + ":" + port + "/" + database
+        + (sslConnection || useSsl ? " (ssl)" : "");
+  }
+
+  private static byte[] digest(String password) {
+    if (password == null) {
+      return null;
+    }
+
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(
+          password.getBytes(StandardCharsets.UTF_8)
+      );
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,444 @@
+package com.newrelic.infra.db.pool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of physical connections for a single {@link ConnectionKey}.
+ * <p>
+ * Connections are handed out most-recently-used first so that surplus
+ * connections go idle and are evicted by {@link #maintain()}. A failed connect
+ * puts the pool into an exponential reconnect backoff during which borrowers
+ * fail fast instead of hammering the database with logins.
+ * </p>
+ * <p>
+ * Every command that shares the pool brings its own {@link ConnectionFactory}.
+ * A borrow opens connections with the borrower's factory, and maintenance
+ * with the factory of the member that joined last, so a member that left is
+ * never asked for a connection again.
+ * </p>
+ */
+public class ConnectionPool {
+  private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+  /**
+   * A physical connection and its bookkeeping.
+   */
+  private static final class PooledConnection {
+    private final Connection connection;
+    private final StatementCache statements;
+    private long lastUsed;
+
+    private PooledConnection(Connection connection, int statementCacheSize) {
+      this.connection = connection;
+      this.statements = new StatementCache(statementCacheSize);
+      this.lastUsed = System.currentTimeMillis();
+    }
+  }
+
+  private final ConnectionKey key;
+  private final PoolSettings settings;
+  private final Semaphore permits;
+
+  // All of the following are guarded by "this"
+  private final Deque<PooledConnection> idle = new ArrayDeque<>();
+  private final Map<Connection, PooledConnection> leased = new IdentityHashMap<>();
+  private long currentBackoff = 0;
+  private long nextConnectAttempt = 0;
+  private boolean closed = false;
+  private final Deque<ConnectionFactory> members = new ArrayDeque<>();
+
+  /**
+   * Create a new, empty pool.
+   *
+   * @param key      Connection identity
+   * @param factory  Factory of the first member
+   * @param settings Sizing and timing settings
+   */
+  public ConnectionPool(ConnectionKey key, ConnectionFactory factory, PoolSettings settings) {
+    this.key = key;
+    this.settings = settings;
+    this.permits = new Semaphore(settings.getMaxSize(), true);
+    this.members.addLast(factory);
+  }
+
+  public ConnectionKey getKey() {
+    return key;
+  }
+
+  public PoolSettings getSettings() {
+    return settings;
+  }
+
+  /**
+   * Borrow a connection, opening it with the factory of the member that
+   * joined last if none is idle.
+   *
+   * @see #borrow(ConnectionFactory)
+   */
+  public Connection borrow() throws SQLException {
+    return borrow(getMemberFactory());
+  }
+
+  /**
+   * Borrow a connection, waiting up to the acquire timeout for one to become
+   * free. The connection must be handed back with {@link #release}.
+   *
+   * @param factory Opens a new connection if none is idle
+   * @return A validated, open connection
+   * @throws SQLException If no connection could be obtained in time, the pool
+   *                      is backing off after a failed connect, or connecting
+   *                      failed.
+   */
+  public Connection borrow(ConnectionFactory factory) throws SQLException {
+    synchronized (this) {
+      if (closed || factory == null) {
+        throw new SQLNonTransientConnectionException("Connection pool for " + key + " is closed");
+      }
+    }
+
+    try {
+      if (!permits.tryAcquire(settings.getAcquireTimeout(), TimeUnit.MILLISECONDS)) {
+        throw new SQLTimeoutException(
+            "Timed out after "
+            + settings.getAcquireTimeout()
+            + "ms waiting for a connection to "
+            + key
+        );
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLTransientConnectionException("Interrupted waiting for a connection", e);
+    }
+
+    boolean acquired = false;
+
+    try {
+      PooledConnection entry;
+
+      while ((entry = pollIdle()) != null) {
+        if (!settings.isValidateOnBorrow() || isValid(entry.connection)) {
+          lease(entry);
+          acquired = true;
+          return entry.connection;
+        }
+
+        logger.debug("Discarding stale connection to " + key);
+        entry.statements.clear();
+        closeQuietly(entry.connection);
+      }
+
+      entry = newPooledConnection(factory);
+      lease(entry);
+      acquired = true;
+      return entry.connection;
+    } finally {
+      if (!acquired) {
+        permits.release();
+      }
+    }
+  }
+
+  /**
+   * Hand a borrowed connection back to the pool.
+   *
+   * @param connection Connection returned by {@link #borrow()}
+   * @param discard    True if the connection is known to be broken and must
+   *                   be closed rather than reused
+   */
+  public void release(Connection connection, boolean discard) {
+    if (connection == null) {
+      return;
+    }
+
+    PooledConnection entry;
+    boolean reuse;
+
+    synchronized (this) {
+      entry = leased.remove(connection);
+
+      if (entry == null) {
+        logger.warn("Connection released to " + key + " was not borrowed from it, closing");
+        closeQuietly(connection);
+        return;
+      }
+
+      reuse = !discard && !closed && !isClosed(connection);
+
+      if (reuse) {
+        entry.lastUsed = System.currentTimeMillis();
+        idle.addFirst(entry);
+      }
+    }
+
+    if (!reuse) {
+      // The statements die with the connection, never hand them out again
+      entry.statements.clear();
+      closeQuietly(connection);
+    }
+    permits.release();
+  }
+
+  /**
+   * Prepare a statement on a borrowed connection, reusing one left open by an
+   * earlier run of the same SQL with the same cursor options when possible.
+   * The statement must be handed back with {@link #releaseStatement} instead
+   * of being closed.
+   */
+  public PreparedStatement prepareStatement(
+      Connection connection,
+      String sql,
+      int resultSetType,
+      int resultSetConcurrency
+  ) throws SQLException {
+    final PooledConnection entry;
+
+    synchronized (this) {
+      entry = leased.get(connection);
+    }
+
+    if (entry == null) {
+      return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+    return entry.statements.prepare(connection, sql, resultSetType, resultSetConcurrency);
+  }
+
+  /**
+   * Hand back a statement obtained from {@link #prepareStatement}, before the
+   * connection itself is released.
+   *
+   * @param connection Connection the statement was prepared on
+   * @param statement  Statement to give back, may be null
+   * @param discard    True if the statement failed and must be closed rather
+   *                   than reused
+   */
+  public void releaseStatement(
+      Connection connection,
+      PreparedStatement statement,
+      boolean discard
+  ) {
+    if (statement == null) {
+      return;
+    }
+
+    final PooledConnection entry;
+
+    synchronized (this) {
+      entry = leased.get(connection);
+    }
+
+    if (entry != null) {
+      entry.statements.release(statement, discard);
+    } else {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        logger.debug("Error closing statement: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Close idle connections that have outlived the idle timeout, then open
+   * connections until the minimum size is restored.
+   */
+  public void maintain() {
+    final long now = System.currentTimeMillis();
+    final List<PooledConnection> evicted = new ArrayList<>();
+    final ConnectionFactory factory;
+    int missing;
+
+    synchronized (this) {
+      factory = members.peekLast();
+      if (closed || factory == null) {
+        return;
+      }
+
+      while (!idle.isEmpty()
+          && idle.size() + leased.size() > settings.getMinSize()
+          && now - idle.peekLast().lastUsed > settings.getIdleTimeout()) {
+        evicted.add(idle.pollLast());
+      }
+
+      missing = settings.getMinSize() - idle.size() - leased.size();
+    }
+
+    if (!evicted.isEmpty()) {
+      logger.debug("Evicting " + evicted.size() + " idle connection(s) to " + key);
+      for (PooledConnection entry : evicted) {
+        entry.statements.clear();
+        closeQuietly(entry.connection);
+      }
+    }
+
+    for (int x = 0; x < missing; x++) {
+      try {
+        PooledConnection entry = newPooledConnection(factory);
+
+        synchronized (this) {
+          if (closed) {
+            closeQuietly(entry.connection);
+            return;
+          }
+          idle.addLast(entry);
+        }
+      } catch (SQLException e) {
+        logger.debug("Unable to restore minimum pool size for " + key + ": " + e.getMessage());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Close every idle connection and refuse further borrows. Leased connections
+   * are closed as they are released.
+   */
+  public void close() {
+    final List<PooledConnection> toClose;
+
+    synchronized (this) {
+      closed = true;
+      toClose = new ArrayList<>(idle);
+      idle.clear();
+    }
+
+    for (PooledConnection entry : toClose) {
+      entry.statements.clear();
+      closeQuietly(entry.connection);
+    }
+  }
+
+  /**
+   * Add a member that shares the pool.
+   */
+  synchronized void join(ConnectionFactory factory) {
+    members.addLast(factory);
+  }
+
+  /**
+   * Remove a member, so its factory is no longer used.
+   *
+   * @return The number of members left
+   */
+  synchronized int leave(ConnectionFactory factory) {
+    members.remove(factory);
+    return members.size();
+  }
+
+  private synchronized ConnectionFactory getMemberFactory() {
+    return members.peekLast();
+  }
+
+  public synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  public synchronized int getLeasedCount() {
+    return leased.size();
+  }
+
+  /**
+   * Decide whether an exception means the connection itself is unusable, as
+   * opposed to a problem with the statement that was run on it.
+   */
+  public static boolean isConnectionFailure(SQLException e) {
+    if (e instanceof SQLNonTransientConnectionException
+        || e instanceof SQLTransientConnectionException) {
+      return true;
+    }
+
+    // SQLSTATE class 08 is "connection exception"
+    String state = e.getSQLState();
+    return state != null && state.startsWith("08");
+  }
+
+  private synchronized PooledConnection pollIdle() {
+    return idle.pollFirst();
+  }
+
+  private synchronized void lease(PooledConnection entry) {
+    leased.put(entry.connection, entry);
+  }
+
+  private PooledConnection newPooledConnection(ConnectionFactory factory) throws SQLException {
+    return new PooledConnection(connect(factory), settings.getStatementCacheSize());
+  }
+
+  private Connection connect(ConnectionFactory factory) throws SQLException {
+    synchronized (this) {
+      long wait = nextConnectAttempt - System.currentTimeMillis();
+
+      if (wait > 0) {
+        throw new SQLTransientConnectionException(
+            "Connecting to " + key + " is backing off for another " + wait + "ms"
+        );
+      }
+    }
+
+    try {
+      Connection connection = factory.create();
+
+      synchronized (this) {
+        if (currentBackoff > 0) {
+          logger.info("Reconnected to " + key);
+        }
+        currentBackoff = 0;
+        nextConnectAttempt = 0;
+      }
+      return connection;
+    } catch (SQLException e) {
+      long backoff;
+
+      synchronized (this) {
+        currentBackoff = currentBackoff == 0
+            ? settings.getReconnectBackoff()
+            : Math.min(currentBackoff * 2, settings.getMaxReconnectBackoff());
+        nextConnectAttempt = System.currentTimeMillis() + currentBackoff;
+        backoff = currentBackoff;
+      }
+      logger.warn(
+          "Unable to connect to " + key + ", retrying in " + backoff + "ms: " + e.getMessage()
+      );
+      throw e;
+    }
+  }
+
+  private boolean isValid(Connection connection) {
+    try {
+      return connection.isValid(settings.getValidationTimeout());
+    } catch (SQLException | AbstractMethodError e) {
+      // Older drivers may not implement isValid, fall back to isClosed
+      return !isClosed(connection);
+    }
+  }
+
+  private static boolean isClosed(Connection connection) {
+    try {
+      return connection.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      logger.debug("Error closing connection: " + e.getMessage());
+    }
+  }
+}
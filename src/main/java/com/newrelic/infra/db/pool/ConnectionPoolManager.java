@@ -0,0 +1,103 @@
+package com.newrelic.infra.db.pool;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide registry of connection pools. Commands that share a
+ * {@link ConnectionKey} share a pool, even across agents. Pools are closed
+ * when the last command releases them.
+ */
+public final class ConnectionPoolManager {
+  private static final Logger logger = LoggerFactory.getLogger(ConnectionPoolManager.class);
+  private static final ConnectionPoolManager instance = new ConnectionPoolManager();
+
+  private final Map<ConnectionKey, ConnectionPool> pools = new HashMap<>();
+  private final Map<ConnectionKey, ScheduledFuture<?>> maintenanceTasks = new HashMap<>();
+  private ScheduledExecutorService maintenance = null;
+
+  private ConnectionPoolManager() {
+  }
+
+  public static ConnectionPoolManager getInstance() {
+    return instance;
+  }
+
+  /**
+   * Get the pool for a key, creating it on first use. Every call must be
+   * matched by a call to {@link #release(ConnectionKey, ConnectionFactory)}
+   * with the same factory.
+   *
+   * @param key     Connection identity, including the settings of the pool
+   * @param factory Factory of the command joining the pool
+   * @return The shared pool
+   */
+  public synchronized ConnectionPool acquire(ConnectionKey key, ConnectionFactory factory) {
+    final PoolSettings settings = key.getPoolSettings();
+    ConnectionPool pool = pools.get(key);
+
+    if (pool == null) {
+      logger.info("Creating connection pool for " + key);
+      pool = new ConnectionPool(key, factory, settings);
+      pools.put(key, pool);
+
+      final ConnectionPool target = pool;
+      maintenanceTasks.put(key, getMaintenanceExecutor().scheduleWithFixedDelay(
+          () -> {
+            try {
+              target.maintain();
+            } catch (RuntimeException e) {
+              logger.error("Connection pool maintenance failed for " + key, e);
+            }
+          },
+          settings.getMaintenanceInterval(),
+          settings.getMaintenanceInterval(),
+          TimeUnit.MILLISECONDS
+      ));
+    } else {
+      pool.join(factory);
+    }
+    return pool;
+  }
+
+  /**
+   * Leave a pool, closing it once it is no longer used.
+   *
+   * @param key     Connection identity
+   * @param factory Factory the pool was acquired with
+   */
+  public synchronized void release(ConnectionKey key, ConnectionFactory factory) {
+    ConnectionPool pool = pools.get(key);
+
+    if (pool == null) {
+      return;
+    }
+
+    if (pool.leave(factory) <= 0) {
+      logger.info("Closing connection pool for " + key);
+      pools.remove(key);
+      ScheduledFuture<?> task = maintenanceTasks.remove(key);
+      if (task != null) {
+        task.cancel(false);
+      }
+      pool.close();
+    }
+  }
+
+  private ScheduledExecutorService getMaintenanceExecutor() {
+    if (maintenance == null) {
+      maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nri-db-pool-maintenance");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return maintenance;
+  }
+}
@@ -0,0 +1,212 @@
+package com.newrelic.infra.db.pool;
+
+import java.util.Objects;
+
+/**
+ * Sizing and timing settings for a {@link ConnectionPool}. All durations are in
+ * milliseconds. Settings that are equal share a pool, so they must not be
+ * changed once a pool was created with them.
+ */
+public class PoolSettings {
+  private static final int defaultMinSize = 0;
+  private static final int defaultMaxSize = 4;
+  private static final long defaultIdleTimeout = 300000L;
+  private static final long defaultAcquireTimeout = 30000L;
+  private static final int defaultValidationTimeout = 5;
+  private static final long defaultReconnectBackoff = 1000L;
+  private static final long defaultMaxReconnectBackoff = 60000L;
+  private static final long defaultMaintenanceInterval = 30000L;
+  private static final int defaultStatementCacheSize = 32;
+
+  private boolean enabled = true;
+  private int minSize = defaultMinSize;
+  private int maxSize = defaultMaxSize;
+  private long idleTimeout = defaultIdleTimeout;
+  private long acquireTimeout = defaultAcquireTimeout;
+  private boolean validateOnBorrow = true;
+  private int validationTimeout = defaultValidationTimeout;
+  private long reconnectBackoff = defaultReconnectBackoff;
+  private long maxReconnectBackoff = defaultMaxReconnectBackoff;
+  private long maintenanceInterval = defaultMaintenanceInterval;
+  private int statementCacheSize = defaultStatementCacheSize;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  /**
+   * Set the number of idle connections the pool keeps open.
+   */
+  public void setMinSize(int minSize) {
+    if (minSize >= 0) {
+      this.minSize = minSize;
+    }
+  }
+
+  /**
+   * Get the maximum number of connections, never less than the minimum size.
+   */
+  public int getMaxSize() {
+    return Math.max(maxSize, minSize);
+  }
+
+  /**
+   * Set the maximum number of open connections.
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize > 0) {
+      this.maxSize = maxSize;
+    }
+  }
+
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Set how long an unused connection stays open before it is evicted.
+   */
+  public void setIdleTimeout(long idleTimeout) {
+    if (idleTimeout > 0) {
+      this.idleTimeout = idleTimeout;
+    }
+  }
+
+  public long getAcquireTimeout() {
+    return acquireTimeout;
+  }
+
+  /**
+   * Set how long a borrower waits for a free connection.
+   */
+  public void setAcquireTimeout(long acquireTimeout) {
+    if (acquireTimeout > 0) {
+      this.acquireTimeout = acquireTimeout;
+    }
+  }
+
+  public boolean isValidateOnBorrow() {
+    return validateOnBorrow;
+  }
+
+  public void setValidateOnBorrow(boolean validateOnBorrow) {
+    this.validateOnBorrow = validateOnBorrow;
+  }
+
+  /**
+   * Get the validation timeout in seconds, as expected by
+   * {@link java.sql.Connection#isValid(int)}.
+   */
+  public int getValidationTimeout() {
+    return validationTimeout;
+  }
+
+  /**
+   * Set the validation timeout in seconds.
+   */
+  public void setValidationTimeout(int validationTimeout) {
+    if (validationTimeout >= 0) {
+      this.validationTimeout = validationTimeout;
+    }
+  }
+
+  public long getReconnectBackoff() {
+    return reconnectBackoff;
+  }
+
+  /**
+   * Set the initial delay after a failed connection attempt.
+   */
+  public void setReconnectBackoff(long reconnectBackoff) {
+    if (reconnectBackoff >= 0) {
+      this.reconnectBackoff = reconnectBackoff;
+    }
+  }
+
+  public long getMaxReconnectBackoff() {
+    return Math.max(maxReconnectBackoff, reconnectBackoff);
+  }
+
+  /**
+   * Set the upper bound for the doubling reconnect delay.
+   */
+  public void setMaxReconnectBackoff(long maxReconnectBackoff) {
+    if (maxReconnectBackoff >= 0) {
+      this.maxReconnectBackoff = maxReconnectBackoff;
+    }
+  }
+
+  public long getMaintenanceInterval() {
+    return maintenanceInterval;
+  }
+
+  /**
+   * Set how often idle connections are evicted and the minimum size restored.
+   */
+  public void setMaintenanceInterval(long maintenanceInterval) {
+    if (maintenanceInterval > 0) {
+      this.maintenanceInterval = maintenanceInterval;
+    }
+  }
+
+  public int getStatementCacheSize() {
+    return statementCacheSize;
+  }
+
+  /**
+   * Set how many prepared statements each pooled connection keeps open for
+   * reuse, 0 to close every statement after use.
+   */
+  public void setStatementCacheSize(int statementCacheSize) {
+    if (statementCacheSize >= 0) {
+      this.statementCacheSize = statementCacheSize;
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PoolSettings)) {
+      return false;
+    }
+    PoolSettings that = (PoolSettings) o;
+    return enabled == that.enabled
+        && minSize == that.minSize
+        && maxSize == that.maxSize
+        && idleTimeout == that.idleTimeout
+        && acquireTimeout == that.acquireTimeout
+        && validateOnBorrow == that.validateOnBorrow
+        && validationTimeout == that.validationTimeout
+        && reconnectBackoff == that.reconnectBackoff
+        && maxReconnectBackoff == that.maxReconnectBackoff
+        && maintenanceInterval == that.maintenanceInterval
+        && statementCacheSize == that.statementCacheSize;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(
+        enabled,
+        minSize,
+        maxSize,
+        idleTimeout,
+        acquireTimeout,
+        validateOnBorrow,
+        validationTimeout,
+        reconnectBackoff,
+        maxReconnectBackoff,
+        maintenanceInterval,
+        statementCacheSize
+    );
+  }
+}
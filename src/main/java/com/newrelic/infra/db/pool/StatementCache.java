@@ -0,0 +1,128 @@
+package com.newrelic.infra.db.pool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The prepared statements kept open on one pooled connection, so identical SQL
+ * is parsed and planned by the database once instead of on every run.
+ * <p>
+ * A statement is taken out of the cache while it is in use and put back when
+ * it is released, so two users never share one. The least recently used
+ * statement is closed when the cache is full. Only the thread that leased the
+ * connection uses its cache.
+ * </p>
+ */
+final class StatementCache {
+  private static final Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+  private final int maxSize;
+  private final Map<String, PreparedStatement> statements;
+  private final Map<PreparedStatement, String> inUse = new IdentityHashMap<>();
+
+  StatementCache(int maxSize) {
+    this.maxSize = maxSize;
+    this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+        if (size() > StatementCache.this.maxSize) {
+          closeQuietly(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Take a statement for the SQL and cursor options out of the cache, or
+   * prepare a new one.
+   */
+  PreparedStatement prepare(
+      Connection connection,
+      String sql,
+      int resultSetType,
+      int resultSetConcurrency
+  ) throws SQLException {
+    final String key = resultSetType + ":" + resultSetConcurrency + ":" + sql;
+    PreparedStatement statement = statements.remove(key);
+
+    if (statement == null || isClosed(statement)) {
+      statement = connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    inUse.put(statement, key);
+    return statement;
+  }
+
+  /**
+   * Put a statement back in the cache, or close it.
+   *
+   * @param statement Statement returned by {@link #prepare}
+   * @param discard   True if the statement failed and should not be reused
+   */
+  void release(PreparedStatement statement, boolean discard) {
+    final String key = inUse.remove(statement);
+
+    if (key == null || discard || maxSize == 0) {
+      closeQuietly(statement);
+      return;
+    }
+
+    try {
+      statement.clearParameters();
+      statement.clearWarnings();
+    } catch (SQLException e) {
+      closeQuietly(statement);
+      return;
+    }
+
+    final PreparedStatement replaced = statements.put(key, statement);
+    if (replaced != null && replaced != statement) {
+      closeQuietly(replaced);
+    }
+  }
+
+  /**
+   * Close every cached statement, after a connection failure or before the
+   * connection is closed.
+   */
+  void clear() {
+    final List<PreparedStatement> toClose = new ArrayList<>(statements.values());
+    toClose.addAll(inUse.keySet());
+    statements.clear();
+    inUse.clear();
+
+    for (PreparedStatement statement : toClose) {
+      closeQuietly(statement);
+    }
+  }
+
+  int size() {
+    return statements.size();
+  }
+
+  private static boolean isClosed(PreparedStatement statement) {
+    try {
+      return statement.isClosed();
+    } catch (SQLException | AbstractMethodError e) {
+      return true;
+    }
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      logger.debug("Error closing statement: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.newrelic.infra.db.sampling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps a uniform random sample of at most size rows (Algorithm R): every
+ * offered row has the same chance of being in the sample, whatever the number
+ * of rows turns out to be. Kept rows stay in the order they were offered.
+ *
+ * @param <T> The parsed row type
+ */
+public final class ReservoirSampler<T> extends RowSampler<T> {
+  private final Random random;
+  private final List<T> reservoir = new ArrayList<>();
+  private final List<Long> order = new ArrayList<>();
+
+  /**
+   * Create a sampler keeping at most size rows.
+   */
+  public ReservoirSampler(int size) {
+    this(size, ThreadLocalRandom.current());
+  }
+
+  ReservoirSampler(int size, Random random) {
+    super(size);
+    this.random = random;
+  }
+
+  @Override
+  protected void add(T row, double key, long count) {
+    if (reservoir.size() < size) {
+      reservoir.add(row);
+      order.add(count);
+      return;
+    }
+
+    // Replace a kept row with probability size / count
+    final long slot = (long) (random.nextDouble() * count);
+    if (slot < size) {
+      reservoir.set((int) slot, row);
+      order.set((int) slot, count);
+    }
+  }
+
+  @Override
+  public List<T> getRows() {
+    final List<Integer> slots = new ArrayList<>(reservoir.size());
+    for (int x = 0; x < reservoir.size(); x++) {
+      slots.add(x);
+    }
+    slots.sort((a, b) -> Long.compare(order.get(a), order.get(b)));
+
+    final List<T> rows = new ArrayList<>(slots.size());
+    for (final int slot : slots) {
+      rows.add(reservoir.get(slot));
+    }
+    return rows;
+  }
+
+  @Override
+  public int getKept() {
+    return reservoir.size();
+  }
+}
@@ -0,0 +1,79 @@
+package com.newrelic.infra.db.sampling;
+
+import java.util.List;
+
+/**
+ * Keeps a bounded sample of the rows offered to it, so a query can be read to
+ * the end without holding every row in memory.
+ * <p>
+ * Not thread safe, create one per run.
+ * </p>
+ *
+ * @param <T> The parsed row type
+ */
+public abstract class RowSampler<T> {
+  protected final int size;
+  private long offered = 0;
+
+  protected RowSampler(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Sample size must be at least 1");
+    }
+    this.size = size;
+  }
+
+  /**
+   * Create the sampler for a sample mode.
+   *
+   * @param mode How to pick the rows
+   * @param size Maximum number of rows to keep
+   * @return The sampler, or null for {@link SampleMode#NONE}
+   */
+  public static <T> RowSampler<T> create(SampleMode mode, int size) {
+    switch (mode) {
+      case TOPN:
+        return new TopNSampler<>(size);
+      case RESERVOIR:
+        return new ReservoirSampler<>(size);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Offer a row to the sample.
+   *
+   * @param row The parsed row
+   * @param key The value of the sample column, only used by top-N sampling
+   */
+  public void offer(T row, double key) {
+    offered += 1;
+    add(row, key, offered);
+  }
+
+  protected abstract void add(T row, double key, long count);
+
+  /**
+   * Get the rows kept by the sample.
+   */
+  public abstract List<T> getRows();
+
+  /**
+   * Get the number of rows offered so far.
+   */
+  public long getOffered() {
+    return offered;
+  }
+
+  /**
+   * Get the number of rows in the sample.
+   */
+  public abstract int getKept();
+
+  /**
+   * Get the number of offered rows that are not in the sample.
+   */
+  public long getDropped() {
+    return offered - getKept();
+  }
+}
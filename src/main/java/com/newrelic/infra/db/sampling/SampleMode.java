@@ -0,0 +1,35 @@
+package com.newrelic.infra.db.sampling;
+
+import java.util.Locale;
+
+/**
+ * How a command picks the rows it reports when a query returns more rows than
+ * it should report.
+ */
+public enum SampleMode {
+  /**
+   * Report every row.
+   */
+  NONE,
+
+  /**
+   * Report the rows with the largest value in the sample column.
+   */
+  TOPN,
+
+  /**
+   * Report a uniform random sample of the rows.
+   */
+  RESERVOIR;
+
+  /**
+   * Parse a mode name, case insensitive.
+   *
+   * @param name Mode name from the configuration
+   * @return The matching mode
+   * @throws IllegalArgumentException If the name is not a known mode
+   */
+  public static SampleMode fromString(String name) {
+    return SampleMode.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+  }
+}
@@ -0,0 +1,76 @@
+package com.newrelic.infra.db.sampling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the rows with the largest keys in a min-heap of at most size entries,
+ * so each row costs O(log size) and memory does not grow with the result.
+ * Rows with equal keys are kept in the order they were offered. A NaN key
+ * ranks below every other key.
+ *
+ * @param <T> The parsed row type
+ */
+public final class TopNSampler<T> extends RowSampler<T> {
+  private final Comparator<Entry<T>> smallestFirst = (a, b) -> {
+    final int byKey = Double.compare(a.key, b.key);
+    // On equal keys the row offered last is the first to go
+    return byKey != 0 ? byKey : Long.compare(b.count, a.count);
+  };
+  private final PriorityQueue<Entry<T>> heap;
+
+  private static final class Entry<T> {
+    private final T row;
+    private final double key;
+    private final long count;
+
+    private Entry(T row, double key, long count) {
+      this.row = row;
+      this.key = Double.isNaN(key) ? Double.NEGATIVE_INFINITY : key;
+      this.count = count;
+    }
+  }
+
+  /**
+   * Create a sampler keeping at most size rows.
+   */
+  public TopNSampler(int size) {
+    super(size);
+    this.heap = new PriorityQueue<>(Math.min(size, 1024) + 1, smallestFirst);
+  }
+
+  @Override
+  protected void add(T row, double key, long count) {
+    final Entry<T> entry = new Entry<>(row, key, count);
+
+    if (heap.size() < size) {
+      heap.add(entry);
+    } else if (smallestFirst.compare(entry, heap.peek()) > 0) {
+      heap.poll();
+      heap.add(entry);
+    }
+  }
+
+  /**
+   * Get the kept rows, largest key first.
+   */
+  @Override
+  public List<T> getRows() {
+    final List<Entry<T>> entries = new ArrayList<>(heap);
+    entries.sort(Collections.reverseOrder(smallestFirst));
+
+    final List<T> rows = new ArrayList<>(entries.size());
+    for (final Entry<T> entry : entries) {
+      rows.add(entry.row);
+    }
+    return rows;
+  }
+
+  @Override
+  public int getKept() {
+    return heap.size();
+  }
+}
@@ -0,0 +1,64 @@
+package com.newrelic.infra.db.scheduler;
+
+/**
+ * Settings for the {@link CircuitBreaker}s that stop failing commands and
+ * unreachable databases from being retried on every run. All durations are in
+ * milliseconds.
+ */
+public class BreakerSettings {
+  private static final int defaultFailureThreshold = 3;
+  private static final long defaultBackoff = 30000L;
+  private static final long defaultMaxBackoff = 900000L;
+
+  private int failureThreshold = defaultFailureThreshold;
+  private long backoff = defaultBackoff;
+  private long maxBackoff = defaultMaxBackoff;
+
+  /**
+   * Whether breakers are in use at all.
+   */
+  public boolean isEnabled() {
+    return failureThreshold > 0;
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  /**
+   * Set how many runs in a row must fail before the breaker opens, 0 to never
+   * open it.
+   */
+  public void setFailureThreshold(int failureThreshold) {
+    if (failureThreshold >= 0) {
+      this.failureThreshold = failureThreshold;
+    }
+  }
+
+  public long getBackoff() {
+    return backoff;
+  }
+
+  /**
+   * Set how long the breaker stays open the first time. Every failed probe
+   * doubles it.
+   */
+  public void setBackoff(long backoff) {
+    if (backoff > 0) {
+      this.backoff = backoff;
+    }
+  }
+
+  /**
+   * Get the longest time the breaker stays open, never less than the backoff.
+   */
+  public long getMaxBackoff() {
+    return Math.max(maxBackoff, backoff);
+  }
+
+  public void setMaxBackoff(long maxBackoff) {
+    if (maxBackoff > 0) {
+      this.maxBackoff = maxBackoff;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.newrelic.infra.db.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calling something that keeps failing.
+ * <p>
+ * The breaker starts closed and lets every call through. After
+ * failureThreshold failures in a row it opens and refuses calls for the
+ * backoff. Once that has passed it is half open: a single probe call is let
+ * through, and its outcome either closes the breaker or opens it again for
+ * twice as long, up to the max backoff. A probe whose outcome is never
+ * recorded, because its run was abandoned, expires after the current backoff.
+ * </p>
+ */
+public class CircuitBreaker {
+  private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  /**
+   * The states of a breaker.
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+  private final BreakerSettings settings;
+
+  // All of the following are guarded by "this"
+  private State state = State.CLOSED;
+  private int failures = 0;
+  private long backoff = 0;
+  private long openUntil = 0;
+
+  /**
+   * Create a closed breaker.
+   *
+   * @param name     What the breaker protects, used for logging
+   * @param settings Threshold and backoff settings
+   */
+  public CircuitBreaker(String name, BreakerSettings settings) {
+    this.name = name;
+    this.settings = settings;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Whether a call would be let through right now, without claiming the
+   * half open probe.
+   */
+  public boolean isCallPermitted() {
+    return isCallPermitted(System.currentTimeMillis());
+  }
+
+  synchronized boolean isCallPermitted(long now) {
+    return state == State.CLOSED || now >= openUntil;
+  }
+
+  /**
+   * Ask to make a call. In the half open state only the first caller is let
+   * through as the probe.
+   *
+   * @return True if the call may be made, its outcome must then be recorded
+   */
+  public boolean tryAcquire() {
+    return tryAcquire(System.currentTimeMillis());
+  }
+
+  synchronized boolean tryAcquire(long now) {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    if (now < openUntil) {
+      return false;
+    }
+
+    if (state == State.OPEN) {
+      logger.info("Circuit for [" + name + "] is half open, probing");
+      state = State.HALF_OPEN;
+    }
+    // Until the probe reports back, or its lease expires, nobody else gets in
+    openUntil = now + backoff;
+    return true;
+  }
+
+  /**
+   * Record a call that succeeded, closing the breaker.
+   */
+  public synchronized void recordSuccess() {
+    if (state != State.CLOSED) {
+      logger.info("Circuit for [" + name + "] closed, calls succeed again");
+    }
+    state = State.CLOSED;
+    failures = 0;
+    backoff = 0;
+    openUntil = 0;
+  }
+
+  /**
+   * Record a call that failed, opening the breaker if there were enough
+   * failures in a row or if the call was the half open probe.
+   */
+  public void recordFailure() {
+    recordFailure(System.currentTimeMillis());
+  }
+
+  synchronized void recordFailure(long now) {
+    failures += 1;
+
+    if (!settings.isEnabled()) {
+      return;
+    }
+
+    if (state == State.CLOSED && failures >= settings.getFailureThreshold()) {
+      backoff = settings.getBackoff();
+    } else if (state != State.CLOSED) {
+      backoff = Math.min(backoff * 2, settings.getMaxBackoff());
+    } else {
+      return;
+    }
+
+    state = State.OPEN;
+    openUntil = now + backoff;
+    logger.warn(
+        "Circuit for [" + name + "] opened after " + failures
+        + " failures in a row, retrying in " + backoff + "ms"
+    );
+  }
+}
@@ -0,0 +1,333 @@
+package com.newrelic.infra.db.scheduler;
+
+import com.newrelic.infra.db.command.DatabaseCommand;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs commands that have their own collection interval, independent of the
+ * harvest cycle.
+ * <p>
+ * A single timer thread decides when a command is due and hands the run to the
+ * agent's worker pool, so a slow command never delays the timer. Commands that
+ * share an interval are given evenly spread start offsets so they do not all
+ * hit the database at the same instant.
+ * </p>
+ */
+public class CommandScheduler {
+  private static final Logger logger = LoggerFactory.getLogger(CommandScheduler.class);
+  private static final int maxAdaptiveIntervalFactor = 16;
+
+  /**
+   * A scheduled command and the state of its most recent run.
+   */
+  private final class Entry implements Runnable {
+    private final DatabaseCommand command;
+    private final long interval;
+    private final OverlapPolicy policy;
+    private final Runnable job;
+
+    // Guarded by "this"
+    private long nextFire;
+    private long period;
+    private Future<?> running = null;
+    private boolean executing = false;
+    private boolean queued = false;
+    private long queuedDue = 0;
+    private boolean removed = false;
+
+    private Entry(DatabaseCommand command, long interval, OverlapPolicy policy, Runnable job) {
+      this.command = command;
+      this.interval = interval;
+      this.policy = policy;
+      this.job = job;
+      this.period = interval;
+    }
+
+    /**
+     * Called by the timer when the command is due.
+     */
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (removed) {
+          return;
+        }
+        if (running != null && !running.isDone()) {
+          switch (policy) {
+            case QUEUE:
+              logger.debug("[" + command.getName() + "] still running, queueing next run");
+              queued = true;
+              queuedDue = nextFire;
+              break;
+            case CANCEL:
+              if (!executing) {
+                // Still waiting for a worker, replace it
+                running.cancel(false);
+                submit(nextFire);
+                break;
+              }
+              // Never interrupt the worker, an interrupted JDBC call can leave
+              // the connection broken. The next run starts once this one has
+              // ended and let go of the command.
+              logger.warn("[" + command.getName() + "] still running, cancelling it");
+              command.timeOut();
+              queued = true;
+              queuedDue = nextFire;
+              break;
+            case SKIP:
+            default:
+              logger.warn("[" + command.getName() + "] still running, skipping this run");
+              break;
+          }
+        } else {
+          submit(nextFire);
+        }
+
+        // If the timer fell behind, skip the missed runs but keep the offset
+        final long now = System.currentTimeMillis();
+        do {
+          nextFire += period;
+        } while (nextFire <= now);
+      }
+      reschedule(this);
+    }
+
+    private void execute(long due) {
+      synchronized (this) {
+        executing = true;
+      }
+
+      try {
+        command.setDueTime(due);
+        job.run();
+      } catch (RuntimeException e) {
+        logger.error("Error Running Command [" + command.getName() + "]", e);
+      } finally {
+        synchronized (this) {
+          executing = false;
+          adapt();
+          if (queued) {
+            queued = false;
+            submit(queuedDue);
+          }
+        }
+      }
+    }
+
+    // Must hold the lock on "this"
+    private void adapt() {
+      if (adaptiveIntervalShare <= 0) {
+        return;
+      }
+
+      final long runtime = TimeUnit.NANOSECONDS.toMillis(command.getStats().getRunNanos());
+      final long adapted = adaptInterval(interval, period, runtime, adaptiveIntervalShare);
+
+      if (adapted != period) {
+        logger.info(
+            "[" + command.getName() + "] took " + runtime + "ms, running it every "
+            + adapted + "ms instead of every " + period + "ms"
+        );
+        period = adapted;
+      }
+    }
+
+    // Must hold the lock on "this"
+    private void submit(long due) {
+      try {
+        running = workers.submit(() -> execute(due));
+      } catch (RejectedExecutionException e) {
+        logger.debug("[" + command.getName() + "] not run, scheduler is shutting down");
+      }
+    }
+  }
+
+  private final ExecutorService workers;
+  private final ScheduledExecutorService timer;
+  private final List<Entry> entries = new ArrayList<>();
+  private volatile boolean stopped = false;
+  private boolean started = false;
+  private volatile double adaptiveIntervalShare = 0;
+
+  /**
+   * Create a scheduler that runs commands on the given worker pool.
+   *
+   * @param name    Used to name the timer thread
+   * @param workers Pool the command runs are submitted to
+   */
+  public CommandScheduler(String name, ExecutorService workers) {
+    this.workers = workers;
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "nri-db-" + name + "-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Set the share of its interval a command may spend running before its
+   * interval is lengthened, 0 to always keep the configured interval.
+   */
+  public void setAdaptiveIntervalShare(double adaptiveIntervalShare) {
+    this.adaptiveIntervalShare = Math.max(0, adaptiveIntervalShare);
+  }
+
+  /**
+   * Work out the period of a command from how long its last run took. A run
+   * that takes more than the given share of the current period lengthens it
+   * straight away, so the command spends at most that share of its time
+   * running. Faster runs shorten it again, by at most half per run. The
+   * period stays between the configured interval and 16 times that.
+   *
+   * @param interval Configured interval
+   * @param current  Current period
+   * @param runtime  How long the last run took
+   * @param share    Share of the period a run may take, 0 to disable
+   * @return The period until the next run
+   */
+  public static long adaptInterval(long interval, long current, long runtime, double share) {
+    if (share <= 0 || interval <= 0) {
+      return interval;
+    }
+
+    final long target = (long) Math.ceil(runtime / share);
+    final long adapted = runtime > current * share
+        ? target
+        : Math.max(target, current / 2);
+
+    return Math.max(interval, Math.min(adapted, interval * maxAdaptiveIntervalFactor));
+  }
+
+  /**
+   * Add a command to the schedule. Call {@link #start()} once all commands are
+   * added so the start offsets can be spread out. A command added after the
+   * start runs straight away and then on its own interval.
+   *
+   * @param command  The command, used for logging and cancellation
+   * @param interval Collection interval in milliseconds
+   * @param policy   What to do if a run is still in flight when the next is due
+   * @param job      The work to do on every run
+   */
+  public synchronized void schedule(
+      DatabaseCommand command,
+      long interval,
+      OverlapPolicy policy,
+      Runnable job
+  ) {
+    final Entry entry = new Entry(command, interval, policy, job);
+    entries.add(entry);
+
+    if (started) {
+      synchronized (entry) {
+        entry.nextFire = System.currentTimeMillis();
+      }
+      logger.info("Scheduling [" + command.getName() + "] every " + interval + "ms");
+      reschedule(entry);
+    }
+  }
+
+  /**
+   * Take a command off the schedule. A run in flight is left to finish.
+   *
+   * @return True if the command was scheduled
+   */
+  public synchronized boolean unschedule(DatabaseCommand command) {
+    for (int x = 0; x < entries.size(); x++) {
+      final Entry entry = entries.get(x);
+
+      if (entry.command == command) {
+        synchronized (entry) {
+          entry.removed = true;
+          entry.queued = false;
+        }
+        entries.remove(x);
+        logger.info("Unscheduled [" + command.getName() + "]");
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Start the timer. Commands that share an interval are staggered evenly across
+   * that interval. Does nothing if the timer is already running.
+   */
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    started = true;
+
+    for (int x = 0; x < entries.size(); x++) {
+      final Entry entry = entries.get(x);
+      int slot = 0;
+      int slots = 0;
+
+      for (int y = 0; y < entries.size(); y++) {
+        if (entries.get(y).interval == entry.interval) {
+          if (y < x) {
+            slot += 1;
+          }
+          slots += 1;
+        }
+      }
+
+      synchronized (entry) {
+        entry.nextFire = now + entry.interval * slot / slots;
+      }
+      logger.info(
+          "Scheduling [" + entry.command.getName() + "] every " + entry.interval
+          + "ms, starting in " + (entry.interval * slot / slots) + "ms"
+      );
+      reschedule(entry);
+    }
+  }
+
+  /**
+   * Stop the timer and cancel any command that is still running.
+   */
+  public synchronized void shutdown() {
+    stopped = true;
+    timer.shutdownNow();
+
+    for (final Entry entry : entries) {
+      synchronized (entry) {
+        entry.queued = false;
+        if (entry.running != null && !entry.running.isDone()) {
+          entry.command.cancel();
+          entry.running.cancel(false);
+        }
+      }
+    }
+  }
+
+  private void reschedule(Entry entry) {
+    if (stopped) {
+      return;
+    }
+
+    long delay;
+    synchronized (entry) {
+      if (entry.removed) {
+        return;
+      }
+      delay = Math.max(0, entry.nextFire - System.currentTimeMillis());
+    }
+
+    try {
+      timer.schedule(entry, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      logger.debug("[" + entry.command.getName() + "] not rescheduled, scheduler is stopped");
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.newrelic.infra.db.scheduler;
+
+import java.util.Locale;
+
+/**
+ * What to do when a command is due while its previous run is still in flight.
+ */
+public enum OverlapPolicy {
+  /**
+   * Drop the new run and let the previous one finish.
+   */
+  SKIP,
+
+  /**
+   * Run again as soon as the previous run finishes. At most one run is queued.
+   */
+  QUEUE,
+
+  /**
+   * Cancel the previous run and start a new one as soon as it has stopped.
+   */
+  CANCEL;
+
+  /**
+   * Parse a policy name, case insensitive.
+   *
+   * @param name Policy name from the configuration
+   * @return The matching policy
+   * @throws IllegalArgumentException If the name is not a known policy
+   */
+  public static OverlapPolicy fromString(String name) {
+    return OverlapPolicy.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+  }
+}
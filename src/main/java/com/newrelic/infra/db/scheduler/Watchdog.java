@@ -0,0 +1,64 @@
+package com.newrelic.infra.db.scheduler;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enforces time limits on work that cannot bound itself, such as a query that
+ * is stuck waiting on a lock. A single timer thread, shared by every agent,
+ * runs the timeout action of any watch that is not cancelled in time.
+ */
+public final class Watchdog {
+  private static final Logger logger = LoggerFactory.getLogger(Watchdog.class);
+
+  private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+      1,
+      runnable -> {
+        Thread thread = new Thread(runnable, "nri-db-watchdog");
+        thread.setDaemon(true);
+        return thread;
+      }
+  );
+
+  static {
+    // Almost every watch is cancelled, do not keep them around until they expire
+    timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Prevent the class from being constructed.
+   */
+  private Watchdog() {
+  }
+
+  /**
+   * Run an action if the watch is not cancelled within the time limit. The
+   * action runs on the watchdog thread and must not block for long.
+   *
+   * @param timeout   Time limit in milliseconds
+   * @param onTimeout What to do when the time limit is exceeded, normally
+   *                  cancel a statement
+   * @return The watch, cancel it once the work is done
+   */
+  public static ScheduledFuture<?> watch(long timeout, Runnable onTimeout) {
+    return timer.schedule(() -> {
+      try {
+        onTimeout.run();
+      } catch (RuntimeException e) {
+        logger.error("Error Running Timeout Action", e);
+      }
+    }, Math.max(0, timeout), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancel a watch, safe to call with null.
+   */
+  public static void cancel(ScheduledFuture<?> watch) {
+    if (watch != null) {
+      watch.cancel(false);
+    }
+  }
+}
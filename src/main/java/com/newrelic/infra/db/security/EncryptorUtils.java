@@ -10,12 +10,15 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
 import org.jasypt.encryption.pbe.config.SimplePBEConfig;
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.jasypt.properties.PropertyValueEncryptionUtils;
 
 /**
@@ -31,6 +34,13 @@ public class EncryptorUtils {
   private static final String CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789~`!@#$%^&*()-_=+[{]}\\|;:\'\",<.>/?";
   private static final String ENCRYPTION_PASSWORD_PROPERTY_NAME = "encryptionPassword";
   private static final String ENCRYPTION_ALGORITHM = "PBEWITHMD5ANDDES";
+  private static final long REFRESH_INTERVAL = 60000L;
+  private static final String ENV_VERSION = "env";
+
+  private static StandardPBEStringEncryptor encryptor = null;
+  private static String encryptorPassword = null;
+  private static String passwordFileVersion = null;
+  private static long checkedAt = 0;
   
   /**
    * Result codes that can be returned from {@link EncryptorUtils#checkEncryptionPasswordFile()}.
@@ -41,8 +51,74 @@ public class EncryptorUtils {
     INSECURE
   }
 
+  /**
+   * Get the shared encryptor. It is built once and reused by every agent, an
+   * initialized encryptor is thread safe. Once the refresh interval has passed
+   * the password file is checked again: it must still be secured, and the
+   * encryptor is rebuilt if the password in it changed.
+   */
   private static StandardPBEStringEncryptor getDecryptor() throws IOException {
-    String encryptionPassword = getEncryptionPassword();
+    return getDecryptor(ENCRYPTION_PASSWORD_FILE_PATH, System.currentTimeMillis());
+  }
+
+  static synchronized StandardPBEStringEncryptor getDecryptor(
+      Path file,
+      long now
+  ) throws IOException {
+    if (encryptor != null && now - checkedAt < REFRESH_INTERVAL) {
+      return encryptor;
+    }
+
+    try {
+      final String version = getPasswordFileVersion(file);
+
+      if (encryptor != null && version.equals(passwordFileVersion)) {
+        if (!ENV_VERSION.equals(version)) {
+          // Permissions can be loosened without changing the time or size
+          requireSecuredPasswordFile(file);
+        }
+      } else {
+        final String encryptionPassword = getEncryptionPassword(file);
+        if (encryptor == null || !encryptionPassword.equals(encryptorPassword)) {
+          encryptor = createEncryptor(encryptionPassword);
+          encryptorPassword = encryptionPassword;
+        }
+        passwordFileVersion = version;
+      }
+      checkedAt = now;
+      return encryptor;
+    } catch (IOException e) {
+      // Nothing is decrypted with a password that is no longer secured
+      clearCache();
+      throw e;
+    }
+  }
+
+  /**
+   * Forget the shared encryptor, so the next use reads the password again.
+   */
+  static synchronized void clearCache() {
+    encryptor = null;
+    encryptorPassword = null;
+    passwordFileVersion = null;
+    checkedAt = 0;
+  }
+
+  /**
+   * Describe the current password source cheaply, so a change can be noticed
+   * without reading the password file.
+   */
+  private static String getPasswordFileVersion(Path file) throws IOException {
+    if (System.getenv(EncryptorUtils.NRIDB_ENCRYPTION_PASSWORD_ENV_VAR_NAME) != null) {
+      return ENV_VERSION;
+    }
+    if (!Files.exists(file)) {
+      return "missing";
+    }
+    return Files.getLastModifiedTime(file).toMillis() + " " + Files.size(file);
+  }
+
+  private static StandardPBEStringEncryptor createEncryptor(String encryptionPassword) {
     SimplePBEConfig config = new SimplePBEConfig();
     config.setAlgorithm(ENCRYPTION_ALGORITHM);
     config.setKeyObtentionIterations(1000);
@@ -62,6 +138,41 @@ public class EncryptorUtils {
   public static String decrypt(String encryptedText) throws IOException {
     return PropertyValueEncryptionUtils.decrypt(encryptedText, getDecryptor());
   }
+
+  /**
+   * Decrypt several properties of an agent in one go, with a single lookup of
+   * the encryptor. Properties that are not set are left out of the result.
+   *
+   * @param properties The agent properties
+   * @param names      Names of the encrypted properties
+   * @return The clear text of each property that is set, by name
+   * @throws IOException if the encryption password is not available, or a
+   *         property cannot be decrypted with it.
+   */
+  public static Map<String, String> decryptAll(
+      Map<String, Object> properties,
+      String... names
+  ) throws IOException {
+    final Map<String, String> decrypted = new HashMap<>();
+    StandardPBEStringEncryptor decryptor = null;
+
+    for (final String name : names) {
+      final Object value = properties.get(name);
+      if (value == null) {
+        continue;
+      }
+      if (decryptor == null) {
+        decryptor = getDecryptor();
+      }
+
+      try {
+        decrypted.put(name, PropertyValueEncryptionUtils.decrypt((String) value, decryptor));
+      } catch (EncryptionOperationNotPossibleException e) {
+        throw new IOException("Unable to decrypt '" + name + "'", e);
+      }
+    }
+    return decrypted;
+  }
   
   /**
    * Check if the encryption password file exists and is properly secured.
@@ -69,14 +180,20 @@ public class EncryptorUtils {
    * @return a {@link EncryptionPasswordFileCheckResult}.
    */
   public static EncryptionPasswordFileCheckResult checkEncryptionPasswordFile() throws IOException {
-    File file = ENCRYPTION_PASSWORD_FILE_PATH.toFile();
+    return checkEncryptionPasswordFile(ENCRYPTION_PASSWORD_FILE_PATH);
+  }
+
+  static EncryptionPasswordFileCheckResult checkEncryptionPasswordFile(
+      Path path
+  ) throws IOException {
+    File file = path.toFile();
     
     if (!file.exists()) {
       return EncryptionPasswordFileCheckResult.MISSING;
     }
     
     PosixFileAttributeView posix = Files.getFileAttributeView(
-        ENCRYPTION_PASSWORD_FILE_PATH,
+        path,
         PosixFileAttributeView.class
     );
 
@@ -151,6 +268,10 @@ public class EncryptorUtils {
    *         does not contain a valid password, or cannot be read.
    */
   public static String getEncryptionPassword() throws IOException {
+    return getEncryptionPassword(ENCRYPTION_PASSWORD_FILE_PATH);
+  }
+
+  private static String getEncryptionPassword(Path file) throws IOException {
     /* 
      * Check to see if the encryption password was provided via an
      * environment variable.
@@ -166,32 +287,34 @@ public class EncryptorUtils {
     /*
      * Get the encryption password from the encryption password file.
      */
-    EncryptionPasswordFileCheckResult result = checkEncryptionPasswordFile();
-    
-    if (result != EncryptionPasswordFileCheckResult.OK) {
-      throw new IOException(String.format(
-          "The encryption password file at %s is either missing or not properly secured.",
-          ENCRYPTION_PASSWORD_FILE_PATH.toString()
-      ));
-    }
+    requireSecuredPasswordFile(file);
 
     Properties props = new Properties();
-    props.load(
-        new InputStreamReader(
-            Files.newInputStream(ENCRYPTION_PASSWORD_FILE_PATH, StandardOpenOption.READ),
-            "utf-8"
-        )
-    );
+    try (InputStreamReader reader = new InputStreamReader(
+        Files.newInputStream(file, StandardOpenOption.READ),
+        "utf-8"
+    )) {
+      props.load(reader);
+    }
 
     encryptionPassword = props.getProperty(ENCRYPTION_PASSWORD_PROPERTY_NAME);
     
     if (encryptionPassword == null || encryptionPassword.trim().equalsIgnoreCase("")) {
       throw new IOException(String.format(
           "The encryption password file at %s does not contain a valid password.",
-          ENCRYPTION_PASSWORD_FILE_PATH.toString()
+          file.toString()
       ));
     }
     
     return encryptionPassword;
   }
+
+  private static void requireSecuredPasswordFile(Path file) throws IOException {
+    if (checkEncryptionPasswordFile(file) != EncryptionPasswordFileCheckResult.OK) {
+      throw new IOException(String.format(
+          "The encryption password file at %s is either missing or not properly secured.",
+          file.toString()
+      ));
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package com.newrelic.infra.db.state;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot of what a command has to remember between runs: the watermark
+ * fed back into parameterized queries and the hashes of rows already reported.
+ */
+public final class CommandState {
+  private final List<String> parameterColumns;
+  private final List<Object> parameterValues;
+  private final long[] rowHashes;
+  private final int[] rowCounts;
+
+  /**
+   * Create a snapshot. The lists are copied, the arrays are kept as given.
+   */
+  public CommandState(
+      List<String> parameterColumns,
+      List<Object> parameterValues,
+      long[] rowHashes,
+      int[] rowCounts
+  ) {
+    if (rowHashes.length != rowCounts.length) {
+      throw new IllegalArgumentException("Row hashes and counts differ in length");
+    }
+    this.parameterColumns = Collections.unmodifiableList(new ArrayList<>(parameterColumns));
+    this.parameterValues = Collections.unmodifiableList(new ArrayList<>(parameterValues));
+    this.rowHashes = rowHashes;
+    this.rowCounts = rowCounts;
+  }
+
+  public List<String> getParameterColumns() {
+    return parameterColumns;
+  }
+
+  public List<Object> getParameterValues() {
+    return parameterValues;
+  }
+
+  public int getRowCount() {
+    return rowHashes.length;
+  }
+
+  public long getRowHash(int index) {
+    return rowHashes[index];
+  }
+
+  public int getRowHits(int index) {
+    return rowCounts[index];
+  }
+}
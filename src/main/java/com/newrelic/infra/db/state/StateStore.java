@@ -0,0 +1,345 @@
+package com.newrelic.infra.db.state;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the state of an agent's commands in a local file so it survives
+ * restarts.
+ * <p>
+ * Every save writes a complete snapshot to a temporary file, syncs it to disk
+ * and renames it over the previous one, so a crash at any point leaves either
+ * the old or the new snapshot behind, never a mix. The snapshot ends with a
+ * CRC32 of its contents; a file that fails the check is ignored.
+ * </p>
+ */
+public class StateStore {
+  private static final Logger logger = LoggerFactory.getLogger(StateStore.class);
+
+  private static final int MAGIC = 0x4e524442; // "NRDB"
+  private static final int VERSION = 1;
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_STRING = 1;
+  private static final byte TYPE_INTEGER = 2;
+  private static final byte TYPE_LONG = 3;
+  private static final byte TYPE_DOUBLE = 4;
+  private static final byte TYPE_FLOAT = 5;
+  private static final byte TYPE_BOOLEAN = 6;
+  private static final byte TYPE_BIG_DECIMAL = 7;
+  private static final byte TYPE_BIG_INTEGER = 8;
+  private static final byte TYPE_TIMESTAMP = 9;
+  private static final byte TYPE_SQL_DATE = 10;
+  private static final byte TYPE_TIME = 11;
+  private static final byte TYPE_DATE = 12;
+  private static final byte TYPE_SHORT = 13;
+  private static final byte TYPE_BYTES = 14;
+
+  private final Path file;
+  private final Path tempFile;
+
+  /**
+   * Create a store backed by the given file. Nothing is read or written yet.
+   */
+  public StateStore(Path file) {
+    this.file = file;
+    this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Read the saved command states.
+   *
+   * @return The states by command key, empty if there is no usable snapshot
+   */
+  public Map<String, CommandState> load() {
+    final byte[] data;
+    try {
+      data = Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      return new LinkedHashMap<>();
+    } catch (IOException e) {
+      logger.warn("Unable to read state file [" + file + "], starting fresh", e);
+      return new LinkedHashMap<>();
+    }
+
+    try {
+      return decode(data);
+    } catch (IOException e) {
+      logger.warn("Ignoring damaged state file [" + file + "]: " + e.getMessage());
+      return new LinkedHashMap<>();
+    }
+  }
+
+  /**
+   * Replace the saved snapshot with the given command states.
+   */
+  public void save(Map<String, CommandState> states) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(buffer);
+
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(states.size());
+    for (Map.Entry<String, CommandState> entry : states.entrySet()) {
+      writeState(out, entry.getKey(), entry.getValue());
+    }
+    out.flush();
+
+    final CRC32 crc = new CRC32();
+    crc.update(buffer.toByteArray(), 0, buffer.size());
+    out.writeLong(crc.getValue());
+    out.flush();
+
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+
+    try (FileChannel channel = FileChannel.open(
+        tempFile,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING
+    )) {
+      final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      channel.force(true);
+    }
+
+    try {
+      Files.move(
+          tempFile,
+          file,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING
+      );
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private Map<String, CommandState> decode(byte[] data) throws IOException {
+    if (data.length < 20) {
+      throw new EOFException("File is truncated");
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length - 8);
+    final long expected = ByteBuffer.wrap(data, data.length - 8, 8).getLong();
+    if (crc.getValue() != expected) {
+      throw new IOException("Checksum mismatch");
+    }
+
+    final DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(data, 0, data.length - 8)
+    );
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a state file");
+    }
+    final int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported version " + version);
+    }
+
+    final int count = in.readInt();
+    final Map<String, CommandState> states = new LinkedHashMap<>();
+    for (int x = 0; x < count; x++) {
+      final String key = in.readUTF();
+      states.put(key, readState(in));
+    }
+    return states;
+  }
+
+  private void writeState(DataOutputStream out, String key, CommandState state)
+      throws IOException {
+    out.writeUTF(key);
+
+    out.writeInt(state.getParameterColumns().size());
+    for (String column : state.getParameterColumns()) {
+      out.writeUTF(column);
+    }
+
+    out.writeInt(state.getParameterValues().size());
+    for (Object value : state.getParameterValues()) {
+      writeValue(out, value);
+    }
+
+    out.writeInt(state.getRowCount());
+    for (int x = 0; x < state.getRowCount(); x++) {
+      out.writeLong(state.getRowHash(x));
+      out.writeInt(state.getRowHits(x));
+    }
+  }
+
+  private CommandState readState(DataInputStream in) throws IOException {
+    final int columnCount = in.readInt();
+    final List<String> columns = new ArrayList<>(columnCount);
+    for (int x = 0; x < columnCount; x++) {
+      columns.add(in.readUTF());
+    }
+
+    final int valueCount = in.readInt();
+    final List<Object> values = new ArrayList<>(valueCount);
+    for (int x = 0; x < valueCount; x++) {
+      values.add(readValue(in));
+    }
+
+    final int rowCount = in.readInt();
+    final long[] hashes = new long[rowCount];
+    final int[] counts = new int[rowCount];
+    for (int x = 0; x < rowCount; x++) {
+      hashes[x] = in.readLong();
+      counts[x] = in.readInt();
+    }
+
+    return new CommandState(columns, values, hashes, counts);
+  }
+
+  /**
+   * Write a watermark value, keeping its type so it binds to the query the
+   * same way after a restart. Unknown types are kept as their string form.
+   */
+  private void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(TYPE_NULL);
+    } else if (value instanceof String) {
+      out.writeByte(TYPE_STRING);
+      writeLongString(out, (String) value);
+    } else if (value instanceof Integer) {
+      out.writeByte(TYPE_INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(TYPE_LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Short) {
+      out.writeByte(TYPE_SHORT);
+      out.writeShort((Short) value);
+    } else if (value instanceof Double) {
+      out.writeByte(TYPE_DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Float) {
+      out.writeByte(TYPE_FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(TYPE_BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof BigDecimal) {
+      out.writeByte(TYPE_BIG_DECIMAL);
+      writeLongString(out, value.toString());
+    } else if (value instanceof BigInteger) {
+      out.writeByte(TYPE_BIG_INTEGER);
+      writeLongString(out, value.toString());
+    } else if (value instanceof Timestamp) {
+      out.writeByte(TYPE_TIMESTAMP);
+      out.writeLong(((Timestamp) value).getTime());
+      out.writeInt(((Timestamp) value).getNanos());
+    } else if (value instanceof java.sql.Date) {
+      out.writeByte(TYPE_SQL_DATE);
+      out.writeLong(((java.sql.Date) value).getTime());
+    } else if (value instanceof Time) {
+      out.writeByte(TYPE_TIME);
+      out.writeLong(((Time) value).getTime());
+    } else if (value instanceof Date) {
+      out.writeByte(TYPE_DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (value instanceof byte[]) {
+      out.writeByte(TYPE_BYTES);
+      out.writeInt(((byte[]) value).length);
+      out.write((byte[]) value);
+    } else {
+      logger.warn(
+          "Saving watermark of type [" + value.getClass().getName() + "] as a string"
+      );
+      out.writeByte(TYPE_STRING);
+      writeLongString(out, value.toString());
+    }
+  }
+
+  private Object readValue(DataInputStream in) throws IOException {
+    final byte type = in.readByte();
+
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_STRING:
+        return readLongString(in);
+      case TYPE_INTEGER:
+        return in.readInt();
+      case TYPE_LONG:
+        return in.readLong();
+      case TYPE_SHORT:
+        return in.readShort();
+      case TYPE_DOUBLE:
+        return in.readDouble();
+      case TYPE_FLOAT:
+        return in.readFloat();
+      case TYPE_BOOLEAN:
+        return in.readBoolean();
+      case TYPE_BIG_DECIMAL:
+        return new BigDecimal(readLongString(in));
+      case TYPE_BIG_INTEGER:
+        return new BigInteger(readLongString(in));
+      case TYPE_TIMESTAMP:
+        final Timestamp timestamp = new Timestamp(in.readLong());
+        timestamp.setNanos(in.readInt());
+        return timestamp;
+      case TYPE_SQL_DATE:
+        return new java.sql.Date(in.readLong());
+      case TYPE_TIME:
+        return new Time(in.readLong());
+      case TYPE_DATE:
+        return new Date(in.readLong());
+      case TYPE_BYTES:
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+      default:
+        throw new IOException("Unknown value type " + type);
+    }
+  }
+
+  /**
+   * Write a string without the 64K limit of writeUTF.
+   */
+  private void writeLongString(DataOutputStream out, String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private String readLongString(DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,57 @@
+package com.newrelic.infra.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test for DatabaseHost.
+ */
+public class DatabaseHostTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testParse() throws Exception {
+    assertEquals(new DatabaseHost("db1", 1433), DatabaseHost.parse("db1", 1433));
+    assertEquals(new DatabaseHost("db2", 1434), DatabaseHost.parse(" db2:1434 ", 1433));
+    assertEquals(new DatabaseHost("::1", 1433), DatabaseHost.parse("::1", 1433));
+    assertEquals(new DatabaseHost("::1", 5432), DatabaseHost.parse("[::1]:5432", 1433));
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseInvalidPort() throws Exception {
+    DatabaseHost.parse("db1:port", 1433);
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseEmpty() throws Exception {
+    DatabaseHost.parse(" ", 1433);
+  }
+
+  @Test
+  public void testReadFile() throws Exception {
+    File file = folder.newFile("hosts.txt");
+    Files.write(
+        file.toPath(),
+        Arrays.asList("# replicas", "db1", "", "  db2:1500"),
+        StandardCharsets.UTF_8
+    );
+
+    List<DatabaseHost> hosts = DatabaseHost.readFile(file.getPath(), 1433);
+
+    assertEquals(
+        Arrays.asList(new DatabaseHost("db1", 1433), new DatabaseHost("db2", 1500)),
+        hosts
+    );
+  }
+}
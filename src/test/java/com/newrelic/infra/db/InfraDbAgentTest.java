@@ -1,24 +1,39 @@
 package com.newrelic.infra.db;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.newrelic.infra.db.command.DatabaseCommand;
+import com.newrelic.infra.db.command.CommandStats;
 import com.newrelic.infra.db.command.HsqlDbCommand;
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
 import com.newrelic.infra.publish.api.metrics.Metric;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Test for InfraDbAgent.
@@ -32,6 +47,9 @@ public class InfraDbAgentTest {
   @Rule
   public final ExpectedException exception = ExpectedException.none();
 
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
   /**
    * Setup method to load DB Class and init DB with Data.
    */
@@ -220,4 +238,274 @@ public class InfraDbAgentTest {
     assertNotNull(commandList);
   }
 
+  @Test
+  public void testReloadKeepsUnchangedCommands() throws Exception {
+    final File input = folder.newFile("input.json");
+    writeCommands(input, "SELECT * FROM EMPLOYEE", "SELECT * FROM EMPLOYEE");
+
+    AgentOptions options = new AgentOptions();
+    options.setWatchInputfile(false);
+    InfraDbAgent reloading = new InfraDbAgent(
+        "Reload", "localhost", 1234, "SA", "SA", input.getPath(),
+        false, false, false, null, null, null, false, options
+    );
+
+    try {
+      final List<DatabaseCommand> before = reloading.getActiveCommands();
+      assertEquals(2, before.size());
+
+      writeCommands(input, "SELECT * FROM EMPLOYEE", "SELECT name FROM EMPLOYEE");
+      reloading.reloadCommands();
+
+      final List<DatabaseCommand> after = reloading.getActiveCommands();
+      assertEquals(2, after.size());
+      assertSame(before.get(0), after.get(0));
+      assertNotSame(before.get(1), after.get(1));
+      assertEquals("SELECT name FROM EMPLOYEE", after.get(1).getQuery());
+    } finally {
+      reloading.dispose();
+    }
+  }
+
+  @Test
+  public void testInitialQueryRunsInBackground() throws Exception {
+    final File input = folder.newFile("initial.json");
+    final String json = "[{\"query\": \"SELECT * FROM EMPLOYEE WHERE id > ?\","
+        + " \"initialQuery\": \"SELECT max(id) ID FROM EMPLOYEE\","
+        + " \"queryParameterColumns\": [\"ID\"], \"name\": \"Tail Test\","
+        + " \"type\": \"metric\", \"database\": \"EMPLOYEE\", \"provider\": \"HSQLDB\"}]";
+    Files.write(input.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+    AgentOptions options = new AgentOptions();
+    options.setWatchInputfile(false);
+    InfraDbAgent tailing = new InfraDbAgent(
+        "Initial", "localhost", 1234, "SA", "SA", input.getPath(),
+        false, false, false, null, null, null, false, options
+    );
+
+    try {
+      final DatabaseCommand command = tailing.getActiveCommands().get(0);
+      final long deadline = System.currentTimeMillis() + 10000L;
+      while (command.hasInitialQuery() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10L);
+      }
+
+      assertFalse(command.hasInitialQuery());
+      final List<Object> values = command.snapshotState().getParameterValues();
+      assertEquals(1, values.size());
+      assertEquals(1003, ((Number) values.get(0)).intValue());
+    } finally {
+      tailing.dispose();
+    }
+  }
+
+  @Test
+  public void testChunkedTailAdvancesAfterEveryChunk() throws Exception {
+    final File input = folder.newFile("chunked.json");
+    final String json = "[{\"query\": \"SELECT * FROM EMPLOYEE WHERE id > ? ORDER BY id\","
+        + " \"initialQuery\": \"SELECT min(id) - 1 AS ID FROM EMPLOYEE\","
+        + " \"queryParameterColumns\": [\"ID\"], \"chunkSize\": 1, \"maxChunks\": 2,"
+        + " \"name\": \"Chunk Test\", \"type\": \"metric\", \"database\": \"EMPLOYEE\","
+        + " \"provider\": \"HSQLDB\"}]";
+    Files.write(input.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+    final DatabaseCommand command = agent.getCommands(input.getPath()).get(0);
+    assertTrue(command.executeInitialQuery());
+
+    assertEquals(2, command.executeMetric().size());
+    assertEquals(2, command.getStats().getChunks());
+    assertEquals(1002, ((Number) command.snapshotState().getParameterValues().get(0)).intValue());
+
+    assertEquals(1, command.executeMetric().size());
+    assertEquals(1, command.getStats().getChunks());
+    assertEquals(1003, ((Number) command.snapshotState().getParameterValues().get(0)).intValue());
+    command.close();
+  }
+
+  /**
+   * A single streaming command runs on the harvest thread even when queries
+   * may run in parallel, and must not block on a stream buffer nobody drains.
+   */
+  @Test(timeout = 30000)
+  public void testSingleStreamingCommandDoesNotBlockHarvest() throws Exception {
+    final File input = folder.newFile("stream.json");
+    final String json = "[{\"query\": \"SELECT a.id, b.id AS other FROM EMPLOYEE a, EMPLOYEE b\","
+        + " \"stream\": true, \"batchSize\": 1, \"name\": \"Stream Test\","
+        + " \"type\": \"metric\", \"database\": \"EMPLOYEE\", \"provider\": \"HSQLDB\"}]";
+    Files.write(input.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+    AgentOptions options = new AgentOptions();
+    options.setWatchInputfile(false);
+    options.setMaxParallelQueries(2);
+    options.setStreamBufferSize(4);
+    InfraDbAgent streaming = new InfraDbAgent(
+        "Stream", "localhost", 1234, "SA", "SA", input.getPath(),
+        false, false, false, null, null, null, false, options
+    );
+
+    try {
+      final String eventType = streaming.getActiveCommands().get(0).getDbType();
+      final AtomicInteger rows = new AtomicInteger();
+
+      streaming.populateMetrics(Collections.<Metric>emptyList(), (type, metrics, instanceId) -> {
+        if (eventType.equals(type)) {
+          rows.incrementAndGet();
+        }
+      });
+
+      assertEquals(9, rows.get());
+    } finally {
+      streaming.dispose();
+    }
+  }
+
+  /**
+   * Every run is reported once as an NriDbCommandSample, on the next metric
+   * harvest, with the command's attributes, its cost and the static
+   * attributes of the agent.
+   */
+  @Test
+  public void testCommandSample() throws Exception {
+    final File input = folder.newFile("sample.json");
+    writeCommands(input, "SELECT * FROM EMPLOYEE", "SELECT * FROM EMPLOYEE");
+
+    AgentOptions options = new AgentOptions();
+    options.setWatchInputfile(false);
+    InfraDbAgent sampling = new InfraDbAgent(
+        "Sample", "localhost", 1234, "SA", "SA", input.getPath(),
+        false, false, false, null, null, null, false, options
+    );
+
+    try {
+      final List<List<Metric>> samples = new ArrayList<>();
+      final List<Metric> staticAttributes = Collections.<Metric>singletonList(
+          new AttributeMetric("environment", "test")
+      );
+
+      sampling.populateMetrics(staticAttributes, (type, metrics, instanceId) -> {
+        if ("NriDbCommandSample".equals(type)) {
+          samples.add(metrics);
+        }
+      });
+
+      assertEquals(1, samples.size());
+      final Set<String> names = new HashSet<>();
+      for (final Metric metric : samples.get(0)) {
+        names.add(metric.getName());
+      }
+      assertTrue(names.containsAll(Arrays.asList(
+          "commandName", "provider", "database", "databaseHost", "dataType",
+          "borrowMs", "executeMs", "firstRowMs", "fetchMs", "parseMs", "reportMs",
+          "rows", "rowsReported", "duplicates", "errors", "estimatedBytes", "cycleLagMs",
+          "timeouts", "skipped", "truncated", "sampledOut", "counterResets", "chunks",
+          "caughtUp", "environment"
+      )));
+
+      final DatabaseCommand command = sampling.getActiveCommands().get(0);
+      final CommandStats stats = command.getStats();
+      assertEquals(3, stats.getRows());
+      assertEquals(3, stats.getRowsParsed());
+      assertEquals(0, stats.getErrors());
+      assertFalse(stats.isTimedOut());
+
+      // Reported once, the next harvest only samples its own runs
+      samples.clear();
+      sampling.populateMetrics(staticAttributes, (type, metrics, instanceId) -> {
+        if ("NriDbCommandSample".equals(type)) {
+          samples.add(metrics);
+        }
+      });
+      assertEquals(1, samples.size());
+    } finally {
+      sampling.dispose();
+    }
+  }
+
+  @Test
+  public void testCommandSampleCanBeDisabled() throws Exception {
+    final File input = folder.newFile("nosample.json");
+    writeCommands(input, "SELECT * FROM EMPLOYEE", "SELECT * FROM EMPLOYEE");
+
+    AgentOptions options = new AgentOptions();
+    options.setWatchInputfile(false);
+    options.setSelfMonitoring(false);
+    InfraDbAgent quiet = new InfraDbAgent(
+        "Quiet", "localhost", 1234, "SA", "SA", input.getPath(),
+        false, false, false, null, null, null, false, options
+    );
+
+    try {
+      final AtomicInteger samples = new AtomicInteger();
+      quiet.populateMetrics(Collections.<Metric>emptyList(), (type, metrics, instanceId) -> {
+        if ("NriDbCommandSample".equals(type)) {
+          samples.incrementAndGet();
+        }
+      });
+
+      assertEquals(0, samples.get());
+    } finally {
+      quiet.dispose();
+    }
+  }
+
+  /**
+   * Commands run at most maxParallelQueries at a time, and their results come
+   * back in the order of the commands even when later ones finish first. A
+   * command that fails leaves a null in its place.
+   */
+  @Test(timeout = 30000)
+  public void testParallelCommandsAreBoundedAndOrdered() throws Exception {
+    final File input = folder.newFile("parallel.json");
+    Files.write(input.toPath(), "[]".getBytes(StandardCharsets.UTF_8));
+
+    AgentOptions options = new AgentOptions();
+    options.setWatchInputfile(false);
+    options.setMaxParallelQueries(3);
+    InfraDbAgent parallel = new InfraDbAgent(
+        "Parallel", "localhost", 1234, "SA", "SA", input.getPath(),
+        false, false, false, null, null, null, false, options
+    );
+
+    try {
+      final List<Integer> toRun = new ArrayList<>();
+      for (int x = 0; x < 9; x++) {
+        toRun.add(x);
+      }
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicInteger maxRunning = new AtomicInteger();
+
+      final List<Integer> results = parallel.executeCommands(toRun, x -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          // Later commands finish first
+          Thread.sleep(20L * (toRun.size() - x));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          running.decrementAndGet();
+        }
+        if (x == 4) {
+          throw new IllegalStateException("Failed on purpose");
+        }
+        return x * 10;
+      }, null);
+
+      assertEquals(3, maxRunning.get());
+      assertEquals(toRun.size(), results.size());
+      for (int x = 0; x < toRun.size(); x++) {
+        assertEquals(x == 4 ? null : Integer.valueOf(x * 10), results.get(x));
+      }
+    } finally {
+      parallel.dispose();
+    }
+  }
+
+  private static void writeCommands(File file, String metricQuery, String inventoryQuery)
+      throws IOException {
+    final String json = "[{\"query\": \"" + metricQuery + "\", \"name\": \"Metric Test\","
+        + " \"type\": \"metric\", \"database\": \"EMPLOYEE\", \"provider\": \"HSQLDB\"},"
+        + " {\"query\": \"" + inventoryQuery + "\", \"name\": \"Inventory Test\","
+        + " \"type\": \"inventory\", \"database\": \"EMPLOYEE\", \"provider\": \"HSQLDB\"}]";
+    Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+  }
 }
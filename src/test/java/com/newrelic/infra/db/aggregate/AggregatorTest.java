@@ -0,0 +1,111 @@
+package com.newrelic.infra.db.aggregate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Test for Aggregator.
+ */
+public class AggregatorTest {
+
+  private static AggregateSpec spec(String json) {
+    return AggregateSpec.fromJson(JsonParser.parseString(json).getAsJsonObject());
+  }
+
+  private static Map<String, Object> row(String database, Object waitMs) {
+    Map<String, Object> row = new HashMap<>();
+    row.put("database", database);
+    if (waitMs != null) {
+      row.put("wait_ms", waitMs);
+    }
+    return row;
+  }
+
+  private static List<String> names(List<Metric> row) {
+    List<String> names = new ArrayList<>();
+    for (Metric metric : row) {
+      names.add(metric.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testOneRowPerGroup() {
+    Aggregator aggregator = new Aggregator(spec(
+        "{\"groupBy\": [\"Database\"], \"metrics\": {\"WAIT_MS\": [\"sum\", \"max\", \"p99\"]}}"
+    ));
+    aggregator.add(row("db1 ", 10));
+    aggregator.add(row("db2", 5L));
+    aggregator.add(row("db1", 30.5));
+    aggregator.add(row("db1", null));
+
+    List<List<Metric>> rows = aggregator.getRows();
+
+    assertEquals(2, rows.size());
+    assertEquals(4, aggregator.getOffered());
+    assertEquals(
+        Arrays.asList(
+            "database", "wait_ms.sum", "wait_ms.max", "wait_ms.p99", "aggregatedRows"
+        ),
+        names(rows.get(0))
+    );
+  }
+
+  @Test
+  public void testEmptyColumnOnlyReportsCount() {
+    Aggregator aggregator = new Aggregator(spec(
+        "{\"groupBy\": [\"database\"], \"metrics\": {\"wait_ms\": [\"count\", \"avg\"]}}"
+    ));
+    aggregator.add(row("db1", null));
+
+    assertEquals(
+        Arrays.asList("database", "wait_ms.count", "aggregatedRows"),
+        names(aggregator.getRows().get(0))
+    );
+  }
+
+  @Test
+  public void testMaxGroups() {
+    Aggregator aggregator = new Aggregator(spec(
+        "{\"groupBy\": [\"database\"], \"metrics\": {\"wait_ms\": \"sum\"}, \"maxGroups\": 1}"
+    ));
+
+    aggregator.add(row("db1", 1));
+    assertFalse(aggregator.add(row("db2", 1)));
+    aggregator.add(row("db1", 1));
+
+    assertEquals(1, aggregator.getGroupCount());
+    assertEquals(1, aggregator.getDropped());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownFunction() {
+    spec("{\"metrics\": {\"wait_ms\": [\"median\"]}}");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingMetrics() {
+    spec("{\"groupBy\": [\"database\"]}");
+  }
+
+  @Test
+  public void testNoGroupByIsOneGroup() {
+    JsonObject json = JsonParser.parseString("{\"metrics\": {\"wait_ms\": [\"avg\"]}}")
+        .getAsJsonObject();
+    Aggregator aggregator = new Aggregator(AggregateSpec.fromJson(json));
+    aggregator.add(row("db1", 1));
+    aggregator.add(row("db2", 3));
+
+    assertEquals(1, aggregator.getRows().size());
+  }
+}
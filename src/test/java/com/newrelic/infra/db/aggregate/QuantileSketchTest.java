@@ -0,0 +1,65 @@
+package com.newrelic.infra.db.aggregate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test for QuantileSketch.
+ */
+public class QuantileSketchTest {
+
+  @Test
+  public void testQuantilesWithinAccuracy() {
+    QuantileSketch sketch = new QuantileSketch(0.01);
+    for (int i = 1; i <= 10000; i++) {
+      sketch.add(i);
+    }
+
+    assertEquals(10000, sketch.getCount());
+    assertEquals(5000, sketch.getQuantile(0.5), 5000 * 0.01);
+    assertEquals(9900, sketch.getQuantile(0.99), 9900 * 0.01);
+    assertEquals(1, sketch.getQuantile(0), 0);
+    assertEquals(10000, sketch.getQuantile(1), 0);
+  }
+
+  @Test
+  public void testNegativeAndZeroValues() {
+    QuantileSketch sketch = new QuantileSketch();
+    sketch.add(-100);
+    sketch.add(-1);
+    sketch.add(0);
+    sketch.add(1);
+    sketch.add(100);
+
+    assertEquals(-100, sketch.getQuantile(0), 0);
+    assertEquals(-1, sketch.getQuantile(0.25), 0.01);
+    assertEquals(0, sketch.getQuantile(0.5), 0);
+    assertEquals(1, sketch.getQuantile(0.75), 0.01);
+    assertEquals(100, sketch.getQuantile(1), 0);
+  }
+
+  @Test
+  public void testMergeMatchesSingleSketch() {
+    QuantileSketch single = new QuantileSketch();
+    QuantileSketch low = new QuantileSketch();
+    QuantileSketch high = new QuantileSketch();
+    for (int i = 1; i <= 1000; i++) {
+      single.add(i * 0.5);
+      (i <= 500 ? low : high).add(i * 0.5);
+    }
+
+    low.merge(high);
+
+    assertEquals(single.getCount(), low.getCount());
+    for (double q : new double[] {0, 0.25, 0.5, 0.9, 0.99, 1}) {
+      assertEquals(single.getQuantile(q), low.getQuantile(q), 0);
+    }
+  }
+
+  @Test
+  public void testEmptySketch() {
+    assertTrue(Double.isNaN(new QuantileSketch().getQuantile(0.5)));
+  }
+}
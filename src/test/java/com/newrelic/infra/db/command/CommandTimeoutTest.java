@@ -0,0 +1,136 @@
+package com.newrelic.infra.db.command;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.newrelic.infra.db.pool.ConnectionPool;
+import com.newrelic.infra.db.pool.PoolSettings;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Test for DatabaseCommand.timeOut on a driver that ignores cancel().
+ */
+public class CommandTimeoutTest {
+
+  /**
+   * A run stuck in a driver that ignores the cancel is reported as timed out
+   * while it is still going, and shows as running until it ends.
+   */
+  @Test(timeout = 10000)
+  public void testStuckRunIsTimedOut() throws Exception {
+    final CountDownLatch executing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final DatabaseCommand command = new StuckCommand(executing, release);
+    final PoolSettings pooling = new PoolSettings();
+    pooling.setEnabled(false);
+    command.setPoolSettings(pooling);
+    command.setName("Stuck");
+    command.setQuery("SELECT 1");
+    command.setDataType("metric");
+    command.setMetricType("gauge");
+
+    final Thread run = new Thread(command::executeMetric);
+    run.start();
+    assertTrue(executing.await(5, TimeUnit.SECONDS));
+
+    command.timeOut();
+
+    assertTrue(command.isRunning());
+    assertTrue(command.getStats().isTimedOut());
+
+    release.countDown();
+    run.join();
+    assertFalse(command.isRunning());
+    assertTrue(command.getStats().isTimedOut());
+  }
+
+  /**
+   * Timing out a command that is not running leaves its last run alone.
+   */
+  @Test
+  public void testIdleCommandIsNotMarked() {
+    final DatabaseCommand command = new StuckCommand(new CountDownLatch(0), new CountDownLatch(0));
+
+    command.timeOut();
+
+    assertFalse(command.isRunning());
+    assertFalse(command.getStats().isTimedOut());
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+  /**
+   * A command whose statement blocks in executeQuery until released and
+   * ignores cancel(), like a driver that is stuck on the network.
+   */
+  private static final class StuckCommand extends DatabaseCommand {
+    private final CountDownLatch executing;
+    private final CountDownLatch release;
+
+    private StuckCommand(CountDownLatch executing, CountDownLatch release) {
+      this.executing = executing;
+      this.release = release;
+    }
+
+    @Override
+    public String getDbDriverName() {
+      return null;
+    }
+
+    @Override
+    public String getDbType() {
+      return "stub";
+    }
+
+    @Override
+    public Connection getConnection() {
+      return (Connection) Proxy.newProxyInstance(
+          CommandTimeoutTest.class.getClassLoader(),
+          new Class<?>[] {Connection.class},
+          (proxy, method, args) -> defaultValue(method.getReturnType())
+      );
+    }
+
+    @Override
+    protected Connection borrowConnection(ConnectionPool pool) {
+      return getConnection();
+    }
+
+    @Override
+    protected PreparedStatement openStatement(
+        ConnectionPool pool,
+        Connection con,
+        String query
+    ) {
+      return (PreparedStatement) Proxy.newProxyInstance(
+          CommandTimeoutTest.class.getClassLoader(),
+          new Class<?>[] {PreparedStatement.class},
+          (proxy, method, args) -> {
+            if ("executeQuery".equals(method.getName())) {
+              executing.countDown();
+              release.await();
+              throw new SQLException("Connection reset");
+            }
+            return defaultValue(method.getReturnType());
+          }
+      );
+    }
+  }
+}
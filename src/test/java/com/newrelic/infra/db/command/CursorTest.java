@@ -0,0 +1,246 @@
+package com.newrelic.infra.db.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.newrelic.infra.db.pool.ConnectionKey;
+import com.newrelic.infra.db.pool.ConnectionPool;
+import com.newrelic.infra.db.pool.PoolSettings;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import org.junit.Test;
+
+/**
+ * Test for the cursors DatabaseCommand opens: forward only and read only, and
+ * on Postgres inside a transaction so the fetch size is honoured.
+ */
+public class CursorTest {
+
+  @Test
+  public void testStatementIsForwardOnly() throws SQLException {
+    final FakeConnection connection = new FakeConnection();
+    final DatabaseCommand command = new PostgresCommand();
+
+    command.openStatement(null, connection.proxy, "SELECT 1");
+
+    assertEquals(ResultSet.TYPE_FORWARD_ONLY, connection.resultSetType);
+    assertEquals(ResultSet.CONCUR_READ_ONLY, connection.resultSetConcurrency);
+  }
+
+  @Test
+  public void testPooledStatementIsForwardOnly() throws SQLException {
+    final FakeConnection connection = new FakeConnection();
+    final PoolSettings settings = new PoolSettings();
+    final ConnectionKey key = new ConnectionKey(
+        "stub", "localhost", 0, "CURSOR", "user", null, false, false, false, null, null, null,
+        false, 0, settings
+    );
+    final ConnectionPool pool = new ConnectionPool(key, () -> connection.proxy, settings);
+    final Connection borrowed = pool.borrow();
+
+    new PostgresCommand().openStatement(pool, borrowed, "SELECT 1");
+
+    assertEquals(ResultSet.TYPE_FORWARD_ONLY, connection.resultSetType);
+    assertEquals(ResultSet.CONCUR_READ_ONLY, connection.resultSetConcurrency);
+    pool.release(borrowed, true);
+  }
+
+  /**
+   * Postgres only honours the fetch size with autocommit off, so the query
+   * runs in a read transaction that is rolled back before the connection is
+   * handed back.
+   */
+  @Test
+  public void testPostgresTurnsAutoCommitOff() {
+    final FakeConnection connection = new FakeConnection();
+    final DatabaseCommand command = command(new PostgresCommand() {
+      @Override
+      protected Connection borrowConnection(ConnectionPool pool) {
+        return connection.proxy;
+      }
+    });
+
+    command.executeMetric();
+
+    assertFalse(command.getStats().isFailed());
+    assertEquals(1000, connection.fetchSize);
+    assertFalse(connection.autoCommitOnExecute);
+    assertEquals(1, connection.rollbacks);
+    assertTrue(connection.autoCommit);
+  }
+
+  @Test
+  public void testOtherProvidersKeepAutoCommit() {
+    final FakeConnection connection = new FakeConnection();
+    final DatabaseCommand command = command(new FakeCommand(connection));
+    command.setFetchSize(500);
+
+    command.executeMetric();
+
+    assertFalse(command.getStats().isFailed());
+    assertEquals(500, connection.fetchSize);
+    assertTrue(connection.autoCommitOnExecute);
+    assertEquals(0, connection.rollbacks);
+  }
+
+  private static DatabaseCommand command(DatabaseCommand command) {
+    final PoolSettings pooling = new PoolSettings();
+    pooling.setEnabled(false);
+
+    command.setPoolSettings(pooling);
+    command.setName("Cursor");
+    command.setQuery("SELECT 1");
+    command.setDataType("metric");
+    command.setMetricType("gauge");
+    return command;
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+  /**
+   * A connection that records how it is used, handing out a statement that
+   * returns one row of one INTEGER column.
+   */
+  private static final class FakeConnection {
+    private final Connection proxy;
+    private boolean autoCommit = true;
+    private boolean autoCommitOnExecute = true;
+    private int rollbacks = 0;
+    private int resultSetType = 0;
+    private int resultSetConcurrency = 0;
+    private int fetchSize = -1;
+
+    private FakeConnection() {
+      this.proxy = (Connection) Proxy.newProxyInstance(
+          CursorTest.class.getClassLoader(),
+          new Class<?>[] {Connection.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getAutoCommit":
+                return autoCommit;
+              case "setAutoCommit":
+                autoCommit = (Boolean) args[0];
+                return null;
+              case "rollback":
+                rollbacks += 1;
+                return null;
+              case "isValid":
+                return true;
+              case "prepareStatement":
+                resultSetType = (Integer) args[1];
+                resultSetConcurrency = (Integer) args[2];
+                return statement();
+              default:
+                return defaultValue(method.getReturnType());
+            }
+          }
+      );
+    }
+
+    private PreparedStatement statement() {
+      return (PreparedStatement) Proxy.newProxyInstance(
+          CursorTest.class.getClassLoader(),
+          new Class<?>[] {PreparedStatement.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "setFetchSize":
+                fetchSize = (Integer) args[0];
+                return null;
+              case "executeQuery":
+                autoCommitOnExecute = autoCommit;
+                return resultSet();
+              default:
+                return defaultValue(method.getReturnType());
+            }
+          }
+      );
+    }
+
+    private static ResultSet resultSet() {
+      final int[] row = {0};
+      final ResultSetMetaData rsmd = (ResultSetMetaData) Proxy.newProxyInstance(
+          CursorTest.class.getClassLoader(),
+          new Class<?>[] {ResultSetMetaData.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getColumnCount":
+                return 1;
+              case "getColumnName":
+              case "getColumnLabel":
+                return "n";
+              case "getColumnType":
+                return Types.INTEGER;
+              default:
+                return defaultValue(method.getReturnType());
+            }
+          }
+      );
+
+      return (ResultSet) Proxy.newProxyInstance(
+          CursorTest.class.getClassLoader(),
+          new Class<?>[] {ResultSet.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getMetaData":
+                return rsmd;
+              case "next":
+                row[0] += 1;
+                return row[0] <= 1;
+              case "getRow":
+              case "getInt":
+                return row[0];
+              case "getLong":
+                return (long) row[0];
+              default:
+                return defaultValue(method.getReturnType());
+            }
+          }
+      );
+    }
+  }
+
+  private static final class FakeCommand extends DatabaseCommand {
+    private final FakeConnection connection;
+
+    private FakeCommand(FakeConnection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public String getDbDriverName() {
+      return null;
+    }
+
+    @Override
+    public String getDbType() {
+      return "fake";
+    }
+
+    @Override
+    public Connection getConnection() {
+      return connection.proxy;
+    }
+
+    @Override
+    protected Connection borrowConnection(ConnectionPool pool) {
+      return connection.proxy;
+    }
+  }
+}
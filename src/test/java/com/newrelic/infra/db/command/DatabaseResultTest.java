@@ -0,0 +1,66 @@
+package com.newrelic.infra.db.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test for DatabaseResult.
+ */
+public class DatabaseResultTest {
+  private static final List<Metric> shared = Collections.singletonList(
+      new AttributeMetric("queryName", "Test")
+  );
+
+  private static List<Metric> row(int value) {
+    return Collections.singletonList(new GaugeMetric("value", value));
+  }
+
+  /**
+   * Single rows and batches come back in the order they were added.
+   */
+  @Test
+  public void testBatchesKeepOrder() {
+    DatabaseResult result = new DatabaseResult();
+    List<Metric> first = row(1);
+    List<Metric> last = row(4);
+
+    result.addMetricResult(first);
+    result.addMetricBatch(Arrays.asList(row(2), row(3)), shared);
+    result.addMetricResult(last);
+
+    List<List<Metric>> rows = result.getMetricResult();
+
+    assertEquals(4, rows.size());
+    assertSame(first, rows.get(0));
+    assertEquals(2, rows.get(1).size());
+    assertSame(shared.get(0), rows.get(2).get(1));
+    assertSame(last, rows.get(3));
+    assertEquals(4, new ArrayList<>(rows).size());
+  }
+
+  /**
+   * A streaming result hands a batch to the sink after any buffered rows.
+   */
+  @Test
+  public void testBatchesAreStreamed() {
+    List<List<List<Metric>>> received = new ArrayList<>();
+    DatabaseResult result = new DatabaseResult(received::add, 10);
+
+    result.addMetricResult(row(1));
+    result.addMetricBatch(Arrays.asList(row(2), row(3)), shared);
+
+    assertEquals(2, received.size());
+    assertEquals(1, received.get(0).size());
+    assertEquals(2, received.get(1).size());
+    assertEquals(0, result.getMetricResult().size());
+  }
+}
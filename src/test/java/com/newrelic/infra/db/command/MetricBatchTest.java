@@ -0,0 +1,261 @@
+package com.newrelic.infra.db.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.newrelic.infra.db.pool.ConnectionPool;
+import com.newrelic.infra.db.pool.PoolSettings;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test for DatabaseCommand.executeMetricBatch, driven by a stubbed statement
+ * that returns a scripted mix of result sets, update counts and errors.
+ */
+public class MetricBatchTest {
+
+  /**
+   * Update counts are skipped, an error in the middle of the batch is
+   * reported on the query it belongs to, and queries left without a result
+   * set get an error of their own.
+   */
+  @Test
+  public void testResultsAreMatchedToCommands() {
+    final Deque<Object> results = new ArrayDeque<>(Arrays.asList(
+        resultSet("a", 1),
+        3,
+        new SQLException("Syntax error", "42000"),
+        resultSet("c", 2),
+        -1
+    ));
+    final PreparedStatement statement = statement(results);
+    final List<DatabaseCommand> commands = Arrays.asList(
+        command("A", statement),
+        command("B", statement),
+        command("C", statement),
+        command("D", statement)
+    );
+
+    final List<List<List<Metric>>> metrics = DatabaseCommand.executeMetricBatch(commands);
+
+    assertEquals(4, metrics.size());
+
+    assertEquals(1, metrics.get(0).size());
+    assertTrue(hasMetric(metrics.get(0).get(0), "a"));
+    assertFalse(commands.get(0).getStats().isFailed());
+
+    assertEquals(1, metrics.get(1).size());
+    assertTrue(hasMetric(metrics.get(1).get(0), "errorMessage"));
+    assertTrue(commands.get(1).getStats().isFailed());
+    assertFalse(commands.get(1).getStats().isConnectionFailed());
+
+    assertEquals(2, metrics.get(2).size());
+    assertTrue(hasMetric(metrics.get(2).get(0), "c"));
+    assertTrue(hasMetric(metrics.get(2).get(1), "c"));
+    assertFalse(commands.get(2).getStats().isFailed());
+
+    assertEquals(1, metrics.get(3).size());
+    assertTrue(hasMetric(metrics.get(3).get(0), "errorMessage"));
+    assertTrue(commands.get(3).getStats().isFailed());
+  }
+
+  /**
+   * A connection failure fails the query it hit and every query after it.
+   */
+  @Test
+  public void testConnectionFailureFailsTheRest() {
+    final Deque<Object> results = new ArrayDeque<>(Arrays.asList(
+        resultSet("a", 1),
+        new SQLException("Connection reset", "08006")
+    ));
+    final PreparedStatement statement = statement(results);
+    final List<DatabaseCommand> commands = Arrays.asList(
+        command("A", statement),
+        command("B", statement),
+        command("C", statement)
+    );
+
+    final List<List<List<Metric>>> metrics = DatabaseCommand.executeMetricBatch(commands);
+
+    assertTrue(hasMetric(metrics.get(0).get(0), "a"));
+    assertFalse(commands.get(0).getStats().isFailed());
+    for (int x = 1; x < commands.size(); x++) {
+      assertEquals(1, metrics.get(x).size());
+      assertTrue(hasMetric(metrics.get(x).get(0), "errorMessage"));
+      assertTrue(commands.get(x).getStats().isConnectionFailed());
+    }
+  }
+
+  private static boolean hasMetric(List<Metric> row, String name) {
+    for (final Metric metric : row) {
+      if (name.equals(metric.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static DatabaseCommand command(String name, PreparedStatement statement) {
+    final DatabaseCommand command = new StubCommand(statement);
+    final PoolSettings pooling = new PoolSettings();
+    pooling.setEnabled(false);
+
+    command.setPoolSettings(pooling);
+    command.setName(name);
+    command.setQuery("SELECT " + name);
+    command.setDatabase("test");
+    command.setHostname("localhost");
+    command.setDataType("metric");
+    command.setMetricType("gauge");
+    return command;
+  }
+
+  /**
+   * A statement that plays back results: a ResultSet, an update count, or an
+   * SQLException thrown by execute or getMoreResults.
+   */
+  private static PreparedStatement statement(Deque<Object> results) {
+    final Object[] current = new Object[1];
+
+    return (PreparedStatement) Proxy.newProxyInstance(
+        MetricBatchTest.class.getClassLoader(),
+        new Class<?>[] {PreparedStatement.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "execute":
+            case "getMoreResults":
+              current[0] = results.isEmpty() ? -1 : results.poll();
+              if (current[0] instanceof SQLException) {
+                throw (SQLException) current[0];
+              }
+              return current[0] instanceof ResultSet;
+            case "getResultSet":
+              return current[0] instanceof ResultSet ? current[0] : null;
+            case "getUpdateCount":
+              return current[0] instanceof Integer ? current[0] : -1;
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        }
+    );
+  }
+
+  /**
+   * A result set of one INTEGER column holding 1, 2, ... rows.
+   */
+  private static ResultSet resultSet(String column, int rows) {
+    final int[] row = {0};
+    final ResultSetMetaData rsmd = (ResultSetMetaData) Proxy.newProxyInstance(
+        MetricBatchTest.class.getClassLoader(),
+        new Class<?>[] {ResultSetMetaData.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getColumnCount":
+              return 1;
+            case "getColumnName":
+            case "getColumnLabel":
+              return column;
+            case "getColumnType":
+              return Types.INTEGER;
+            case "getTableName":
+              return "T";
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        }
+    );
+
+    return (ResultSet) Proxy.newProxyInstance(
+        MetricBatchTest.class.getClassLoader(),
+        new Class<?>[] {ResultSet.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getMetaData":
+              return rsmd;
+            case "next":
+              row[0] += 1;
+              return row[0] <= rows;
+            case "getRow":
+              return row[0];
+            case "getInt":
+              return row[0];
+            case "getLong":
+              return (long) row[0];
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        }
+    );
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+  private static final class StubCommand extends DatabaseCommand {
+    private final PreparedStatement statement;
+
+    private StubCommand(PreparedStatement statement) {
+      this.statement = statement;
+    }
+
+    @Override
+    public String getDbDriverName() {
+      return null;
+    }
+
+    @Override
+    public String getDbType() {
+      return "stub";
+    }
+
+    @Override
+    public Connection getConnection() {
+      return (Connection) Proxy.newProxyInstance(
+          MetricBatchTest.class.getClassLoader(),
+          new Class<?>[] {Connection.class},
+          (proxy, method, args) -> defaultValue(method.getReturnType())
+      );
+    }
+
+    @Override
+    protected Connection borrowConnection(ConnectionPool pool) {
+      return getConnection();
+    }
+
+    @Override
+    protected PreparedStatement openStatement(
+        ConnectionPool pool,
+        Connection con,
+        String query
+    ) {
+      return statement;
+    }
+
+    @Override
+    protected String getStatementSeparator() {
+      return ";";
+    }
+  }
+}
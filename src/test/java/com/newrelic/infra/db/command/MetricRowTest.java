@@ -0,0 +1,42 @@
+package com.newrelic.infra.db.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.newrelic.infra.publish.api.metrics.AttributeMetric;
+import com.newrelic.infra.publish.api.metrics.GaugeMetric;
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Test for MetricRow.
+ */
+public class MetricRowTest {
+
+  @Test
+  public void testValuesThenSharedAttributes() {
+    Metric value = new GaugeMetric("waits", 3);
+    Metric database = new AttributeMetric("database", "db1");
+    Metric query = new AttributeMetric("queryName", "Waits");
+    List<Metric> shared = Collections.unmodifiableList(Arrays.asList(database, query));
+
+    MetricRow row = new MetricRow(Collections.singletonList(value), shared);
+
+    assertEquals(3, row.size());
+    assertEquals(Arrays.asList(value, database, query), new ArrayList<>(row));
+  }
+
+  @Test
+  public void testRowsShareAttributes() {
+    List<Metric> shared = Collections.singletonList(new AttributeMetric("database", "db1"));
+
+    MetricRow first = new MetricRow(Collections.emptyList(), shared);
+    MetricRow second = new MetricRow(Collections.emptyList(), shared);
+
+    assertSame(first.get(0), second.get(0));
+  }
+}
@@ -0,0 +1,68 @@
+package com.newrelic.infra.db.dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test for DedupHistory.
+ */
+public class DedupHistoryTest {
+
+  @Test
+  public void testHitCounts() {
+    DedupHistory history = new DedupHistory(4);
+
+    assertEquals(0, history.hit(42L));
+    history.add(42L);
+    assertEquals(2, history.hit(42L));
+    assertEquals(3, history.hit(42L));
+    assertEquals(1, history.size());
+  }
+
+  @Test
+  public void testEvictsOldestUnreferenced() {
+    DedupHistory history = new DedupHistory(3);
+
+    history.add(1L);
+    history.add(2L);
+    history.add(3L);
+    history.hit(1L);
+    history.add(4L);
+
+    // 1 got a second chance, so 2 is the victim
+    assertTrue(history.contains(1L));
+    assertFalse(history.contains(2L));
+    assertTrue(history.contains(3L));
+    assertTrue(history.contains(4L));
+    assertEquals(3, history.size());
+  }
+
+  @Test
+  public void testChurnKeepsIndexConsistent() {
+    DedupHistory history = new DedupHistory(100);
+
+    // Colliding low bits force long probe runs through evictions
+    for (long i = 0; i < 10000; i++) {
+      history.add(i << 40);
+    }
+
+    assertEquals(100, history.size());
+    for (long i = 9900; i < 10000; i++) {
+      assertTrue(history.contains(i << 40));
+    }
+    assertFalse(history.contains(9899L << 40));
+  }
+
+  @Test
+  public void testResizeClears() {
+    DedupHistory history = new DedupHistory(2);
+
+    history.add(7L);
+    history.resize(10);
+    assertFalse(history.contains(7L));
+    assertEquals(10, history.getCapacity());
+  }
+}
@@ -0,0 +1,54 @@
+package com.newrelic.infra.db.dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Test for RowHasher.
+ */
+public class RowHasherTest {
+
+  private final RowHasher hasher = new RowHasher();
+
+  @Test
+  public void testSameRowSameHash() {
+    long first = hasher.reset().putString("test").putLong(1).putNull().hash();
+    long second = hasher.reset().putString("test").putLong(1).putNull().hash();
+
+    assertEquals(first, second);
+  }
+
+  @Test
+  public void testColumnBoundaries() {
+    long first = hasher.reset().putString("ab").putString("c").hash();
+    long second = hasher.reset().putString("a").putString("bc").hash();
+
+    assertNotEquals(first, second);
+  }
+
+  @Test
+  public void testNullIsNotEmpty() {
+    long first = hasher.reset().putString("").hash();
+    long second = hasher.reset().putNull().hash();
+
+    assertNotEquals(first, second);
+  }
+
+  @Test
+  public void testWideRow() {
+    StringBuilder wide = new StringBuilder();
+    for (int x = 0; x < 10000; x++) {
+      wide.append(x);
+    }
+    byte[] bytes = wide.toString().getBytes(StandardCharsets.UTF_8);
+
+    long first = hasher.reset().putBytes(bytes).hash();
+    bytes[bytes.length - 1] ^= 1;
+    long second = hasher.reset().putBytes(bytes).hash();
+
+    assertNotEquals(first, second);
+  }
+}
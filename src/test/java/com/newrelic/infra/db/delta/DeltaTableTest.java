@@ -0,0 +1,57 @@
+package com.newrelic.infra.db.delta;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test for DeltaTable.
+ */
+public class DeltaTableTest {
+
+  @Test
+  public void testAddFindAndUpdate() {
+    DeltaTable table = new DeltaTable();
+    int entry = table.add(42L, 10, 100);
+
+    assertEquals(entry, table.find(42L));
+    assertEquals(-1, table.find(43L));
+
+    table.update(entry, 15, 200);
+    assertEquals(15, table.getValue(entry), 0);
+    assertEquals(200, table.getLastSeen(entry));
+  }
+
+  @Test
+  public void testGrowKeepsEntries() {
+    DeltaTable table = new DeltaTable();
+    for (long key = 0; key < 1000; key++) {
+      table.add(key * 0x9E3779B97F4A7C15L, key, 0);
+    }
+
+    assertEquals(1000, table.size());
+    for (long key = 0; key < 1000; key++) {
+      assertEquals(key, table.getValue(table.find(key * 0x9E3779B97F4A7C15L)), 0);
+    }
+  }
+
+  @Test
+  public void testEvictIdle() {
+    DeltaTable table = new DeltaTable();
+    for (long key = 0; key < 200; key++) {
+      // Same home slot for many keys, so eviction has to repair probe runs
+      table.add(key << 32, key, key % 2 == 0 ? 100 : 500);
+    }
+
+    assertEquals(100, table.evictIdle(300));
+    assertEquals(100, table.size());
+    for (long key = 0; key < 200; key++) {
+      int entry = table.find(key << 32);
+      if (key % 2 == 0) {
+        assertEquals(-1, entry);
+      } else {
+        assertEquals(key, table.getValue(entry), 0);
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.newrelic.infra.db.delta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.newrelic.infra.db.parser.MetricKind;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Test for KeyedDeltas.
+ */
+public class KeyedDeltasTest {
+
+  private static final long second = 1000000000L;
+
+  private static Map<String, Object> row(String database, long bytesRead) {
+    Map<String, Object> row = new HashMap<>();
+    row.put("database_name", database);
+    row.put("file_id", 1);
+    row.put("num_of_bytes_read", bytesRead);
+    return row;
+  }
+
+  @Test
+  public void testDeltasArePerEntity() {
+    KeyedDeltas deltas = new KeyedDeltas(
+        Arrays.asList("DATABASE_NAME", "file_id"),
+        Collections.emptyList(),
+        MetricKind.DELTA,
+        600
+    );
+
+    assertFalse(deltas.apply(row("db1", 100), 0));
+    assertFalse(deltas.apply(row("db2", 5000), 0));
+
+    Map<String, Object> db1 = row("db1", 150);
+    Map<String, Object> db2 = row("db2", 5100);
+    assertTrue(deltas.apply(db1, second));
+    assertTrue(deltas.apply(db2, second));
+
+    assertEquals(50.0, db1.get("num_of_bytes_read"));
+    assertEquals(100.0, db2.get("num_of_bytes_read"));
+    assertEquals(1, db1.get("file_id"));
+  }
+
+  @Test
+  public void testRatePerSecond() {
+    KeyedDeltas deltas = new KeyedDeltas(
+        Collections.singletonList("database_name"),
+        Collections.singletonList("num_of_bytes_read"),
+        MetricKind.RATE,
+        600
+    );
+
+    deltas.apply(row("db1", 1000), 0);
+    Map<String, Object> next = row("db1", 3000);
+    deltas.apply(next, 4 * second);
+
+    assertEquals(500.0, next.get("num_of_bytes_read"));
+  }
+
+  @Test
+  public void testResetTakesNewValue() {
+    KeyedDeltas deltas = new KeyedDeltas(
+        Collections.singletonList("database_name"),
+        Collections.emptyList(),
+        MetricKind.DELTA,
+        600
+    );
+
+    deltas.apply(row("db1", 1000), 0);
+    Map<String, Object> restarted = row("db1", 30);
+    deltas.apply(restarted, second);
+
+    assertEquals(30.0, restarted.get("num_of_bytes_read"));
+    assertEquals(1, deltas.takeResets());
+    assertEquals(0, deltas.takeResets());
+  }
+
+  @Test
+  public void testIdleEntitiesAreForgotten() {
+    KeyedDeltas deltas = new KeyedDeltas(
+        Collections.singletonList("database_name"),
+        Collections.singletonList("num_of_bytes_read"),
+        MetricKind.DELTA,
+        60
+    );
+
+    deltas.apply(row("db1", 100), 0);
+    deltas.apply(row("db2", 100), 50 * second);
+    assertEquals(1, deltas.evictIdle(90 * second));
+    assertEquals(1, deltas.size());
+
+    assertFalse(deltas.apply(row("db1", 200), 90 * second));
+  }
+}
@@ -0,0 +1,225 @@
+package com.newrelic.infra.db.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.newrelic.infra.publish.api.metrics.Metric;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test for GenericParser.
+ */
+public class GenericParserTest {
+
+  /**
+   * Setup method to load DB Class and init DB with Data.
+   */
+  @BeforeClass
+  public static void initDatabase() throws ClassNotFoundException, SQLException {
+    Class.forName("org.hsqldb.jdbc.JDBCDriver");
+
+    try (
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+    ) {
+      statement.execute("CREATE TABLE NUMBERS (id INT NOT NULL, amount DECIMAL(10,2),"
+          + "total DECIMAL(18,0), huge DECIMAL(30,4), label VARCHAR(20))");
+      statement.executeUpdate(
+          "INSERT INTO NUMBERS VALUES (1, 12.34, 123456789012345678, 1.2345, ' one ')"
+      );
+      statement.executeUpdate("INSERT INTO NUMBERS VALUES (2, NULL, NULL, NULL, NULL)");
+      connection.commit();
+    }
+  }
+
+  private static Connection getConnection() throws SQLException {
+    return DriverManager.getConnection("jdbc:hsqldb:mem:PARSER", "SA", "SA");
+  }
+
+  /**
+   * DECIMAL columns must keep their fraction and their full precision.
+   */
+  @Test
+  public void testDecimalPrecision() throws Exception {
+    GenericParser parser = new GenericParser();
+
+    try (
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT * FROM NUMBERS ORDER BY id");
+    ) {
+      assertTrue(rs.next());
+      Map<String, Object> row = parser.parseRawRow(rs, rs.getMetaData());
+
+      assertEquals(12.34, ((Number) row.get("amount")).doubleValue(), 0.0);
+      assertEquals(123456789012345678L, ((Number) row.get("total")).longValue());
+      assertEquals(new BigDecimal("1.2345"), row.get("huge"));
+      assertEquals("one", row.get("label"));
+
+      assertTrue(rs.next());
+      row = parser.parseRawRow(rs, rs.getMetaData());
+
+      assertFalse(row.containsKey("amount"));
+      assertFalse(row.containsKey("total"));
+      assertFalse(row.containsKey("huge"));
+    }
+  }
+
+  /**
+   * The column plan is reused for the same columns and rebuilt when they
+   * change.
+   */
+  @Test
+  public void testColumnPlanInvalidation() throws Exception {
+    GenericParser parser = new GenericParser();
+
+    try (
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+    ) {
+      ColumnPlan first;
+      try (ResultSet rs = statement.executeQuery("SELECT id, label FROM NUMBERS")) {
+        first = parser.getColumnPlan(rs.getMetaData());
+      }
+
+      try (ResultSet rs = statement.executeQuery("SELECT id, label FROM NUMBERS")) {
+        assertSame(first, parser.getColumnPlan(rs.getMetaData()));
+      }
+
+      try (ResultSet rs = statement.executeQuery("SELECT id, amount FROM NUMBERS")) {
+        ColumnPlan changed = parser.getColumnPlan(rs.getMetaData());
+        assertNotSame(first, changed);
+        assertEquals("amount", changed.getName(2));
+      }
+    }
+  }
+
+  /**
+   * An exact numeric column that changes precision or scale gets a new plan,
+   * so a fraction is not read with the extractor of a whole number.
+   */
+  @Test
+  public void testColumnPlanInvalidatedByScale() throws Exception {
+    GenericParser parser = new GenericParser();
+
+    try (
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+    ) {
+      ColumnPlan whole;
+      try (ResultSet rs = statement.executeQuery(
+          "SELECT CAST(id AS NUMERIC(10,0)) AS v FROM NUMBERS WHERE id = 1"
+      )) {
+        whole = parser.getColumnPlan(rs.getMetaData());
+      }
+
+      try (ResultSet rs = statement.executeQuery(
+          "SELECT CAST(huge AS NUMERIC(20,4)) AS v FROM NUMBERS WHERE id = 1"
+      )) {
+        assertNotSame(whole, parser.getColumnPlan(rs.getMetaData()));
+        assertTrue(rs.next());
+        Map<String, Object> row = parser.parseRawRow(rs, rs.getMetaData());
+        assertEquals(new BigDecimal("1.2345"), row.get("v"));
+      }
+    }
+  }
+
+  /**
+   * A columnar batch reports the same metrics as parsing row by row, and
+   * stops at the batch size.
+   */
+  @Test
+  public void testParseBatchMatchesRows() throws Exception {
+    GenericParser parser = new GenericParser();
+
+    try (
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rows = statement.executeQuery("SELECT * FROM NUMBERS ORDER BY id");
+        ResultSet batched = connection.createStatement()
+            .executeQuery("SELECT * FROM NUMBERS ORDER BY id");
+    ) {
+      ColumnarBatch batch = parser.parseBatch(batched, batched.getMetaData(), 1);
+      ColumnPlan plan = batch.getPlan();
+
+      assertEquals(1, batch.size());
+      assertTrue(batch.isFull());
+      assertEquals(ColumnPlan.Storage.LONG, plan.getStorage(1));
+      assertEquals(ColumnPlan.Storage.DOUBLE, plan.getStorage(2));
+      assertEquals(ColumnPlan.Storage.OBJECT, plan.getStorage(4));
+      assertEquals(ColumnPlan.Storage.TEXT, plan.getStorage(5));
+
+      assertTrue(rows.next());
+      List<Metric> expected = parser.parseMetricRow("gauge", rows, rows.getMetaData());
+      List<Metric> actual = batch.metricRows(MetricKind.GAUGE).get(0);
+
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getName(), actual.get(i).getName());
+      }
+      assertEquals("one", batch.getString(0, 5));
+      assertEquals(1L, batch.getLong(0, 1));
+
+      batch = parser.parseBatch(batched, batched.getMetaData(), 10);
+      assertSame(plan, batch.getPlan());
+
+      assertEquals(1, batch.size());
+      assertFalse(batch.isFull());
+      assertTrue(batch.isNull(0, 2));
+      assertTrue(batch.isNull(0, 3));
+      assertTrue(batch.isNull(0, 5));
+      assertFalse(batch.getRawRow(0).containsKey("amount"));
+      assertEquals(2L, batch.getRawRow(0).get("id"));
+    }
+  }
+
+  /**
+   * Repeated strings are stored once.
+   */
+  @Test
+  public void testParseBatchDictionary() throws Exception {
+    GenericParser parser = new GenericParser();
+
+    try (
+        Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(
+            "SELECT 'same' AS kind, label FROM NUMBERS ORDER BY id"
+        );
+    ) {
+      ColumnarBatch batch = parser.parseBatch(rs, rs.getMetaData(), 10);
+
+      assertEquals(2, batch.size());
+      assertEquals("same", batch.getString(1, 1));
+      assertEquals(2, batch.getDictionarySize());
+    }
+  }
+
+  /**
+   * A subclass that opts out of batches has its rows parsed one at a time.
+   */
+  @Test
+  public void testParseBatchOptOut() throws Exception {
+    GenericParser parser = new GenericParser() {
+      @Override
+      protected boolean supportsBatch() {
+        return false;
+      }
+    };
+
+    assertNull(parser.parseBatch(null, null, 10));
+  }
+}
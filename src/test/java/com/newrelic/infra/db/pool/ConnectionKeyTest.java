@@ -0,0 +1,53 @@
+package com.newrelic.infra.db.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * Test for ConnectionKey.
+ */
+public class ConnectionKeyTest {
+
+  private static ConnectionKey key(String password, int connectTimeout, PoolSettings settings) {
+    return new ConnectionKey(
+        "MySQL", "localhost", 3306, "db", "user", password, false, false, false, null, null, null,
+        false, connectTimeout, settings
+    );
+  }
+
+  @Test
+  public void testEqualSettingsShareKey() {
+    final ConnectionKey first = key("secret", 10, new PoolSettings());
+    final ConnectionKey second = key("secret", 10, new PoolSettings());
+
+    assertEquals(first, second);
+    assertEquals(first.hashCode(), second.hashCode());
+  }
+
+  @Test
+  public void testPasswordIsPartOfKey() {
+    assertNotEquals(key("secret", 10, new PoolSettings()), key("other", 10, new PoolSettings()));
+    assertNotEquals(key("secret", 10, new PoolSettings()), key(null, 10, new PoolSettings()));
+  }
+
+  @Test
+  public void testConnectTimeoutIsPartOfKey() {
+    assertNotEquals(key("secret", 10, new PoolSettings()), key("secret", 20, new PoolSettings()));
+  }
+
+  @Test
+  public void testPoolSettingsArePartOfKey() {
+    final PoolSettings bigger = new PoolSettings();
+    bigger.setMaxSize(16);
+
+    assertNotEquals(key("secret", 10, new PoolSettings()), key("secret", 10, bigger));
+  }
+
+  @Test
+  public void testPasswordIsNotLogged() {
+    assertFalse(key("secret", 10, new PoolSettings()).toString().contains("secret"));
+  }
+}
@@ -0,0 +1,110 @@
+package com.newrelic.infra.db.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Test for ConnectionPoolManager and the members of a shared pool.
+ */
+public class ConnectionPoolManagerTest {
+
+  private static ConnectionKey key(String database, PoolSettings settings) {
+    return new ConnectionKey(
+        "stub", "localhost", 0, database, "user", "secret", false, false, false, null, null, null,
+        false, 0, settings
+    );
+  }
+
+  /**
+   * A connection that is always valid and counts its opens.
+   */
+  private static ConnectionFactory factory(AtomicInteger opened) {
+    return () -> {
+      opened.incrementAndGet();
+      return (Connection) Proxy.newProxyInstance(
+          ConnectionPoolManagerTest.class.getClassLoader(),
+          new Class<?>[] {Connection.class},
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "isValid":
+                return true;
+              case "isClosed":
+                return false;
+              default:
+                return null;
+            }
+          }
+      );
+    };
+  }
+
+  @Test
+  public void testBorrowUsesBorrowersFactory() throws SQLException {
+    final ConnectionKey key = key("BORROW", new PoolSettings());
+    final AtomicInteger first = new AtomicInteger();
+    final AtomicInteger second = new AtomicInteger();
+    final ConnectionFactory firstFactory = factory(first);
+    final ConnectionFactory secondFactory = factory(second);
+    final ConnectionPoolManager manager = ConnectionPoolManager.getInstance();
+
+    final ConnectionPool pool = manager.acquire(key, firstFactory);
+    assertSame(pool, manager.acquire(key, secondFactory));
+
+    final Connection connection = pool.borrow(secondFactory);
+    assertEquals(0, first.get());
+    assertEquals(1, second.get());
+
+    pool.release(connection, false);
+    manager.release(key, firstFactory);
+    manager.release(key, secondFactory);
+  }
+
+  /**
+   * Once the member that created the pool leaves, for instance a command
+   * retired by a reload, its factory is no longer used.
+   */
+  @Test
+  public void testLeftMemberIsNotUsed() throws SQLException {
+    final PoolSettings settings = new PoolSettings();
+    settings.setMinSize(2);
+    final ConnectionKey key = key("LEFT", settings);
+    final AtomicInteger retired = new AtomicInteger();
+    final AtomicInteger live = new AtomicInteger();
+    final ConnectionFactory retiredFactory = factory(retired);
+    final ConnectionFactory liveFactory = factory(live);
+    final ConnectionPoolManager manager = ConnectionPoolManager.getInstance();
+
+    final ConnectionPool pool = manager.acquire(key, retiredFactory);
+    manager.acquire(key, liveFactory);
+    manager.release(key, retiredFactory);
+
+    pool.maintain();
+    final Connection connection = pool.borrow();
+
+    assertEquals(0, retired.get());
+    assertEquals(2, live.get());
+
+    pool.release(connection, false);
+    manager.release(key, liveFactory);
+  }
+
+  @Test
+  public void testPoolIsClosedWhenLastMemberLeaves() throws SQLException {
+    final ConnectionKey key = key("CLOSE", new PoolSettings());
+    final ConnectionFactory factory = factory(new AtomicInteger());
+    final ConnectionPoolManager manager = ConnectionPoolManager.getInstance();
+
+    final ConnectionPool pool = manager.acquire(key, factory);
+    manager.release(key, factory);
+
+    assertNotSame(pool, manager.acquire(key, factory));
+    manager.release(key, factory);
+  }
+}
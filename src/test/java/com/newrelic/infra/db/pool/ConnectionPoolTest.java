@@ -0,0 +1,172 @@
+package com.newrelic.infra.db.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test for ConnectionPool.
+ */
+public class ConnectionPoolTest {
+
+  private static final ConnectionKey key = new ConnectionKey(
+      "HSQLDB", "localhost", 0, "POOL", "SA", "SA", false, false, false, null, null, null, false,
+      0, new PoolSettings()
+  );
+
+  private final AtomicInteger connects = new AtomicInteger();
+
+  @BeforeClass
+  public static void loadDriver() throws ClassNotFoundException {
+    Class.forName("org.hsqldb.jdbc.JDBCDriver");
+  }
+
+  private Connection connect() throws SQLException {
+    connects.incrementAndGet();
+    return DriverManager.getConnection("jdbc:hsqldb:mem:POOL", "SA", "SA");
+  }
+
+  @Test
+  public void testConnectionIsReused() throws SQLException {
+    ConnectionPool pool = new ConnectionPool(key, this::connect, new PoolSettings());
+
+    Connection first = pool.borrow();
+    pool.release(first, false);
+    Connection second = pool.borrow();
+    pool.release(second, false);
+
+    assertSame(first, second);
+    assertEquals(1, connects.get());
+    assertEquals(1, pool.getIdleCount());
+    pool.close();
+  }
+
+  @Test
+  public void testDiscardedConnectionIsClosed() throws SQLException {
+    ConnectionPool pool = new ConnectionPool(key, this::connect, new PoolSettings());
+
+    Connection first = pool.borrow();
+    pool.release(first, true);
+    assertTrue(first.isClosed());
+
+    Connection second = pool.borrow();
+    assertNotSame(first, second);
+    pool.release(second, false);
+    pool.close();
+  }
+
+  @Test(expected = SQLTimeoutException.class)
+  public void testAcquireTimeout() throws SQLException {
+    PoolSettings settings = new PoolSettings();
+    settings.setMaxSize(1);
+    settings.setAcquireTimeout(50);
+    ConnectionPool pool = new ConnectionPool(key, this::connect, settings);
+
+    pool.borrow();
+    pool.borrow();
+  }
+
+  @Test
+  public void testReconnectBackoff() {
+    PoolSettings settings = new PoolSettings();
+    settings.setReconnectBackoff(60000);
+    ConnectionPool pool = new ConnectionPool(key, () -> {
+      connects.incrementAndGet();
+      throw new SQLException("Connection refused", "08001");
+    }, settings);
+
+    try {
+      pool.borrow();
+      fail("Expected the connect to fail");
+    } catch (SQLException e) {
+      assertEquals("08001", e.getSQLState());
+    }
+
+    try {
+      pool.borrow();
+      fail("Expected the pool to be backing off");
+    } catch (SQLException e) {
+      // The second attempt must fail fast without trying to connect again
+      assertTrue(e instanceof SQLTransientConnectionException);
+    }
+    assertEquals(1, connects.get());
+    assertEquals(0, pool.getLeasedCount());
+  }
+
+  @Test
+  public void testIdleEviction() throws SQLException, InterruptedException {
+    PoolSettings settings = new PoolSettings();
+    settings.setIdleTimeout(1);
+    ConnectionPool pool = new ConnectionPool(key, this::connect, settings);
+
+    Connection connection = pool.borrow();
+    pool.release(connection, false);
+    Thread.sleep(10);
+    pool.maintain();
+
+    assertEquals(0, pool.getIdleCount());
+    assertTrue(connection.isClosed());
+  }
+
+  @Test
+  public void testMinimumSizeIsRestored() {
+    PoolSettings settings = new PoolSettings();
+    settings.setMinSize(2);
+    ConnectionPool pool = new ConnectionPool(key, this::connect, settings);
+
+    pool.maintain();
+
+    assertEquals(2, pool.getIdleCount());
+    pool.close();
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  @Test
+  public void testStatementIsReused() throws SQLException {
+    ConnectionPool pool = new ConnectionPool(key, this::connect, new PoolSettings());
+    String sql = "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+
+    Connection connection = pool.borrow();
+    PreparedStatement first = pool.prepareStatement(
+        connection, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+    );
+    pool.releaseStatement(connection, first, false);
+    PreparedStatement second = pool.prepareStatement(
+        connection, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+    );
+    pool.releaseStatement(connection, second, true);
+    PreparedStatement third = pool.prepareStatement(
+        connection, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+    );
+
+    assertSame(first, second);
+    assertTrue(second.isClosed());
+    assertNotSame(second, third);
+
+    // A broken connection takes its statements with it
+    pool.releaseStatement(connection, third, false);
+    pool.release(connection, true);
+    assertTrue(third.isClosed());
+    pool.close();
+  }
+
+  @Test
+  public void testConnectionFailureDetection() {
+    assertTrue(ConnectionPool.isConnectionFailure(new SQLException("gone", "08S01")));
+    assertFalse(ConnectionPool.isConnectionFailure(new SQLException("syntax", "42000")));
+  }
+}
@@ -0,0 +1,61 @@
+package com.newrelic.infra.db.sampling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Test for ReservoirSampler.
+ */
+public class ReservoirSamplerTest {
+
+  @Test
+  public void testKeepsEverythingBelowSize() {
+    ReservoirSampler<Integer> sampler = new ReservoirSampler<>(5, new Random(1));
+    sampler.offer(1, 0);
+    sampler.offer(2, 0);
+    sampler.offer(3, 0);
+
+    assertEquals(Arrays.asList(1, 2, 3), sampler.getRows());
+    assertEquals(0, sampler.getDropped());
+  }
+
+  @Test
+  public void testSampleIsBoundedAndOrdered() {
+    ReservoirSampler<Integer> sampler = new ReservoirSampler<>(10, new Random(42));
+    for (int x = 0; x < 10000; x++) {
+      sampler.offer(x, 0);
+    }
+
+    List<Integer> rows = sampler.getRows();
+    assertEquals(10, rows.size());
+    assertEquals(9990, sampler.getDropped());
+    for (int x = 1; x < rows.size(); x++) {
+      assertTrue(rows.get(x - 1) < rows.get(x));
+    }
+  }
+
+  @Test
+  public void testSampleIsUniform() {
+    // Every row should be kept about size / rows of the time
+    int[] kept = new int[100];
+    Random random = new Random(7);
+    for (int run = 0; run < 2000; run++) {
+      ReservoirSampler<Integer> sampler = new ReservoirSampler<>(10, random);
+      for (int x = 0; x < kept.length; x++) {
+        sampler.offer(x, 0);
+      }
+      for (int row : sampler.getRows()) {
+        kept[row] += 1;
+      }
+    }
+
+    for (int count : kept) {
+      assertTrue("kept " + count + " times", count > 120 && count < 280);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.newrelic.infra.db.sampling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Test for TopNSampler.
+ */
+public class TopNSamplerTest {
+
+  @Test
+  public void testKeepsLargestKeys() {
+    TopNSampler<String> sampler = new TopNSampler<>(3);
+    sampler.offer("a", 5);
+    sampler.offer("b", 1);
+    sampler.offer("c", 9);
+    sampler.offer("d", 7);
+    sampler.offer("e", 2);
+
+    assertEquals(Arrays.asList("c", "d", "a"), sampler.getRows());
+    assertEquals(5, sampler.getOffered());
+    assertEquals(2, sampler.getDropped());
+  }
+
+  @Test
+  public void testEqualKeysKeepFirstOffered() {
+    TopNSampler<String> sampler = new TopNSampler<>(2);
+    sampler.offer("a", 1);
+    sampler.offer("b", 1);
+    sampler.offer("c", 1);
+
+    assertEquals(Arrays.asList("a", "b"), sampler.getRows());
+  }
+
+  @Test
+  public void testNanRanksLast() {
+    TopNSampler<String> sampler = new TopNSampler<>(2);
+    sampler.offer("a", Double.NaN);
+    sampler.offer("b", -100);
+    sampler.offer("c", Double.NaN);
+
+    assertEquals(Arrays.asList("b", "a"), sampler.getRows());
+  }
+}
@@ -0,0 +1,103 @@
+package com.newrelic.infra.db.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test for CircuitBreaker.
+ */
+public class CircuitBreakerTest {
+
+  private static CircuitBreaker newBreaker() {
+    BreakerSettings settings = new BreakerSettings();
+    settings.setFailureThreshold(2);
+    settings.setBackoff(1000L);
+    settings.setMaxBackoff(3000L);
+    return new CircuitBreaker("test", settings);
+  }
+
+  @Test
+  public void testOpensAfterThreshold() {
+    CircuitBreaker breaker = newBreaker();
+
+    breaker.recordFailure(0);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.tryAcquire(0));
+
+    breaker.recordFailure(0);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire(999));
+    assertFalse(breaker.isCallPermitted(999));
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    CircuitBreaker breaker = newBreaker();
+
+    breaker.recordFailure(0);
+    breaker.recordSuccess();
+    breaker.recordFailure(0);
+
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testHalfOpenLetsOneProbeThrough() {
+    CircuitBreaker breaker = newBreaker();
+    breaker.recordFailure(0);
+    breaker.recordFailure(0);
+
+    assertTrue(breaker.isCallPermitted(1000));
+    assertTrue(breaker.tryAcquire(1000));
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire(1001));
+
+    breaker.recordSuccess();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.tryAcquire(1002));
+  }
+
+  @Test
+  public void testFailedProbeDoublesBackoff() {
+    CircuitBreaker breaker = newBreaker();
+    breaker.recordFailure(0);
+    breaker.recordFailure(0);
+
+    assertTrue(breaker.tryAcquire(1000));
+    breaker.recordFailure(1000);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire(2999));
+    assertTrue(breaker.tryAcquire(3000));
+
+    // Capped at the max backoff
+    breaker.recordFailure(3000);
+    assertFalse(breaker.tryAcquire(5999));
+    assertTrue(breaker.tryAcquire(6000));
+  }
+
+  @Test
+  public void testAbandonedProbeExpires() {
+    CircuitBreaker breaker = newBreaker();
+    breaker.recordFailure(0);
+    breaker.recordFailure(0);
+
+    assertTrue(breaker.tryAcquire(1000));
+    assertFalse(breaker.tryAcquire(1999));
+    assertTrue(breaker.tryAcquire(2000));
+  }
+
+  @Test
+  public void testDisabledNeverOpens() {
+    BreakerSettings settings = new BreakerSettings();
+    settings.setFailureThreshold(0);
+    CircuitBreaker breaker = new CircuitBreaker("test", settings);
+
+    for (int x = 0; x < 10; x++) {
+      breaker.recordFailure(0);
+    }
+    assertTrue(breaker.tryAcquire(0));
+  }
+}
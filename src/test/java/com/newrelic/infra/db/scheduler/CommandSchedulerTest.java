@@ -0,0 +1,205 @@
+package com.newrelic.infra.db.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.newrelic.infra.db.command.DatabaseCommand;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test for CommandScheduler.
+ */
+public class CommandSchedulerTest {
+
+  private final ExecutorService workers = Executors.newCachedThreadPool();
+  private final CommandScheduler scheduler = new CommandScheduler("test", workers);
+
+  @After
+  public void shutdown() {
+    scheduler.shutdown();
+    workers.shutdownNow();
+  }
+
+  @Test
+  public void testStartsAreStaggered() throws InterruptedException {
+    final List<Long> starts = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch started = new CountDownLatch(4);
+    final long start = System.currentTimeMillis();
+
+    for (int x = 0; x < 4; x++) {
+      final int slot = x;
+      scheduler.schedule(new FakeCommand("Stagger" + x), 1000L, OverlapPolicy.SKIP, () -> {
+        if (starts.size() == slot) {
+          starts.add(System.currentTimeMillis() - start);
+          started.countDown();
+        }
+      });
+    }
+    scheduler.start();
+
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    for (int x = 0; x < 4; x++) {
+      final long expected = x * 250L;
+      assertTrue(
+          "Command " + x + " started after " + starts.get(x) + "ms",
+          starts.get(x) >= expected && starts.get(x) < expected + 200
+      );
+    }
+  }
+
+  @Test
+  public void testSkipDropsRunsWhileRunning() throws InterruptedException {
+    final SlowJob job = new SlowJob();
+    scheduler.schedule(new FakeCommand("Skip"), 50L, OverlapPolicy.SKIP, job);
+    scheduler.start();
+
+    assertTrue(job.started.await(5, TimeUnit.SECONDS));
+    Thread.sleep(300);
+    assertEquals(1, job.runs.get());
+
+    job.release.countDown();
+    Thread.sleep(300);
+    assertTrue(job.runs.get() > 1);
+    assertEquals(1, job.maxConcurrent.get());
+  }
+
+  @Test
+  public void testQueueRunsOnceAfterPrevious() throws InterruptedException {
+    final SlowJob job = new SlowJob();
+    scheduler.schedule(new FakeCommand("Queue"), 50L, OverlapPolicy.QUEUE, job);
+    scheduler.start();
+
+    assertTrue(job.started.await(5, TimeUnit.SECONDS));
+    Thread.sleep(300);
+    assertEquals(1, job.runs.get());
+
+    // Several fires were missed, but only one run was queued
+    job.release.countDown();
+    assertTrue(job.secondStarted.await(5, TimeUnit.SECONDS));
+    assertEquals(1, job.maxConcurrent.get());
+  }
+
+  @Test
+  public void testCancelTimesOutAndWaitsForPrevious() throws InterruptedException {
+    final FakeCommand command = new FakeCommand("Cancel");
+    final SlowJob job = new SlowJob();
+    scheduler.schedule(command, 50L, OverlapPolicy.CANCEL, job);
+    scheduler.start();
+
+    assertTrue(job.started.await(5, TimeUnit.SECONDS));
+    Thread.sleep(300);
+
+    // The job ignores the cancel, so nothing runs next to it
+    assertTrue(command.timeOuts.get() > 0);
+    assertEquals(1, job.runs.get());
+    assertFalse(job.interrupted.get());
+
+    job.release.countDown();
+    assertTrue(job.secondStarted.await(5, TimeUnit.SECONDS));
+    assertEquals(1, job.maxConcurrent.get());
+  }
+
+  @Test
+  public void testFastRunKeepsInterval() {
+    assertEquals(10000L, CommandScheduler.adaptInterval(10000L, 10000L, 1000L, 0.5));
+  }
+
+  @Test
+  public void testSlowRunLengthensInterval() {
+    assertEquals(16000L, CommandScheduler.adaptInterval(10000L, 10000L, 8000L, 0.5));
+  }
+
+  @Test
+  public void testIntervalIsCapped() {
+    assertEquals(160000L, CommandScheduler.adaptInterval(10000L, 10000L, 600000L, 0.5));
+  }
+
+  @Test
+  public void testIntervalShrinksByHalfAtMost() {
+    assertEquals(40000L, CommandScheduler.adaptInterval(10000L, 80000L, 1000L, 0.5));
+    assertEquals(10000L, CommandScheduler.adaptInterval(10000L, 16000L, 1000L, 0.5));
+  }
+
+  @Test
+  public void testDisabled() {
+    assertEquals(10000L, CommandScheduler.adaptInterval(10000L, 40000L, 60000L, 0));
+  }
+
+  /**
+   * A job whose first run blocks until released, ignoring interrupts and
+   * cancels, like a query stuck in its driver.
+   */
+  private static final class SlowJob implements Runnable {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch secondStarted = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private final AtomicBoolean interrupted = new AtomicBoolean();
+
+    @Override
+    public void run() {
+      final int run = runs.incrementAndGet();
+      maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+
+      try {
+        if (run == 1) {
+          started.countDown();
+          while (release.getCount() > 0) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              interrupted.set(true);
+            }
+          }
+        } else {
+          secondStarted.countDown();
+        }
+      } finally {
+        concurrent.decrementAndGet();
+      }
+    }
+  }
+
+  private static final class FakeCommand extends DatabaseCommand {
+    private final AtomicInteger timeOuts = new AtomicInteger();
+
+    private FakeCommand(String name) {
+      setName(name);
+    }
+
+    @Override
+    public String getDbDriverName() {
+      return null;
+    }
+
+    @Override
+    public String getDbType() {
+      return "fake";
+    }
+
+    @Override
+    public Connection getConnection() {
+      return null;
+    }
+
+    @Override
+    public void timeOut() {
+      timeOuts.incrementAndGet();
+      super.timeOut();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.newrelic.infra.db.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Test for Watchdog.
+ */
+public class WatchdogTest {
+
+  @Test
+  public void testFiresWhenNotCancelled() throws Exception {
+    final CountDownLatch fired = new CountDownLatch(1);
+
+    Watchdog.watch(10, fired::countDown);
+
+    assertTrue(fired.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCancelledWatchDoesNotFire() throws Exception {
+    final AtomicInteger fired = new AtomicInteger();
+
+    ScheduledFuture<?> watch = Watchdog.watch(50, fired::incrementAndGet);
+    Watchdog.cancel(watch);
+    Thread.sleep(200);
+
+    assertEquals(0, fired.get());
+  }
+
+  @Test
+  public void testFailingActionDoesNotStopTheWatchdog() throws Exception {
+    final CountDownLatch fired = new CountDownLatch(1);
+
+    Watchdog.watch(0, () -> {
+      throw new IllegalStateException("Expected");
+    });
+    Watchdog.watch(10, fired::countDown);
+
+    assertTrue(fired.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCancelNull() {
+    Watchdog.cancel(null);
+  }
+}
@@ -1,8 +1,32 @@
 package com.newrelic.infra.db.security;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.properties.PropertyValueEncryptionUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Test for EncryptorUtils.
@@ -11,6 +35,32 @@ public class EncryptorUtilsTest {
 
   private static String decryptedPassword = "password";
   private static String encryptedPassword = "ENC(eyNvYJitpB7DZ7vP1177LIAHmkNb6DSb)";
+  private static final long refreshInterval = 60000L;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path passwordFile;
+  private long modified = 1000000L;
+
+  /**
+   * Start every test without a cached encryptor and with a secured password
+   * file. The password must not come from the environment.
+   */
+  @Before
+  public void createPasswordFile() throws IOException {
+    Assume.assumeTrue(
+        System.getenv(EncryptorUtils.NRIDB_ENCRYPTION_PASSWORD_ENV_VAR_NAME) == null
+    );
+    EncryptorUtils.clearCache();
+    passwordFile = folder.newFolder().toPath().resolve(".nridbrc");
+    writePassword("first");
+  }
+
+  @After
+  public void clearCache() {
+    EncryptorUtils.clearCache();
+  }
 
   @Test
   public void testEncrypt() {
@@ -31,4 +81,140 @@ public class EncryptorUtilsTest {
      * pass); assertEquals(decryptedPassword, pass);
      */
   }
-}
\ No newline at end of file
+
+  /**
+   * Within the refresh interval the encryptor is reused without looking at
+   * the password file.
+   */
+  @Test
+  public void testDecryptorIsCached() throws IOException {
+    final StandardPBEStringEncryptor first = EncryptorUtils.getDecryptor(passwordFile, 0);
+
+    writePassword("second");
+
+    assertSame(first, EncryptorUtils.getDecryptor(passwordFile, refreshInterval - 1));
+  }
+
+  /**
+   * After the refresh interval an unchanged file keeps the encryptor, a new
+   * password rebuilds it.
+   */
+  @Test
+  public void testDecryptorIsRebuiltAfterRefresh() throws IOException {
+    final StandardPBEStringEncryptor first = EncryptorUtils.getDecryptor(passwordFile, 0);
+
+    assertSame(first, EncryptorUtils.getDecryptor(passwordFile, refreshInterval));
+
+    writePassword("second");
+
+    assertNotSame(first, EncryptorUtils.getDecryptor(passwordFile, refreshInterval * 2));
+  }
+
+  /**
+   * A password file whose permissions were loosened is refused on the next
+   * refresh, even though its contents did not change.
+   */
+  @Test
+  public void testInsecureFileIsRefusedOnRefresh() throws IOException {
+    final PosixFileAttributeView posix = Files.getFileAttributeView(
+        passwordFile,
+        PosixFileAttributeView.class
+    );
+    Assume.assumeTrue(posix != null);
+
+    EncryptorUtils.getDecryptor(passwordFile, 0);
+    final FileTime time = Files.getLastModifiedTime(passwordFile);
+    posix.setPermissions(EnumSet.of(
+        PosixFilePermission.OWNER_READ,
+        PosixFilePermission.GROUP_READ,
+        PosixFilePermission.OTHERS_READ
+    ));
+    Files.setLastModifiedTime(passwordFile, time);
+
+    try {
+      EncryptorUtils.getDecryptor(passwordFile, refreshInterval);
+      fail("Insecure password file was used");
+    } catch (IOException e) {
+      // Expected
+    }
+
+    // Not cached either
+    try {
+      EncryptorUtils.getDecryptor(passwordFile, refreshInterval + 1);
+      fail("Insecure password file was used");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testDecryptAll() throws IOException {
+    final StandardPBEStringEncryptor encryptor = EncryptorUtils.getDecryptor(
+        passwordFile,
+        System.currentTimeMillis()
+    );
+    final Map<String, Object> properties = new HashMap<>();
+    properties.put("password", PropertyValueEncryptionUtils.encrypt("secret", encryptor));
+    properties.put(
+        "sslTrustStorePassword",
+        PropertyValueEncryptionUtils.encrypt("trust", encryptor)
+    );
+
+    final Map<String, String> decrypted = EncryptorUtils.decryptAll(
+        properties,
+        "password",
+        "sslTrustStorePassword"
+    );
+
+    assertEquals(2, decrypted.size());
+    assertEquals("secret", decrypted.get("password"));
+    assertEquals("trust", decrypted.get("sslTrustStorePassword"));
+  }
+
+  @Test
+  public void testDecryptAllSkipsUnsetProperties() throws IOException {
+    final StandardPBEStringEncryptor encryptor = EncryptorUtils.getDecryptor(
+        passwordFile,
+        System.currentTimeMillis()
+    );
+    final Map<String, Object> properties = Collections.<String, Object>singletonMap(
+        "password",
+        PropertyValueEncryptionUtils.encrypt("secret", encryptor)
+    );
+
+    final Map<String, String> decrypted = EncryptorUtils.decryptAll(
+        properties,
+        "password",
+        "sslTrustStorePassword"
+    );
+
+    assertEquals(Collections.singletonMap("password", "secret"), decrypted);
+    assertFalse(decrypted.containsKey("sslTrustStorePassword"));
+  }
+
+  /**
+   * Write a password file readable only by its owner, with a new
+   * modification time so the change is noticed.
+   */
+  private void writePassword(String password) throws IOException {
+    final PosixFileAttributeView posix = Files.getFileAttributeView(
+        passwordFile.getParent(),
+        PosixFileAttributeView.class
+    );
+    final Properties props = new Properties();
+    props.setProperty("encryptionPassword", password);
+
+    Files.deleteIfExists(passwordFile);
+    try (Writer writer = new OutputStreamWriter(Files.newOutputStream(passwordFile), "utf-8")) {
+      props.store(writer, "");
+    }
+
+    if (posix != null) {
+      Files.setPosixFilePermissions(passwordFile, EnumSet.of(PosixFilePermission.OWNER_READ));
+    } else {
+      passwordFile.toFile().setReadOnly();
+    }
+    modified += 1000L;
+    Files.setLastModifiedTime(passwordFile, FileTime.fromMillis(modified));
+  }
+}
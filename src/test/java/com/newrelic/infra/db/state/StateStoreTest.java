@@ -0,0 +1,94 @@
+package com.newrelic.infra.db.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test for StateStore.
+ */
+public class StateStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    File root = folder.newFolder();
+    StateStore store = new StateStore(new File(root, "agent.state").toPath());
+
+    Timestamp timestamp = new Timestamp(1500000000123L);
+    timestamp.setNanos(123456789);
+
+    Map<String, CommandState> states = new LinkedHashMap<>();
+    states.put("tail", new CommandState(
+        Arrays.asList("ID", "TS"),
+        Arrays.asList(42L, timestamp),
+        new long[] {1L, -7L},
+        new int[] {1, 3}
+    ));
+    states.put("money", new CommandState(
+        Arrays.asList("AMOUNT"),
+        Arrays.asList(new BigDecimal("12345678901234567890.5")),
+        new long[0],
+        new int[0]
+    ));
+    store.save(states);
+
+    Map<String, CommandState> loaded = store.load();
+
+    assertEquals(2, loaded.size());
+    CommandState tail = loaded.get("tail");
+    assertEquals(Arrays.asList("ID", "TS"), tail.getParameterColumns());
+    assertEquals(42L, tail.getParameterValues().get(0));
+    assertEquals(timestamp, tail.getParameterValues().get(1));
+    assertEquals(2, tail.getRowCount());
+    assertEquals(-7L, tail.getRowHash(1));
+    assertEquals(3, tail.getRowHits(1));
+    assertEquals(
+        new BigDecimal("12345678901234567890.5"),
+        loaded.get("money").getParameterValues().get(0)
+    );
+  }
+
+  @Test
+  public void testMissingFile() throws Exception {
+    File root = folder.newFolder();
+    StateStore store = new StateStore(new File(root, "missing.state").toPath());
+
+    assertTrue(store.load().isEmpty());
+  }
+
+  @Test
+  public void testDamagedFileIgnored() throws Exception {
+    File root = folder.newFolder();
+    Path file = new File(root, "agent.state").toPath();
+    StateStore store = new StateStore(file);
+
+    Map<String, CommandState> states = new LinkedHashMap<>();
+    states.put("tail", new CommandState(
+        Arrays.asList("ID"),
+        Arrays.asList(1),
+        new long[] {5L},
+        new int[] {1}
+    ));
+    store.save(states);
+
+    byte[] data = Files.readAllBytes(file);
+    data[data.length / 2] ^= 0x5a;
+    Files.write(file, data);
+
+    assertTrue(store.load().isEmpty());
+  }
+}